@@ -21,8 +21,22 @@ public interface IndexDAO {
 
     void destroy();
 
+    /**
+     * The response may be shared with identical queries running at the same time so it, and the documents in it,
+     * must not be modified. Copy a document before changing it.
+     *
+     * @param query
+     * @return
+     * @throws Exception
+     */
     QueryResponse query(SolrParams query) throws Exception;
 
+    /**
+     * @return counts of the queries and facet streams that were executed and that shared the result of an identical
+     * query running at the same time
+     */
+    Map<String, Object> getCoalescingStats();
+
     Long getIndexVersion(Boolean force);
 
     /**
@@ -21,20 +21,19 @@ import au.org.ala.biocache.util.QidMissingException;
 import au.org.ala.biocache.util.QidSizeException;
 import au.org.ala.biocache.util.QueryFormatUtils;
 import au.org.ala.biocache.util.SpatialUtils;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 /**
  * Manage cache of POST'ed search parameter q in memory and in db.
@@ -53,7 +52,7 @@ public class QidCacheDAOImpl implements QidCacheDAO {
     long maxCacheSize;
     
     /**
-     * min size of cached params in bytes
+     * min size of cached params in bytes. No longer used, eviction is incremental and keeps the cache below maxCacheSize.
      */
     @Value("${qid.cache.size.min:52428800}")
     long minCacheSize;
@@ -94,27 +93,6 @@ public class QidCacheDAOImpl implements QidCacheDAO {
     @Inject
     protected QueryFormatUtils queryFormatUtils;
 
-    /**
-     * in memory store of params
-     */
-    private ConcurrentMap<String, Qid> cache = new ConcurrentHashMap<String, Qid>();
-    
-    /**
-     * counter and lock
-     */
-    final private Object counterLock = new Object();
-
-    private long cacheSize;
-    
-    private CountDownLatch counter;
-
-    private long triggerCleanSize = minCacheSize + (maxCacheSize - minCacheSize) / 2;
-
-    /**
-     * thread for cache size limitation
-     */
-    private Thread cacheCleaner;
-
     @Inject
     private SearchDAO searchDAO;
 
@@ -122,43 +100,22 @@ public class QidCacheDAOImpl implements QidCacheDAO {
     private StoreDAO storeDao;
 
     /**
-     * init
+     * in memory store of params, bounded by the total size of the cached qids.
+     * <p>
+     * Eviction is frequency aware (W-TinyLFU) so qids used by map tiles stay cached. Concurrent misses on the
+     * same qid share a single load from the StoreDAO.
      */
-    public QidCacheDAOImpl() {
-        counter = new CountDownLatch(1);
-
-        cacheCleaner = new Thread() {
-
-            @Override
-            public void run() {
-                try {
-                    while (true) {
-                        if (counter != null) counter.await();
-
-                        synchronized (counterLock) {
-                            cacheSize = minCacheSize;
-                            counter = new CountDownLatch(1);
-                        }
-
-                        cleanCache();
-                    }
-                } catch (InterruptedException e) {
-                } catch (Exception e) {
-                    logger.error("params cache cleaner stopping", e);
-                }
-            }
-        };
-        cacheCleaner.setName("qid-cache-cleaner");
-        cacheCleaner.start();
+    private final LoadingCache<String, Qid> cache = Caffeine.newBuilder()
+            .maximumWeight(104857600)
+            .weigher((String key, Qid qid) -> (int) Math.min(Integer.MAX_VALUE, qid.getSize()))
+            .recordStats()
+            .build(this::loadUnescaped);
 
-        try {
-            updateTriggerCleanSize();
+    @PostConstruct
+    public void init() {
+        setMaxCacheSize(maxCacheSize);
 
-            logger.info("maxCacheSize > " + maxCacheSize);
-            logger.info("minCacheSize > " + minCacheSize);
-        } catch (Exception e) {
-            logger.error("cannot load qid.properties", e);
-        }
+        logger.info("maxCacheSize > " + maxCacheSize);
     }
 
     /**
@@ -173,7 +130,7 @@ public class QidCacheDAOImpl implements QidCacheDAO {
      * @param source       name of app that created this qid
      * @return id to retrieve stored value as long.
      */
-    synchronized public String put(String q, String displayQ, String wkt, double[] bbox, String[] fqs, long maxAge, String source) throws QidSizeException {
+    public String put(String q, String displayQ, String wkt, double[] bbox, String[] fqs, long maxAge, String source) throws QidSizeException {
         Qid qid = new Qid(null, q, displayQ, wkt, bbox, 0L, fqs, maxAge, source);
 
         if (qid.getSize() > largestCacheableSize) {
@@ -182,74 +139,49 @@ public class QidCacheDAOImpl implements QidCacheDAO {
 
         save(qid);
 
-        while (!put(qid)) {
-            //cache cleaner has been run, safe to try again
-        }
+        cache.put(qid.getRowKey(), qid);
 
         return qid.getRowKey();
     }
 
     /**
-     * after adding an object to the cache update the cache size.
+     * Retrive search parameter object
      *
-     * @param qid
-     * @return true if successful.
+     * @param key id returned by put as long.
+     * @return search parameter q as String, or null if not in memory
+     * or in file storage.
      */
-    boolean put(Qid qid) {
-        boolean runCleaner = false;
-        synchronized (counterLock) {
-            logger.debug("new cache size: " + cacheSize);
-            if (cacheSize + qid.getSize() > maxCacheSize) {
-                //run outside of counterLock
-                runCleaner = true;
-                logger.debug("not putting qid");
-            } else {
-                if (cacheSize + qid.getSize() > triggerCleanSize) {
-                    counter.countDown();
-                }
-
-                cacheSize += qid.getSize();
-                logger.debug("putting qid");
-                cache.put(qid.getRowKey(), qid);
+    public Qid get(String key) throws QidMissingException {
+        Qid obj;
+        try {
+            obj = cache.get(key);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof QidMissingException) {
+                throw (QidMissingException) e.getCause();
             }
+            throw new QidMissingException(key);
         }
 
-        if (runCleaner) {
-            logger.debug("cleaning qid cache");
-            cleanCache();
-            return false;
+        if (obj == null) {
+            throw new QidMissingException(key);
         }
 
-        return true;
+        return obj;
     }
 
     /**
-     * Retrive search parameter object
+     * load a db stored Qid for the cache
      *
      * @param key id returned by put as long.
-     * @return search parameter q as String, or null if not in memory
-     * or in file storage.
+     * @return Qid with older SOLR escaping removed, or null when not in storage.
+     * @throws QidMissingException
      */
-    public Qid get(String key) throws QidMissingException {
-        Qid obj = cache.get(key);
-
-        if (obj == null) {
-            obj = load(key);
-
-            if (obj != null) {
-                cache.put(key, obj);
-
-                // remove SOLR escaping of older qid
-                if (obj.getQ() != null && obj.getQ().indexOf('\\') >= 0) {
-                    obj.setQ(removeSolrEscaping(obj.getQ()));
-                }
-            }
-        }
+    private Qid loadUnescaped(String key) throws QidMissingException {
+        Qid obj = load(key);
 
-        if (obj == null) {
-            throw new QidMissingException(key);
-        } else {
-            obj.setLastUse(System.currentTimeMillis());
+        // remove SOLR escaping of older qid
+        if (obj != null && obj.getQ() != null && obj.getQ().indexOf('\\') >= 0) {
+            obj.setQ(removeSolrEscaping(obj.getQ()));
         }
 
         return obj;
@@ -279,48 +211,6 @@ public class QidCacheDAOImpl implements QidCacheDAO {
         return sb.toString();
     }
 
-    /**
-     * delete records from the cache to get cache size <= minCacheSize
-     */
-    synchronized void cleanCache() {
-        updateTriggerCleanSize();
-                
-        if (cacheSize < triggerCleanSize) {
-            return;
-        }
-
-        List<Entry<String, Qid>> entries = new ArrayList<>(cache.entrySet());
-
-        //sort ascending by last use time
-        Collections.sort(entries, new Comparator<Entry<String, Qid>>() {
-
-            @Override
-            public int compare(Entry<String, Qid> o1, Entry<String, Qid> o2) {
-                long c = o1.getValue().getLastUse() - o2.getValue().getLastUse();
-                return (c < 0) ? -1 : ((c > 0) ? 1 : 0);
-            }
-        });
-
-        long size = 0;
-        int numberRemoved = 0;
-        for (int i = 0; i < entries.size(); i++) {
-            if (size + entries.get(i).getValue().getSize() > minCacheSize) {
-                String key = entries.get(i).getKey();
-                cache.remove(key);
-                numberRemoved++;
-            } else {
-                size += entries.get(i).getValue().getSize();
-            }
-        }
-
-        //adjust output size correctly
-        synchronized (counterLock) {
-            cacheSize = cacheSize - (minCacheSize - size);
-            size = cacheSize;
-        }
-        logger.debug("removed " + numberRemoved + " cached qids, new cache size " + size);
-    }
-
     /**
      * save a Qid to db
      *
@@ -353,7 +243,7 @@ public class QidCacheDAOImpl implements QidCacheDAO {
 
     public void setMaxCacheSize(long sizeInBytes) {
         maxCacheSize = sizeInBytes;
-        updateTriggerCleanSize();
+        cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(sizeInBytes));
     }
 
     public long getMaxCacheSize() {
@@ -362,7 +252,6 @@ public class QidCacheDAOImpl implements QidCacheDAO {
 
     public void setMinCacheSize(long sizeInBytes) {
         minCacheSize = sizeInBytes;
-        updateTriggerCleanSize();
     }
 
     public long getMinCacheSize() {
@@ -378,16 +267,25 @@ public class QidCacheDAOImpl implements QidCacheDAO {
     }
 
     public long getSize() {
-        return cacheSize;
+        cache.cleanUp();
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
     }
 
-    /**
-     * cache cleaner is triggered when the size of the cache is
-     * half way between the min and max size.
-     */
-    void updateTriggerCleanSize() {
-        triggerCleanSize = minCacheSize + (maxCacheSize - minCacheSize) / 2;
-        logger.debug("triggerCleanSize=" + triggerCleanSize + " minCacheSize=" + minCacheSize + " maxCacheSize=" + maxCacheSize);
+    public Map<String, Object> getCacheStats() {
+        CacheStats stats = cache.stats();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", cache.estimatedSize());
+        map.put("weightedSize", getSize());
+        map.put("maxWeight", maxCacheSize);
+        map.put("hitCount", stats.hitCount());
+        map.put("missCount", stats.missCount());
+        map.put("hitRate", stats.hitRate());
+        map.put("loadSuccessCount", stats.loadSuccessCount());
+        map.put("loadFailureCount", stats.loadFailureCount());
+        map.put("evictionCount", stats.evictionCount());
+        map.put("evictionWeight", stats.evictionWeight());
+        return map;
     }
 
     public String[] getFq(SpatialSearchRequestParams requestParams) {
@@ -484,17 +382,14 @@ public class QidCacheDAOImpl implements QidCacheDAO {
     private long nextId() {
         synchronized (idLock) {
             long id = System.currentTimeMillis();
-            if (id == lastId) id = id + 1;
+            if (id <= lastId) id = lastId + 1;
             lastId = id;
             return id;
         }
     }
 
-    synchronized public void clear() {
-        synchronized (counterLock) {
-            cache.clear();
-            cacheSize = 0;
-        }
-
+    public void clear() {
+        cache.invalidateAll();
+        cache.cleanUp();
     }
 }
@@ -16,8 +16,10 @@ package au.org.ala.biocache.dao;
 
 import au.org.ala.biocache.dto.*;
 import au.org.ala.biocache.stream.ProcessInterface;
+import au.org.ala.biocache.util.ChartQueryPlanner;
 import au.org.ala.biocache.util.LegendItem;
 import au.org.ala.biocache.util.QidMissingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocumentList;
@@ -30,6 +32,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * DAO for searching occurrence records held in the biocache.
@@ -59,6 +62,21 @@ public interface SearchDAO {
      */
     SearchResultDTO findByFulltextSpatialQuery(SpatialSearchRequestParams requestParams, boolean includeSensitive, Map<String, String[]> extraParams) throws Exception;
 
+    /**
+     * Write the results of a full-text spatial query as JSON. Occurrences are written as they are read from SOLR so
+     * that large pages are not held in memory. The JSON has the same fields as findByFulltextSpatialQuery.
+     *
+     * @param requestParams
+     * @param includeSensitive
+     * @param extraParams
+     * @param json             generator with an ObjectCodec
+     * @param update           updates each batch of occurrences before it is written. Optional.
+     * @return number of occurrences written
+     * @throws Exception
+     */
+    int writeResultsToStream(SpatialSearchRequestParams requestParams, boolean includeSensitive, Map<String, String[]> extraParams,
+                             JsonGenerator json, Consumer<List<OccurrenceIndex>> update) throws Exception;
+
     /**
      * Writes the species count in the specified circle to the output stream.
      *
@@ -162,6 +180,16 @@ public interface SearchDAO {
      */
     TaxaRankCountDTO calculateBreakdown(BreakdownRequestParams queryParams) throws Exception;
 
+    /**
+     * Forget the ranks chosen for breakdowns.
+     */
+    void clearBreakdownLevelCache();
+
+    /**
+     * @return hit, miss and eviction counts of the ranks chosen for breakdowns
+     */
+    Map<String, Object> getBreakdownLevelCacheStats();
+
     /**
      * Returns the occurrence counts based on lft and rgt values for each of the supplied taxa.
      *
@@ -189,6 +217,16 @@ public interface SearchDAO {
      */
     SolrDocumentList findByFulltext(SpatialSearchRequestParams searchParams) throws Exception;
 
+    /**
+     * Find occurrences by id. The ids are requested in batches of up to term.query.limit with a terms filter.
+     *
+     * @param ids occurrence ids
+     * @param fl  fields to return
+     * @return the occurrences that were found, in no particular order
+     * @throws Exception
+     */
+    SolrDocumentList findByIds(Collection<String> ids, String fl) throws Exception;
+
     /**
      * Get legend items for a query and specified facet.
      * <p>
@@ -280,6 +318,15 @@ public interface SearchDAO {
     List<FieldStatsItem> searchStat(SpatialSearchRequestParams searchParams, String field, String facet,
                                     Collection<String> statType) throws Exception;
 
+    /**
+     * Get the planned counts and stats of a chart with one request.
+     *
+     * @param searchParams query the planned fqs are applied to
+     * @param planner      planned counts and stats, the results are decoded into it
+     * @throws Exception
+     */
+    void searchChart(SpatialSearchRequestParams searchParams, ChartQueryPlanner planner) throws Exception;
+
     /**
      * Return legend items for a query and facet.
      * <p>
@@ -307,6 +354,17 @@ public interface SearchDAO {
      */
     double[] getBBox(SpatialSearchRequestParams requestParams) throws Exception;
 
+    /**
+     * Get the range of values of two numeric fields for a query.
+     *
+     * @param requestParams
+     * @param x
+     * @param y
+     * @return minX, minY, maxX, maxY, or null when there are no values
+     * @throws Exception
+     */
+    double[] getRange(SpatialSearchRequestParams requestParams, String x, String y) throws Exception;
+
     /**
      * Get estimated number of unique values for a facet.
      *
@@ -327,6 +385,8 @@ public interface SearchDAO {
 
     /**
      * Query for heatmaps.
+     * <p>
+     * When there is more than one legend item all layers are returned by a single request.
      *
      * @param query
      * @param filterQueries
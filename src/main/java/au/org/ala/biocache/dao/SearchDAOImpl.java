@@ -21,11 +21,21 @@ import au.org.ala.biocache.service.*;
 import au.org.ala.biocache.stream.EndemicFacet;
 import au.org.ala.biocache.stream.ProcessDownload;
 import au.org.ala.biocache.stream.ProcessInterface;
+import au.org.ala.biocache.stream.StreamAsJSON;
 import au.org.ala.biocache.util.*;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import au.org.ala.biocache.util.solr.SolrParamsKey;
+import au.org.ala.biocache.util.thread.DownloadListener;
 import au.org.ala.biocache.writer.CSVRecordWriter;
 import au.org.ala.biocache.writer.RecordWriterError;
 import au.org.ala.biocache.writer.TSVRecordWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.io.output.CloseShieldOutputStream;
@@ -40,9 +50,11 @@ import org.apache.solr.client.solrj.response.FacetField.Count;
 import org.apache.solr.client.solrj.response.RangeFacet.Numeric;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.json.simple.JSONValue;
 import org.slf4j.MDC;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Value;
@@ -65,6 +77,7 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -195,6 +208,9 @@ public class SearchDAOImpl implements SearchDAO {
     @Inject
     protected SpeciesImageService speciesImageService;
 
+    @Inject
+    protected SearchResponseCache searchResponseCache;
+
     @Inject
     public ListsService listsService;
 
@@ -217,11 +233,25 @@ public class SearchDAOImpl implements SearchDAO {
     protected Long writerTimeoutWaitMillis = 60000L;
 
     /**
-     * The time (ms) to wait between checking if interrupts have occurred or all of the download tasks have completed.
+     * The time (ms) to wait for a row from the partitions of a partitioned download before checking if all of the
+     * partitions have completed.
      */
     @Value("${solr.downloadquery.busywaitsleep:100}")
     protected Long downloadCheckBusyWaitSleep = 100L;
 
+    /**
+     * The number of disjoint partitions to stream concurrently for large downloads. 1 disables partitioning.
+     * Limited to {@link DownloadPartitions#MAX_PARTITIONS}.
+     */
+    @Value("${download.partitions:1}")
+    protected Integer downloadPartitions = 1;
+
+    /**
+     * The minimum number of records in a download before it is partitioned.
+     */
+    @Value("${download.partition.threshold:1000000}")
+    protected Long downloadPartitionThreshold = 1000000L;
+
     /**
      * Occurrence count where < uses pivot and > uses facet for retrieving points. Can be fine tuned with
      * multiple queries and comparing DEBUG *
@@ -267,6 +297,14 @@ public class SearchDAOImpl implements SearchDAO {
     @Value("${max.boolean.clauses:1024}")
     private int maxBooleanClauses;
 
+    /**
+     * max number of breakdown queries to keep the chosen rank for
+     */
+    @Value("${breakdown.level.cache.size:10000}")
+    protected long breakdownLevelCacheSize = 10000;
+
+    private volatile Cache<String, String> breakdownLevels;
+
     @Value("${layers.service.url:https://spatial.ala.org.au/ws}")
     protected String layersServiceUrl;
 
@@ -461,12 +499,20 @@ public class SearchDAOImpl implements SearchDAO {
     public SearchResultDTO findByFulltextSpatialQuery(SpatialSearchRequestParams searchParams,
                                                       boolean includeSensitive, Map<String, String[]> extraParams) throws Exception {
         SearchResultDTO searchResults = new SearchResultDTO();
+        SearchCursor cursor = searchParams.getCursor() != null ? initCursor(searchParams) : null;
         SpatialSearchRequestParams original = new SpatialSearchRequestParams();
         BeanUtils.copyProperties(searchParams, original);
         Map[] fqMaps = queryFormatUtils.formatSearchQuery(searchParams, true);
         SolrQuery solrQuery = initSolrQuery(searchParams, true, extraParams); // general search settings
+        if (cursor != null) {
+            // the sort must end with the unique key
+            if (!OccurrenceIndex.ID.equals(cursor.getSort())) {
+                solrQuery.addSort(OccurrenceIndex.ID, SolrQuery.ORDER.asc);
+            }
+            solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursor.getCursorMark());
+        }
 
-        QueryResponse qr = indexDao.runSolrQuery(solrQuery);
+        QueryResponse qr = searchResponseCache.get("search", solrQuery, () -> indexDao.runSolrQuery(solrQuery));
 
         //need to set the original q to the processed value so that we remove the wkt etc that is added from paramcache object
         Class resultClass;
@@ -480,6 +526,18 @@ public class SearchDAOImpl implements SearchDAO {
         searchResults.setActiveFacetMap(fqMaps[0]);
         searchResults.setActiveFacetObj(fqMaps[1]);
 
+        if (cursor != null) {
+            searchResults.setSort(cursor.getSort());
+            searchResults.setDir(cursor.getDir());
+
+            // no next page when this page is not full or the cursorMark is unchanged
+            String nextCursorMark = qr.getNextCursorMark();
+            if (nextCursorMark != null && !nextCursorMark.equals(cursor.getCursorMark())
+                    && qr.getResults().size() >= solrQuery.getRows()) {
+                searchResults.setNextCursor(cursor.next(nextCursorMark).encode());
+            }
+        }
+
         if (logger.isDebugEnabled()) {
             logger.debug("spatial search query: " + solrQuery.toQueryString());
         }
@@ -487,6 +545,91 @@ public class SearchDAOImpl implements SearchDAO {
         return searchResults;
     }
 
+    /**
+     * Set up a cursor paging request. The first page stores the query as a qid for the cursor. The following pages
+     * replace the query and sort of the request with those of the cursor.
+     *
+     * @param searchParams request with a cursor
+     * @return cursor for this page
+     * @throws QidMissingException when the cursor is not valid
+     */
+    private SearchCursor initCursor(SpatialSearchRequestParams searchParams) throws QidMissingException {
+        SearchCursor cursor;
+        if (SearchCursor.START.equals(searchParams.getCursor())) {
+            SpatialSearchRequestParams qidParams = new SpatialSearchRequestParams();
+            BeanUtils.copyProperties(searchParams, qidParams);
+            qidParams.setCursor(null);
+            String qid = qidCacheDao.generateQid(qidParams, null, null, -1L, null);
+            if (qid == null) {
+                throw new QidMissingException(searchParams.getQ());
+            }
+            cursor = new SearchCursor(qid, searchParams.getSort(), searchParams.getDir(), CursorMarkParams.CURSOR_MARK_START);
+        } else {
+            cursor = SearchCursor.decode(searchParams.getCursor());
+            searchParams.setQ("qid:" + cursor.getQid());
+            searchParams.setFq(new String[0]);
+            searchParams.setWkt(null);
+            searchParams.setSort(cursor.getSort());
+            searchParams.setDir(cursor.getDir());
+        }
+        searchParams.setStart(0);
+        return cursor;
+    }
+
+    /**
+     * @see au.org.ala.biocache.dao.SearchDAO#writeResultsToStream(SpatialSearchRequestParams, boolean, Map, JsonGenerator, Consumer)
+     */
+    @Override
+    public int writeResultsToStream(SpatialSearchRequestParams searchParams, boolean includeSensitive, Map<String, String[]> extraParams,
+                                    JsonGenerator json, Consumer<List<OccurrenceIndex>> update) throws Exception {
+        // all of the page is streamed, cursor paging is not used
+        searchParams.setCursor(null);
+
+        // totals and facets from the same search without the occurrences
+        SpatialSearchRequestParams headerParams = new SpatialSearchRequestParams();
+        BeanUtils.copyProperties(searchParams, headerParams);
+        headerParams.setPageSize(0);
+        SearchResultDTO header = findByFulltextSpatialQuery(headerParams, includeSensitive, extraParams);
+        header.setPageSize(Math.max(0, searchParams.getPageSize()));
+        header.setStartIndex(searchParams.getStart());
+
+        queryFormatUtils.formatSearchQuery(searchParams, true);
+        SolrQuery solrQuery = initSolrQuery(searchParams, true, extraParams);
+        solrQuery.setFacet(false);
+        // never stream the whole index with /export
+        solrQuery.setRows(Math.max(0, searchParams.getPageSize()));
+
+        Class<? extends OccurrenceIndex> resultClass = includeSensitive ? SensitiveOccurrenceIndex.class : OccurrenceIndex.class;
+        StreamAsJSON streamAsJSON = new StreamAsJSON(json, resultClass, batch -> {
+            for (OccurrenceIndex oi : batch) {
+                updateImageUrls(oi);
+            }
+            if (update != null) {
+                update.accept(batch);
+            }
+        });
+
+        ObjectNode headerNode = SearchUtils.RESULT_MAPPER.valueToTree(header);
+        headerNode.remove("occurrences");
+
+        json.writeStartObject();
+        Iterator<Map.Entry<String, JsonNode>> fields = headerNode.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            json.writeFieldName(field.getKey());
+            json.writeTree(field.getValue());
+        }
+        json.writeArrayFieldStart("occurrences");
+        if (header.getTotalRecords() > searchParams.getStart()) {
+            indexDao.streamingQuery(solrQuery, streamAsJSON, null, null);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+
+        return streamAsJSON.getCount();
+    }
+
     /**
      * @see au.org.ala.biocache.dao.SearchDAO#writeSpeciesCountByCircleToStream(au.org.ala.biocache.dto.SpatialSearchRequestParams, String, javax.servlet.ServletOutputStream)
      */
@@ -744,27 +887,55 @@ public class SearchDAOImpl implements SearchDAO {
         // create writer
         RecordWriter recordWriter = createRecordWriter(downloadParams, downloadHeaders, out);
 
-        // submit download
-        Future future = nextExecutor.submit(prepareDownloadRunner(downloadParams, downloadHeaders, dd, uidStats, includeSensitive, recordWriter));
+        List<String> partitionFqs = DownloadPartitions.idRangeFilters(
+                dd.getTotalRecords() >= downloadPartitionThreshold ? downloadPartitions : 1);
+
+        // partitions are merged into the RecordWriter by this thread through a bounded queue
+        BlockingQueue<String[]> queue = partitionFqs.size() > 1 ?
+                new LinkedBlockingQueue<>(resultsQueueLength != null ? resultsQueueLength : 100) : null;
+
+        List<DownloadCallable> runners = prepareDownloadRunners(downloadParams, downloadHeaders, dd, uidStats,
+                includeSensitive, recordWriter, queue, partitionFqs);
 
-        // wait for download to finish
-        // Busy wait because we need to be able to respond to an interrupt on any callable
-        // and propagate it to all of the others for this particular query
-        // Because the executor service is shared to prevent too many concurrent threads being run,
-        // this requires a busy wait loop on the main thread to monitor state
-        boolean waitAgain = false;
-        do {
-            waitAgain = false;
-            if (!future.isDone()) {
-                // Wait again even if an interrupt flag is set, as it may have been set partway through the iteration
-                // The calls to future.cancel will occur next time if the interrupt is setup partway through an iteration
-                waitAgain = true;
+        for (DownloadListener listener : dd.getListeners()) {
+            listener.started(dd);
+        }
+
+        CompletableFuture<Void> download = submitDownloadRunners(runners, nextExecutor);
+        try {
+            if (queue == null) {
+                download.get();
+            } else {
+                mergePartitions(queue, download, recordWriter);
+            }
+        } catch (InterruptedException e) {
+            runners.forEach(DownloadCallable::cancel);
+            for (DownloadListener listener : dd.getListeners()) {
+                listener.cancelled(dd);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            for (DownloadListener listener : dd.getListeners()) {
+                listener.failed(dd, cause);
             }
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } catch (RuntimeException e) {
+            // failed writing a merged row
+            runners.forEach(DownloadCallable::cancel);
+            for (DownloadListener listener : dd.getListeners()) {
+                listener.failed(dd, e);
+            }
+            throw e;
+        }
 
-            if (waitAgain) {
-                Thread.sleep(downloadCheckBusyWaitSleep);
+        for (DownloadListener listener : dd.getListeners()) {
+            if (dd.getInterrupt().get()) {
+                listener.cancelled(dd);
+            } else {
+                listener.finished(dd);
             }
-        } while (waitAgain);
+        }
 
         // close writer
         recordWriter.finalise();
@@ -782,9 +953,110 @@ public class SearchDAOImpl implements SearchDAO {
         return recordWriter;
     }
 
-    private Callable prepareDownloadRunner(DownloadRequestParams downloadParams, DownloadHeaders downloadHeaders,
-                                           DownloadDetailsDTO dd, ConcurrentMap<String, AtomicInteger> uidStats,
-                                           boolean includeSensitive, RecordWriter recordWriter) throws QidMissingException {
+    /**
+     * Submit the download runners to the executor.
+     * <p>
+     * When any runner fails the others are cancelled, so the returned future completes without waiting for the
+     * remaining queries to be streamed.
+     *
+     * @param runners      the runners for the download, one per partition
+     * @param nextExecutor executor for the download queries
+     * @return a future that completes when all runners have completed
+     */
+    private CompletableFuture<Void> submitDownloadRunners(List<DownloadCallable> runners, ExecutorService nextExecutor) {
+        CompletableFuture[] futures = new CompletableFuture[runners.size()];
+        for (int i = 0; i < runners.size(); i++) {
+            DownloadCallable runner = runners.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    runner.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, nextExecutor).whenComplete((result, error) -> {
+                if (error != null) {
+                    runners.forEach(DownloadCallable::cancel);
+                }
+            });
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Write the rows queued by the partitions of a download to the RecordWriter until all partitions complete.
+     * <p>
+     * This thread is the single consumer of the queue. It must not be a thread of the executor running the
+     * partitions.
+     *
+     * @param queue        the queue the partitions write to
+     * @param download     completes when all partitions have completed
+     * @param recordWriter
+     * @throws ExecutionException   when a partition fails
+     * @throws InterruptedException
+     */
+    private void mergePartitions(BlockingQueue<String[]> queue, CompletableFuture<Void> download,
+                                 RecordWriter recordWriter) throws ExecutionException, InterruptedException {
+        while (true) {
+            String[] row = queue.poll(downloadCheckBusyWaitSleep, TimeUnit.MILLISECONDS);
+            if (row != null) {
+                recordWriter.write(row);
+            } else if (download.isDone()) {
+                // nothing is added to the queue once all partitions are done
+                while ((row = queue.poll()) != null) {
+                    recordWriter.write(row);
+                }
+                download.get();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Create one runner for each partition of the download.
+     *
+     * @param queue        queue that partitions write to when there is more than one partition, otherwise null
+     * @param partitionFqs filter query for each partition, or a single null when the download is not partitioned
+     * @return the runners for the download
+     * @throws QidMissingException
+     */
+    private List<DownloadCallable> prepareDownloadRunners(DownloadRequestParams downloadParams, DownloadHeaders downloadHeaders,
+                                                          DownloadDetailsDTO dd, ConcurrentMap<String, AtomicInteger> uidStats,
+                                                          boolean includeSensitive, RecordWriter recordWriter,
+                                                          BlockingQueue<String[]> queue, List<String> partitionFqs) throws QidMissingException {
+        List<SolrQuery> queries = prepareDownloadQueries(downloadParams, downloadHeaders, dd, includeSensitive);
+
+        if (partitionFqs.size() > 1) {
+            dd.initPartitions(partitionFqs.size());
+            logger.info("Download of " + dd.getTotalRecords() + " records split into " + partitionFqs.size() + " partitions");
+        }
+
+        List<DownloadCallable> runners = new ArrayList<>(partitionFqs.size());
+        for (int i = 0; i < partitionFqs.size(); i++) {
+            List<SolrQuery> partitionQueries = queries;
+            RecordWriter partitionWriter = recordWriter;
+
+            if (partitionFqs.get(i) != null) {
+                partitionQueries = new ArrayList<>(queries.size());
+                for (SolrQuery query : queries) {
+                    SolrQuery partitionQuery = query.getCopy();
+                    partitionQuery.addFilterQuery(partitionFqs.get(i));
+                    partitionQueries.add(partitionQuery);
+                }
+                partitionWriter = new QueuedRecordWriter(queue, i, dd, writerTimeoutWaitMillis);
+            }
+
+            ProcessDownload procDownload = new ProcessDownload(uidStats, downloadHeaders, partitionWriter, dd,
+                    checkDownloadLimits, downloadService.dowloadOfflineMaxSize,
+                    listsService, layersService, downloadService.getLayersSampleExecutor());
+
+            runners.add(new DownloadCallable(partitionQueries, indexDao, procDownload));
+        }
+
+        return runners;
+    }
+
+    private List<SolrQuery> prepareDownloadQueries(DownloadRequestParams downloadParams, DownloadHeaders downloadHeaders,
+                                                   DownloadDetailsDTO dd, boolean includeSensitive) throws QidMissingException {
         queryFormatUtils.formatSearchQuery(downloadParams);
 
         SolrQuery solrQuery = new SolrQuery();
@@ -807,11 +1079,7 @@ public class SearchDAOImpl implements SearchDAO {
             queries.add(solrQuery);
         }
 
-        ProcessDownload procDownload = new ProcessDownload(uidStats, downloadHeaders, recordWriter, dd,
-                checkDownloadLimits, downloadService.dowloadOfflineMaxSize,
-                listsService, layersService);
-
-        return new DownloadCallable(queries, indexDao, procDownload);
+        return queries;
     }
 
 
@@ -1176,22 +1444,9 @@ public class SearchDAOImpl implements SearchDAO {
         }
         //add the ranks as facets
         if (queryParams.getLevel() == null) {
-            List<String> ranks = queryParams.getRank() != null ? searchUtils.getNextRanks(queryParams.getRank(), queryParams.getName() == null) : searchUtils.getRanks();
-
-            if (queryParams.getMax() != null && queryParams.getMax() > 0) {
-                //reverse the facets so that they are returned in rank reverse order species, genus, family etc
-                Collections.reverse(ranks);
-            }
-
-            // need to get the return level that the number of facets are <=max ranks need to be processed in reverse order until max is satisfied
-            // or the first rank with the number of facets > 0 when the rank is specified
-            for (String r : ranks) {
-                long count = estimateUniqueValues(queryParams, r);
-                if ((queryParams.getMax() != null && queryParams.getMax() > 0 && count <= queryParams.getMax()) ||
-                        (queryParams.getRank() != null && count > 0)) {
-                    solrQuery.addFacetField(r);
-                    break;
-                }
+            String level = getBreakdownLevel(queryParams, solrQuery);
+            if (level != null) {
+                solrQuery.addFacetField(level);
             }
         } else {
             //the user has supplied the "exact" level at which to perform the breakdown
@@ -1216,6 +1471,117 @@ public class SearchDAOImpl implements SearchDAO {
         return trDTO;
     }
 
+    /**
+     * Find the rank to break down by. The rank is cached for the breakdown query and the index version.
+     *
+     * @param queryParams
+     * @param solrQuery   breakdown query
+     * @return rank, or null when no rank is suitable
+     * @throws Exception
+     */
+    private String getBreakdownLevel(BreakdownRequestParams queryParams, SolrQuery solrQuery) throws Exception {
+        String key = searchResponseCache.getIndexVersion() + "\n" + queryParams.getMax() + "\n" + queryParams.getRank()
+                + "\n" + SolrParamsKey.of(solrQuery);
+
+        Cache<String, String> levels = getBreakdownLevels();
+        String level = levels.getIfPresent(key);
+        if (level == null) {
+            level = chooseBreakdownLevel(queryParams, solrQuery);
+            levels.put(key, level == null ? "" : level);
+        }
+        return StringUtils.isEmpty(level) ? null : level;
+    }
+
+    /**
+     * Estimate the number of unique values of every candidate rank with one request and choose the rank to break
+     * down by.
+     * <p>
+     * When max is supplied, the lowest rank with no more than max values. When the rank is supplied, the highest rank
+     * below it with values.
+     */
+    private String chooseBreakdownLevel(BreakdownRequestParams queryParams, SolrQuery solrQuery) throws Exception {
+        List<String> ranks = new ArrayList<>(queryParams.getRank() != null ? searchUtils.getNextRanks(queryParams.getRank(), queryParams.getName() == null) : searchUtils.getRanks());
+
+        boolean useMax = queryParams.getMax() != null && queryParams.getMax() > 0;
+        if (useMax) {
+            //reverse the facets so that they are returned in rank reverse order species, genus, family etc
+            Collections.reverse(ranks);
+        }
+        if (ranks.isEmpty()) {
+            return null;
+        }
+
+        // hll() == distributed cardinality estimate via hyper-log-log algorithm
+        StringBuilder jsonFacet = new StringBuilder("{");
+        for (int i = 0; i < ranks.size(); i++) {
+            if (i > 0) {
+                jsonFacet.append(',');
+            }
+            jsonFacet.append("r").append(i).append(":\"hll(").append(fieldMappingUtil.translateFieldName(ranks.get(i))).append(")\"");
+        }
+        jsonFacet.append('}');
+
+        SolrQuery query = solrQuery.getCopy();
+        query.setFacet(false);
+        query.setRows(0);
+        query.add("json.facet", jsonFacet.toString());
+        QueryResponse qr = indexDao.query(query);
+
+        return selectBreakdownLevel(ranks, SearchUtils.getMap(qr.getResponse(), "facets"), useMax ? queryParams.getMax() : null, queryParams.getRank());
+    }
+
+    /**
+     * Choose the rank to break down by from the hll() estimates of the ranks.
+     *
+     * @param ranks  candidate ranks in the order they were requested, r0, r1, etc
+     * @param facets json.facet response, or null when there are no results
+     * @param max    max number of values, or null
+     * @param rank   rank that was supplied, or null
+     * @return the first rank with no more than max values, or when there is no max and the rank is supplied the first
+     * rank with values, or null
+     */
+    static String selectBreakdownLevel(List<String> ranks, NamedList facets, Integer max, String rank) {
+        for (int i = 0; i < ranks.size(); i++) {
+            Object value = facets == null ? null : facets.get("r" + i);
+            long count = value == null ? 0 : toLong(value);
+            if ((max != null && count <= max) || (rank != null && count > 0)) {
+                return ranks.get(i);
+            }
+        }
+        return null;
+    }
+
+    Cache<String, String> getBreakdownLevels() {
+        if (breakdownLevels == null) {
+            synchronized (this) {
+                if (breakdownLevels == null) {
+                    breakdownLevels = Caffeine.newBuilder()
+                            .maximumSize(breakdownLevelCacheSize)
+                            .recordStats()
+                            .build();
+                }
+            }
+        }
+        return breakdownLevels;
+    }
+
+    @Override
+    public void clearBreakdownLevelCache() {
+        getBreakdownLevels().invalidateAll();
+    }
+
+    @Override
+    public Map<String, Object> getBreakdownLevelCacheStats() {
+        CacheStats stats = getBreakdownLevels().stats();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", getBreakdownLevels().estimatedSize());
+        map.put("hitCount", stats.hitCount());
+        map.put("missCount", stats.missCount());
+        map.put("evictionCount", stats.evictionCount());
+        return map;
+    }
+
     /**
      * Process the {@see org.apache.solr.client.solrj.response.QueryResponse} from a SOLR search and return
      * a {@link au.org.ala.biocache.dto.SearchResultDTO}
@@ -1235,6 +1601,8 @@ public class SearchDAOImpl implements SearchDAO {
             if (logger.isDebugEnabled()) {
                 logger.debug("Facet dates size: " + facetDates.size());
             }
+            // copy so that a cached response is not modified
+            facets = new ArrayList<>(facets);
             facets.addAll(facetDates);
         }
 
@@ -1553,8 +1921,6 @@ public class SearchDAOImpl implements SearchDAO {
      * Get a distinct list of species and their counts using a facet search.
      * <p>
      * This method expects requestParams.getFacets() == [OccurrenceIndex.COMMON_NAME_AND_LSID] or [OccurrenceIndex.NAMES_AND_LSID]
-     * <p>
-     * TODO: searchUtils.getTaxonSearch uses nameUsageMatchService.get(). These requests must be batched.
      *
      * @param requestParams
      * @return
@@ -1594,8 +1960,6 @@ public class SearchDAOImpl implements SearchDAO {
                                     tcDTO.setCommonName("null".equals(values[2]) ? "" : values[2]);
                                     tcDTO.setKingdom(values[3]);
                                     tcDTO.setFamily(values[4]);
-                                    if (StringUtils.isNotEmpty(tcDTO.getGuid()))
-                                        tcDTO.setRank(searchUtils.getTaxonSearch(tcDTO.getGuid())[1].split(":")[0]);
                                 }
                             } else {
                                 if (logger.isDebugEnabled()) {
@@ -1617,8 +1981,6 @@ public class SearchDAOImpl implements SearchDAO {
                                     //cater for the bug of extra vernacular name in the result
                                     tcDTO.setKingdom(values[values.length - 2]);
                                     tcDTO.setFamily(values[values.length - 1]);
-                                    if (StringUtils.isNotEmpty(tcDTO.getGuid()))
-                                        tcDTO.setRank(searchUtils.getTaxonSearch(tcDTO.getGuid())[1].split(":")[0]);
                                 }
                             } else {
                                 if (logger.isDebugEnabled()) {
@@ -1636,6 +1998,15 @@ public class SearchDAOImpl implements SearchDAO {
             }
         }
 
+        // set the ranks with one batch of name matching service requests
+        List<TaxaCountDTO> withGuid = speciesCounts.stream()
+                .filter(tcDTO -> StringUtils.isNotEmpty(tcDTO.getGuid()))
+                .collect(Collectors.toList());
+        List<String[]> taxonSearches = searchUtils.getTaxonSearches(withGuid.stream().map(TaxaCountDTO::getGuid).collect(Collectors.toList()));
+        for (int i = 0; i < withGuid.size(); i++) {
+            withGuid.get(i).setRank(taxonSearches.get(i)[1].split(":")[0]);
+        }
+
         return speciesCounts;
     }
 
@@ -1706,7 +2077,7 @@ public class SearchDAOImpl implements SearchDAO {
             }
             return facetResults;
         } else {
-            QueryResponse qr = query(facetQuery);
+            QueryResponse qr = searchResponseCache.get("facetCounts", facetQuery, () -> query(facetQuery));
             SearchResultDTO searchResults = processSolrResponse(searchParams, qr, facetQuery, OccurrenceIndex.class);
 
             List<FacetResultDTO> facetResults = searchResults.getFacetResults();
@@ -1736,6 +2107,31 @@ public class SearchDAOImpl implements SearchDAO {
         }
     }
 
+    /**
+     * @see au.org.ala.biocache.dao.SearchDAO#findByIds(Collection, String)
+     */
+    @Override
+    public SolrDocumentList findByIds(Collection<String> ids, String fl) throws Exception {
+        // ',' is the terms query separator
+        List<String> distinctIds = ids.stream()
+                .filter(id -> StringUtils.isNotEmpty(id) && !id.contains(","))
+                .distinct()
+                .collect(Collectors.toList());
+
+        SolrDocumentList sdl = new SolrDocumentList();
+        for (List<String> batch : Lists.partition(distinctIds, termQueryLimit)) {
+            SolrQuery solrQuery = new SolrQuery("*:*");
+            solrQuery.addFilterQuery("{!terms f=" + OccurrenceIndex.ID + "}" + StringUtils.join(batch, ","));
+            solrQuery.setFields(fl);
+            solrQuery.setRows(batch.size());
+            solrQuery.setFacet(false);
+
+            sdl.addAll(query(solrQuery).getResults());
+        }
+        sdl.setNumFound(sdl.size());
+        return sdl;
+    }
+
     /**
      * @see au.org.ala.biocache.dao.SearchDAO#findByFulltext(SpatialSearchRequestParams)
      */
@@ -2046,7 +2442,6 @@ public class SearchDAOImpl implements SearchDAO {
     /**
      * Retrieves a set of counts for the supplied list of taxa.
      * <p>
-     * TODO: searchUtils.getTaxonSearch uses nameUsageMatchService.get(). These requests must be batched.
      * TODO: deprecate for a standard facet query.
      *
      * @param taxa
@@ -2064,9 +2459,11 @@ public class SearchDAOImpl implements SearchDAO {
         StringBuilder sb = new StringBuilder();
         Map<String, Integer> counts = new HashMap<String, Integer>();
         Map<String, String> lftToGuid = new HashMap<String, String>();
-        for (String lsid : taxa) {
-            //get the lft and rgt value for the taxon
-            String[] values = searchUtils.getTaxonSearch(lsid);
+        //get the lft and rgt values for the taxa
+        List<String[]> taxonSearches = searchUtils.getTaxonSearches(taxa);
+        for (int i = 0; i < taxa.size(); i++) {
+            String lsid = taxa.get(i);
+            String[] values = taxonSearches.get(i);
             //first value is the search string
             if (sb.length() > 0) {
                 sb.append(" OR ");
@@ -2182,7 +2579,7 @@ public class SearchDAOImpl implements SearchDAO {
 
         solrQuery.add("json.facet", sb.toString());
 
-        return query(solrQuery);
+        return searchResponseCache.get("groupedFacets", solrQuery, () -> query(solrQuery));
     }
 
     /**
@@ -2404,6 +2801,28 @@ public class SearchDAOImpl implements SearchDAO {
         return output;
     }
 
+    /**
+     * @see au.org.ala.biocache.dao.SearchDAO#searchChart(SpatialSearchRequestParams, ChartQueryPlanner)
+     */
+    @Override
+    public void searchChart(SpatialSearchRequestParams searchParams, ChartQueryPlanner planner) throws Exception {
+        if (planner.isEmpty()) {
+            return;
+        }
+
+        // formatted before the search query, which also applies any fqs of a qid in the planned fqs
+        planner.formatQueries(fq -> queryFormatUtils.formatQueryTerm(fq, searchParams)[1]);
+
+        SolrQuery query = initSolrQuery(searchParams, false, null);
+        query.setFacet(false);
+        query.setRows(0);
+        query.setFields(null);
+        query.add("json.facet", planner.toJsonFacet(fieldMappingUtil));
+
+        QueryResponse response = searchResponseCache.get("chart", query, () -> indexDao.runSolrQuery(query));
+        planner.decode((NamedList<Object>) response.getResponse().get("facets"));
+    }
+
     /**
      * @see au.org.ala.biocache.dao.SearchDAO#getColours
      */
@@ -2459,6 +2878,25 @@ public class SearchDAOImpl implements SearchDAO {
         return new double[]{toDouble(facets.get("x1")), toDouble(facets.get("y1")), toDouble(facets.get("x2")), toDouble(facets.get("y2"))};
     }
 
+    @Override
+    public double[] getRange(SpatialSearchRequestParams requestParams, String x, String y) throws Exception {
+        SolrQuery query = initSolrQuery(requestParams, false, null);
+        query.setRows(0);
+        query.setFacet(false);
+
+        String fx = fieldMappingUtil.translateFieldName(x);
+        String fy = fieldMappingUtil.translateFieldName(y);
+        query.add("json.facet", "{x2:\"max(" + fx + ")\",x1:\"min(" + fx + ")\",y2:\"max(" + fy + ")\",y1:\"min(" + fy + ")\"}");
+        QueryResponse qr = indexDao.query(query);
+
+        SimpleOrderedMap facets = SearchUtils.getMap(qr.getResponse(), "facets");
+        if (facets == null || facets.get("x1") == null || facets.get("y1") == null) {
+            return null;
+        }
+
+        return new double[]{toDouble(facets.get("x1")), toDouble(facets.get("y1")), toDouble(facets.get("x2")), toDouble(facets.get("y2"))};
+    }
+
     /**
      * Get estimated number of unique values for a facet.
      *
@@ -2485,7 +2923,7 @@ public class SearchDAOImpl implements SearchDAO {
         return toLong(value);
     }
 
-    private long toLong(Object o) {
+    private static long toLong(Object o) {
         if (o instanceof Long) {
             return (Long) o;
         } else if (o instanceof Integer) {
@@ -2549,7 +2987,7 @@ public class SearchDAOImpl implements SearchDAO {
             int gridSizeInPixels)
             throws Exception {
 
-        List<List<List<Integer>>> layers = new ArrayList<>();
+        List<int[]> layers = new ArrayList<>();
 
         // limit miny maxy to -90 90
         if (miny < -90) miny = -90.0;
@@ -2596,12 +3034,12 @@ public class SearchDAOImpl implements SearchDAO {
                 Double hminy = (Double) heatmap.get("minY");
                 Double hmaxx = (Double) heatmap.get("maxX");
                 Double hmaxy = (Double) heatmap.get("maxY");
-                layers.add(layer);
+                layers.add(HeatmapDTO.toGrid(layer, rows, columns));
                 return new HeatmapDTO(
                         gridLevel, layers, legend, gridSizeInPixels, rows, columns, hminx, hminy, hmaxx, hmaxy);
             }
         } else {
-            // multiple layers
+            // multiple layers, one JSON heatmap facet for each legend item in a single request
             Integer gridLevel = -1;
             Integer rows = 0;
             Integer columns = 0;
@@ -2610,46 +3048,29 @@ public class SearchDAOImpl implements SearchDAO {
             Double hmaxx = maxx;
             Double hmaxy = maxy;
 
-            int zoomOffset = 0;
+            SolrQuery solrQuery = createHeatmapQuery(query, filterQueries, minx, miny, maxx, maxy);
+            solrQuery.add("json.facet", heatmapLayersFacet(solrQuery, legend));
+            solrQuery.remove("facet.heatmap");
+            solrQuery.remove("facet.heatmap.geom");
+            solrQuery.remove("facet.heatmap.gridLevel");
+            solrQuery.setFacet(false);
+
+            QueryResponse qr = query(solrQuery); // can throw exception
+
+            SimpleOrderedMap facets = qr != null ? SearchUtils.getMap(qr.getResponse(), "facets") : null;
             for (int legendIdx = 0; legendIdx < legend.size(); legendIdx++) {
-                LegendItem legendItem = legend.get(legendIdx);
-
-                // add the FQ for the legend item
-                QueryResponse qr = null;
-
-                SolrQuery solrQuery =
-                        createHeatmapQuery(
-                                query, filterQueries, minx, miny, maxx, maxy);
-                String[] fqs =
-                        Arrays.copyOf(
-                                solrQuery.getFilterQueries(), solrQuery.getFilterQueries().length + 1);
-                fqs[fqs.length - 1] = legendItem.getFq();
-                solrQuery.setFilterQueries(fqs);
-
-                // query
-                qr = query(solrQuery); // can throw exception
-
-                if (qr != null) {
-                    SimpleOrderedMap facetHeatMaps =
-                            ((SimpleOrderedMap)
-                                    ((SimpleOrderedMap) ((qr.getResponse().get("facet_counts"))))
-                                            .get("facet_heatmaps"));
-
-                    if (facetHeatMaps != null) {
-                        // iterate over legend
-                        SimpleOrderedMap heatmap = (SimpleOrderedMap) facetHeatMaps.get(spatialFieldWMS);
-                        gridLevel = (Integer) heatmap.get("gridLevel");
-                        List<List<Integer>> layer = (List<List<Integer>>) heatmap.get("counts_ints2D");
-                        rows = (Integer) heatmap.get("rows");
-                        columns = (Integer) heatmap.get("columns");
-                        hminx = (Double) heatmap.get("minX");
-                        hminy = (Double) heatmap.get("minY");
-                        hmaxx = (Double) heatmap.get("maxX");
-                        hmaxy = (Double) heatmap.get("maxY");
-                        layers.add(layer);
-                    } else {
-                        layers.add(null);
-                    }
+                SimpleOrderedMap heatmap = facets != null ? (SimpleOrderedMap) facets.get("l" + legendIdx) : null;
+
+                if (heatmap != null) {
+                    gridLevel = (Integer) heatmap.get("gridLevel");
+                    List<List<Integer>> layer = (List<List<Integer>>) heatmap.get("counts_ints2D");
+                    rows = (Integer) heatmap.get("rows");
+                    columns = (Integer) heatmap.get("columns");
+                    hminx = (Double) heatmap.get("minX");
+                    hminy = (Double) heatmap.get("minY");
+                    hmaxx = (Double) heatmap.get("maxX");
+                    hmaxy = (Double) heatmap.get("maxY");
+                    layers.add(HeatmapDTO.toGrid(layer, rows, columns));
                 } else {
                     layers.add(null);
                 }
@@ -2662,6 +3083,29 @@ public class SearchDAOImpl implements SearchDAO {
         return null;
     }
 
+    /**
+     * Build a json.facet with a heatmap facet for each legend item, named l0, l1, ... in legend order.
+     * Each facet uses the geom and gridLevel of the facet.heatmap in the solrQuery and is restricted to the legend item fq.
+     *
+     * @param solrQuery heatmap query from createHeatmapQuery
+     * @param legend
+     * @return
+     */
+    private String heatmapLayersFacet(SolrQuery solrQuery, List<LegendItem> legend) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int legendIdx = 0; legendIdx < legend.size(); legendIdx++) {
+            if (legendIdx > 0) sb.append(",");
+
+            sb.append("l").append(legendIdx).append(":{type:heatmap,field:").append(spatialFieldWMS)
+                    .append(",geom:").append(JSONValue.toJSONString(solrQuery.get("facet.heatmap.geom")))
+                    .append(",gridLevel:").append(solrQuery.get("facet.heatmap.gridLevel"))
+                    .append(",domain:{filter:").append(JSONValue.toJSONString(legend.get(legendIdx).getFq()))
+                    .append("}}");
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
     private SolrQuery createHeatmapQuery(
             String query,
             String[] filterQueries,
@@ -9,8 +9,10 @@ import au.org.ala.biocache.stream.ProcessInterface;
 import au.org.ala.biocache.util.DwCTerms;
 import au.org.ala.biocache.util.DwcTermDetails;
 import au.org.ala.biocache.util.QueryFormatUtils;
+import au.org.ala.biocache.util.SingleFlight;
 import au.org.ala.biocache.util.solr.FieldMappedSolrClient;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import au.org.ala.biocache.util.solr.SolrParamsKey;
 import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -55,6 +57,7 @@ import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.IntSupplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -188,6 +191,24 @@ public class SolrIndexDAOImpl implements IndexDAO {
     @Value("${solr.home:}")
     protected String solrHome;
 
+    /**
+     * coalesce identical SOLR queries and facet streams that are running at the same time into one request
+     */
+    @Value("${solr.coalesce.enabled:true}")
+    protected boolean coalesceEnabled = true;
+
+    /**
+     * max number of tuples of a coalesced facet stream that are kept for the waiting requests. Tuples are only kept
+     * when a request is waiting before the first tuple is read. Waiting requests open their own stream when there are
+     * more, or when they started waiting later.
+     */
+    @Value("${solr.coalesce.stream.max.tuples:100000}")
+    protected int coalesceMaxTuples = 100000;
+
+    private final SingleFlight<String, QueryResponse> queryFlights = new SingleFlight<>();
+
+    private final SingleFlight<String, List<Tuple>> facetStreamFlights = new SingleFlight<>();
+
     // CoreContainer cc;
     SolrClient solrClient;
     CloseableHttpClient httpClient;
@@ -301,6 +322,21 @@ public class SolrIndexDAOImpl implements IndexDAO {
 
     @Override
     public QueryResponse query(SolrParams query) throws Exception {
+        if (coalesceEnabled) {
+            return queryFlights.execute(SolrParamsKey.of(query), () -> doQuery(query));
+        }
+        return doQuery(query);
+    }
+
+    @Override
+    public Map<String, Object> getCoalescingStats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("query", queryFlights.getStats());
+        map.put("facetStream", facetStreamFlights.getStats());
+        return map;
+    }
+
+    private QueryResponse doQuery(SolrParams query) throws Exception {
         int retry = 0;
 
         QueryResponse qr = null;
@@ -1107,11 +1143,13 @@ public class SolrIndexDAOImpl implements IndexDAO {
             if (procSearch != null && query.getRows() != 0) {
                 try (TupleStream solrStream = openStream(buildSearchExpr(query));) {
                     Tuple tuple;
-                    while (!(tuple = solrStream.read()).EOF && (tupleCount < query.getRows() || query.getRows() < 0)) {
+                    while (!procSearch.cancelled() && !(tuple = solrStream.read()).EOF && (tupleCount < query.getRows() || query.getRows() < 0)) {
                         tupleCount++;
                         procSearch.process(tuple);
                     }
-                    procSearch.flush();
+                    if (!procSearch.cancelled()) {
+                        procSearch.flush();
+                    }
                 }
             }
 
@@ -1119,11 +1157,12 @@ public class SolrIndexDAOImpl implements IndexDAO {
             if (procFacet != null && query.getFacetFields() != null) {
                 // process one at a time
                 for (String facetField : query.getFacetFields()) {
-                    try (TupleStream solrStream = createTupleStream(query, endemicFacetSuperset, facetField);) {
-                        Tuple tuple;
-                        while (!(tuple = solrStream.read()).EOF) {
-                            procFacet.process(tuple);
-                        }
+                    ModifiableSolrParams params = endemicFacetSuperset == null ?
+                            buildFacetExpr(query, facetField) : buildEndemicExpr(query, endemicFacetSuperset);
+                    if (coalesceEnabled) {
+                        streamFacetCoalesced(params, procFacet);
+                    } else {
+                        streamFacet(params, procFacet, () -> 0);
                     }
                 }
                 procFacet.flush();
@@ -1142,12 +1181,78 @@ public class SolrIndexDAOImpl implements IndexDAO {
         return tupleCount;
     }
 
-    private TupleStream createTupleStream(SolrQuery query, SolrQuery endemicFacetSuperset, String facetField) throws IOException {
-        if (endemicFacetSuperset == null) {
-            return openStream(buildFacetExpr(query, facetField));
-        } else {
-            return openStream(buildEndemicExpr(query, endemicFacetSuperset));
+    /**
+     * Process a facet stream, sharing the tuples with identical facet streams that start while it is running.
+     * <p>
+     * The waiting processors are given copies of the tuples.
+     */
+    private void streamFacetCoalesced(ModifiableSolrParams params, ProcessInterface procFacet) throws Exception {
+        String key = SolrParamsKey.of(params);
+        boolean[] processed = {false};
+        List<Tuple> tuples;
+        try {
+            tuples = facetStreamFlights.execute(key, () -> {
+                processed[0] = true;
+                // most streams have nobody waiting for them so the tuples are only kept when somebody is
+                return streamFacet(params, procFacet, () -> facetStreamFlights.hasWaiters(key) ? coalesceMaxTuples : 0);
+            });
+        } catch (Exception e) {
+            if (processed[0]) {
+                throw e;
+            }
+            // the shared stream may have failed in the processor of another request
+            tuples = null;
+        }
+
+        if (!processed[0]) {
+            if (tuples != null) {
+                for (Tuple tuple : tuples) {
+                    procFacet.process(tuple.clone());
+                }
+            } else {
+                // too many tuples were streamed to keep them, this request started waiting after the first tuple,
+                // or the shared stream failed
+                streamFacet(params, procFacet, () -> 0);
+            }
+        }
+    }
+
+    /**
+     * Process a facet stream.
+     *
+     * @param params
+     * @param procFacet
+     * @param maxTuples max number of tuples to return, 0 or less to return none. Read when the first tuple is read.
+     * @return copies of the tuples, or null when there were more than maxTuples or none were to be returned
+     */
+    private List<Tuple> streamFacet(ModifiableSolrParams params, ProcessInterface procFacet, IntSupplier maxTuples) throws IOException {
+        List<Tuple> tuples = null;
+        int max = 0;
+        boolean first = true;
+        try (TupleStream solrStream = openStream(params);) {
+            Tuple tuple;
+            while (!(tuple = solrStream.read()).EOF) {
+                if (first) {
+                    first = false;
+                    max = maxTuples.getAsInt();
+                    tuples = max > 0 ? new ArrayList<>() : null;
+                }
+                if (tuples != null) {
+                    if (tuples.size() < max) {
+                        // copied before it is processed, the processor may change it
+                        tuples.add(tuple.clone());
+                    } else {
+                        tuples = null;
+                    }
+                }
+                procFacet.process(tuple);
+            }
+        }
+        if (first && maxTuples.getAsInt() > 0) {
+            // no tuples
+            return new ArrayList<>();
         }
+        return tuples;
     }
 
     private ModifiableSolrParams buildSearchExpr(SolrQuery query) {
@@ -1182,6 +1287,15 @@ public class SolrIndexDAOImpl implements IndexDAO {
             solrParams.set("rows", query.getRows());
             solrParams.set("start", query.getStart());
             qt = "/select";
+
+            // a page of search results is in the requested order
+            if (!query.getSorts().isEmpty()) {
+                List<String> sorts = new ArrayList<>();
+                for (SolrQuery.SortClause sort : query.getSorts()) {
+                    sorts.add(fieldMappingUtil.translateFieldName(sort.getItem()) + " " + sort.getOrder());
+                }
+                solrParams.set("sort", StringUtils.join(sorts, ","));
+            }
         }
         solrParams.set("qt", qt);
 
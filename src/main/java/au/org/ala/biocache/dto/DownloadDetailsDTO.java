@@ -14,15 +14,19 @@
  ***************************************************************************/
 package au.org.ala.biocache.dto;
 
+import au.org.ala.biocache.util.thread.DownloadListener;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Stores the details of a download.  Will allow for monitoring of downloads
@@ -52,6 +56,11 @@ public class DownloadDetailsDTO {
     private String sensitiveFq = null;
     private AtomicBoolean interrupt = new AtomicBoolean(false);
     private String processingThreadName = null;
+    /**
+     * Records written by each partition of a partitioned download. Empty when the download is not partitioned.
+     */
+    private volatile AtomicLongArray partitionRecordsDownloaded = new AtomicLongArray(0);
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Default constructor necessary for Jackson to create an object from the JSON. 
@@ -294,9 +303,56 @@ public class DownloadDetailsDTO {
 
     public void resetCounts() {
         recordsDownloaded.set(0);
+        partitionRecordsDownloaded = new AtomicLongArray(partitionRecordsDownloaded.length());
         lastUpdate = new Date();
     }
 
+    /**
+     * Start tracking per partition progress for a download that is streamed as several disjoint partitions.
+     *
+     * @param partitions the number of partitions
+     */
+    public void initPartitions(int partitions) {
+        partitionRecordsDownloaded = new AtomicLongArray(partitions);
+    }
+
+    public void updatePartitionCount(int partition, int number) {
+        partitionRecordsDownloaded.addAndGet(partition, number);
+        lastUpdate = new Date();
+    }
+
+    /**
+     * @return the number of records written by each partition, or an empty array when the download is not partitioned.
+     */
+    public long[] getPartitionRecordsDownloaded() {
+        AtomicLongArray counts = partitionRecordsDownloaded;
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Register a listener for the lifecycle events of this download. A listener is only registered once.
+     *
+     * @param listener
+     */
+    public void addListener(DownloadListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    @JsonIgnore
+    public List<DownloadListener> getListeners() {
+        return listeners;
+    }
+
     /**
      * Encompasses the different types of downloads that can be performed.
      */ 
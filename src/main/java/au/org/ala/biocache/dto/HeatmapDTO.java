@@ -7,8 +7,8 @@ import java.util.List;
 public class HeatmapDTO {
 
     public final Integer gridLevel;
-    // each element of the list is a single grid layer
-    public final List<List<List<Integer>>> layers;
+    // each element of the list is a single grid layer of rows x columns counts in row major order, or null when empty
+    public final List<int[]> layers;
     public final List<LegendItem> legend;
     public final int gridSizeInPixels;
     public final Integer rows;
@@ -22,7 +22,7 @@ public class HeatmapDTO {
     public  Double tileMaxx;
     public  Double tileMaxy;
 
-    public HeatmapDTO(Integer gridLevel, List<List<List<Integer>>> layers, List<LegendItem> legend, int gridSizeInPixels, Integer rows, Integer columns, Double minx, Double miny, Double maxx, Double maxy) {
+    public HeatmapDTO(Integer gridLevel, List<int[]> layers, List<LegendItem> legend, int gridSizeInPixels, Integer rows, Integer columns, Double minx, Double miny, Double maxx, Double maxy) {
         // adjust for dateline wrap
         while (minx >= 180)
             minx = minx - 360.0;
@@ -48,6 +48,33 @@ public class HeatmapDTO {
         this.tileMaxx = maxx;
         this.tileMaxy = maxy;
     }
+
+    /**
+     * Convert a SOLR heatmap counts_ints2D to a grid layer.
+     *
+     * @param counts  SOLR heatmap counts, null rows are rows with no counts
+     * @param rows    number of heatmap rows
+     * @param columns number of heatmap columns
+     * @return counts in row major order, or null when there are no counts
+     */
+    public static int[] toGrid(List<List<Integer>> counts, Integer rows, Integer columns) {
+        if (counts == null || rows == null || columns == null) {
+            return null;
+        }
+
+        int[] grid = new int[rows * columns];
+        for (int row = 0; row < rows && row < counts.size(); row++) {
+            List<Integer> values = counts.get(row);
+            if (values != null) {
+                int offset = row * columns;
+                for (int column = 0; column < columns && column < values.size(); column++) {
+                    grid[offset + column] = values.get(column);
+                }
+            }
+        }
+        return grid;
+    }
+
     public Double columnWidth() {
         return (maxx - minx) / (double) columns;
     }
@@ -0,0 +1,116 @@
+package au.org.ala.biocache.dto;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, sorted list of species list Kvp with an O(log n) lookup of the innermost Kvp containing a lft rgt range.
+ * <p>
+ * The lft rgt ranges are nested sets. Each Kvp has a parent, the nearest preceding Kvp that contains it, and the
+ * ancestors of each Kvp are indexed by powers of two so the search up the ancestors is a binary search.
+ */
+public class KvpIndex extends AbstractList<Kvp> implements RandomAccess {
+
+    private final Kvp[] kvps;
+    private final long[] lft;
+    private final long[] rgt;
+
+    /**
+     * ancestors[k][i] is the 2^k'th ancestor of kvps[i], or -1
+     */
+    private final int[][] ancestors;
+
+    public KvpIndex(Collection<Kvp> items) {
+        kvps = items.toArray(new Kvp[0]);
+        Arrays.sort(kvps, Kvp.KvpComparator);
+
+        int n = kvps.length;
+        lft = new long[n];
+        rgt = new long[n];
+        for (int i = 0; i < n; i++) {
+            lft[i] = kvps[i].lft;
+            rgt[i] = kvps[i].rgt;
+        }
+
+        int levels = 1;
+        while ((1 << levels) < n) {
+            levels++;
+        }
+        ancestors = new int[levels][n];
+
+        // parents from a stack of the open ranges
+        int[] stack = new int[n];
+        int top = -1;
+        for (int i = 0; i < n; i++) {
+            while (top >= 0 && !contains(stack[top], lft[i], rgt[i])) {
+                top--;
+            }
+            ancestors[0][i] = top >= 0 ? stack[top] : -1;
+            stack[++top] = i;
+        }
+
+        for (int k = 1; k < levels; k++) {
+            for (int i = 0; i < n; i++) {
+                int mid = ancestors[k - 1][i];
+                ancestors[k][i] = mid < 0 ? -1 : ancestors[k - 1][mid];
+            }
+        }
+    }
+
+    /**
+     * Find the innermost Kvp that contains the lft rgt range.
+     *
+     * @param lftrgt
+     * @return Kvp or null when none contain the range
+     */
+    public Kvp find(Kvp lftrgt) {
+        // last range starting at or before lftrgt
+        int lo = 0;
+        int hi = lft.length - 1;
+        int idx = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lft[mid] <= lftrgt.lft) {
+                idx = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        if (idx < 0) {
+            return null;
+        }
+
+        if (contains(idx, lftrgt.lft, lftrgt.rgt)) {
+            return kvps[idx];
+        }
+
+        // any containing range is an ancestor of idx, and ancestors of a containing range also contain it
+        for (int k = ancestors.length - 1; k >= 0; k--) {
+            int ancestor = ancestors[k][idx];
+            if (ancestor >= 0 && !contains(ancestor, lftrgt.lft, lftrgt.rgt)) {
+                idx = ancestor;
+            }
+        }
+
+        int parent = ancestors[0][idx];
+        return parent >= 0 && contains(parent, lftrgt.lft, lftrgt.rgt) ? kvps[parent] : null;
+    }
+
+    private boolean contains(int i, long innerLft, long innerRgt) {
+        return lft[i] <= innerLft && rgt[i] >= innerRgt;
+    }
+
+    @Override
+    public Kvp get(int index) {
+        return kvps[index];
+    }
+
+    @Override
+    public int size() {
+        return kvps.length;
+    }
+}
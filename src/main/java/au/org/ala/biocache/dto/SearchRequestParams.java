@@ -70,6 +70,8 @@ public class SearchRequestParams {
     protected Integer pageSize = 10;
     protected String sort = "score";
     protected String dir = "asc";
+    /** Cursor paging token. Use "*" for the first page and the nextCursor of the result for the following pages */
+    protected String cursor;
     private String displayString;
 
     protected Boolean includeMultivalues = false;
@@ -125,6 +127,8 @@ public class SearchRequestParams {
         req.append("&pageSize=").append(pageSize);
         req.append("&sort=").append(sort);
         req.append("&dir=").append(dir);
+        if (cursor != null)
+            req.append("&cursor=").append(conditionalEncode(cursor, encodeParams));
         req.append("&qc=").append(qc);
         if (facets != null && facets.length > 0 && isFacet) {
             for (String f : facets) {
@@ -470,6 +474,14 @@ public class SearchRequestParams {
 		this.fprefix = fprefix;
 	}
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public Boolean getIncludeMultivalues() {
         return includeMultivalues;
     }
@@ -531,6 +543,7 @@ public class SearchRequestParams {
                 Objects.equals(pageSize, that.pageSize) &&
                 Objects.equals(sort, that.sort) &&
                 Objects.equals(dir, that.dir) &&
+                Objects.equals(cursor, that.cursor) &&
                 Objects.equals(displayString, that.displayString) &&
                 Objects.equals(qc, that.qc) &&
                 Objects.equals(facet, that.facet) &&
@@ -540,7 +553,7 @@ public class SearchRequestParams {
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(formattedQuery, q, fl, start, facetsMax, flimit, fsort, foffset, fprefix, pageSize, sort, dir, displayString, qc, facet, qualityProfile, disableAllQualityFilters, disableQualityFilter);
+        int result = Objects.hash(formattedQuery, q, fl, start, facetsMax, flimit, fsort, foffset, fprefix, pageSize, sort, dir, cursor, displayString, qc, facet, qualityProfile, disableAllQualityFilters, disableQualityFilter);
         result = 31 * result + Arrays.hashCode(fq);
         result = 31 * result + Arrays.hashCode(facets);
         return result;
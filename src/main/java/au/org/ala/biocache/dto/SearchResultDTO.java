@@ -40,6 +40,8 @@ public class SearchResultDTO {
     private String sort;
     /** Direction to sort results by (asc || desc) */
     private String dir = "asc";
+    /** Cursor for the next page when cursor paging, null on the last page */
+    private String nextCursor;
     /** Status code to be set by Controller (e.g. OK) */
     private String status;
     /** An error message to return to the requester */
@@ -122,6 +124,14 @@ public class SearchResultDTO {
         this.dir = dir;
     }
 
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     public String getSort() {
         return sort;
     }
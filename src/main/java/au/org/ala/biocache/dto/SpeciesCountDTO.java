@@ -14,6 +14,8 @@
  ***************************************************************************/
 package au.org.ala.biocache.dto;
 
+import java.util.Arrays;
+
 /**
  * Group result for a SOLR search
  */
@@ -27,6 +29,10 @@ public class SpeciesCountDTO {
      * counts for each lft
      */
     private long[] counts;
+    /**
+     * cumulative counts, cumulativeCounts[i] is the sum of counts[0] to counts[i - 1]
+     */
+    private long[] cumulativeCounts;
     /**
      * index version for this object
      */
@@ -42,8 +48,8 @@ public class SpeciesCountDTO {
      */
     public SpeciesCountDTO(long[] lft, long[] counts, long indexVersion) {
         this.lft = lft;
-        this.counts = counts;
         this.indexVersion = indexVersion;
+        setCounts(counts);
     }
 
     /**
@@ -66,6 +72,45 @@ public class SpeciesCountDTO {
 
     public void setCounts(long[] counts) {
         this.counts = counts;
+
+        if (counts == null) {
+            cumulativeCounts = null;
+        } else {
+            long[] cumulative = new long[counts.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                cumulative[i + 1] = cumulative[i] + counts[i];
+            }
+            cumulativeCounts = cumulative;
+        }
+    }
+
+    /**
+     * Sum of the counts for lft values between left and right, inclusive.
+     *
+     * @param left
+     * @param right
+     * @return
+     */
+    public long getCount(long left, long right) {
+        if (lft == null || cumulativeCounts == null || right < left) {
+            return 0;
+        }
+
+        // first position with lft >= left
+        int start = Arrays.binarySearch(lft, left);
+        if (start < 0) {
+            start = -1 * start - 1;
+        }
+
+        // first position with lft > right
+        int end = Arrays.binarySearch(lft, right);
+        if (end < 0) {
+            end = -1 * end - 1;
+        } else {
+            end++;
+        }
+
+        return cumulativeCounts[end] - cumulativeCounts[start];
     }
 
     public long getIndexVersion() {
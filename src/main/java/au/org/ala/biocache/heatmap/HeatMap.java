@@ -23,6 +23,7 @@ import java.awt.image.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.stream.IntStream;
 
 import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 
@@ -166,18 +167,18 @@ public class HeatMap {
      */
     private BufferedImage doColorize() {
 
-        int[] image_bytes = colorImage.getRGB(0, 0, colorImage.getWidth(), colorImage.getHeight(), null, 0, colorImage.getWidth());
-        int[] image_bytes2 = monochromeImage.getRGB(0, 0, monochromeImage.getWidth(), monochromeImage.getHeight(), null, 0, monochromeImage.getWidth());
+        int[] image_bytes = colorImage.getRGB(0, 0, colorImage.getWidth(), 1, null, 0, colorImage.getWidth());
+        int[] image_bytes2 = ((DataBufferInt) monochromeImage.getRaster().getDataBuffer()).getData();
+
+        /* write bytes to image */
+        BufferedImage biColorized = new BufferedImage(monochromeImage.getWidth(), monochromeImage.getHeight(), TYPE_INT_ARGB);
+        int[] colorized = ((DataBufferInt) biColorized.getRaster().getDataBuffer()).getData();
 
         for (int i = 0; i < image_bytes2.length; i++) {
             int pos = image_bytes2[i] & 0x000000ff;
-            image_bytes2[i] = image_bytes[pos * 2] & 0x99ffffff;
+            colorized[i] = image_bytes[pos * 2] & 0x99ffffff;
         }
 
-        /* write bytes to image */
-        BufferedImage biColorized = new BufferedImage(monochromeImage.getWidth(), monochromeImage.getHeight(), TYPE_INT_ARGB);
-        biColorized.setRGB(0, 0, biColorized.getWidth(), biColorized.getHeight(), image_bytes2, 0, biColorized.getWidth());
-
         return biColorized;
     }
 
@@ -236,18 +237,16 @@ public class HeatMap {
         return null;
     }
 
-    private void generateLogScaleCircle(int dPoints[][]) {
+    private void generateLogScaleCircle(long[] dPoints) {
         try {
 
-            int maxValue = 0;
+            long maxValue = 0;
             int width = monochromeImage.getWidth();
             int height = monochromeImage.getHeight();
 
-            for (int mi = 0; mi < width; mi++) {
-                for (int mj = 0; mj < height; mj++) {
-                    if (maxValue < dPoints[mi][mj]) {
-                        maxValue = dPoints[mi][mj];
-                    }
+            for (long value : dPoints) {
+                if (maxValue < value) {
+                    maxValue = value;
                 }
             }
 
@@ -257,22 +256,21 @@ public class HeatMap {
             if (maxValue > 0) {
                 // we are doing "1" here to make sure nothing is 0
                 int roundFactor = 1;
+                double logMaxValue = Math.log((double) maxValue);
 
-                for (int mi = 0; mi < width; mi++) {
-                    for (int mj = 0; mj < height; mj++) {
-                        int rgba = (int) (255 - Math.log(dPoints[mi][mj]) * 255 / Math.log((double) maxValue));
+                // write straight into the image, dPoints and the image are both row by row
+                int[] pixels = ((DataBufferInt) monochromeImage.getRaster().getDataBuffer()).getData();
+                IntStream.range(0, height).parallel().forEach(mj -> {
+                    for (int mi = mj * width; mi < (mj + 1) * width; mi++) {
+                        int rgba = (int) (255 - Math.log(dPoints[mi]) * 255 / logMaxValue);
                         if (rgba < 255 && rgba > 255 - (255 / numColours) - roundFactor) {
                             rgba = 255 - (255 / numColours) - roundFactor;
                         }
-                        //rgba <<= 8;
-                        //
-                        //rgba = (((short)rgba) & 0x000000ff) << 24;
                         rgba = (rgba) | (rgba << 8) | (rgba << 16) | 0xff000000;
-                        //System.out.println("rgba: " + Integer.toHexString(rgba));
 
-                        monochromeImage.setRGB(mi, mj, rgba);
+                        pixels[mi] = rgba;
                     }
-                }
+                });
 
                 generateLegend(maxValue);
             }
@@ -287,34 +285,30 @@ public class HeatMap {
      * @param points
      */
     public void generateClasses(double[] points) {
+        generateClasses(points, null);
+    }
+
+    /**
+     * Generate classes from weighted points.
+     *
+     * @param points lng,lat pairs
+     * @param counts number of occurrences at each point, or null to count each point once
+     */
+    public void generateClasses(double[] points, long[] counts) {
 
         int width = backgroundImage.getWidth();
         int height = backgroundImage.getHeight();
 
-        int dPoints[][] = new int[width][height];
+        KernelDensity density = new KernelDensity(width, height, radius, numColours);
         for (int i = 0; i < points.length; i += 2) {
-            double cx = points[i];
-            double cy = points[i + 1];
-
-            Point p = translate(cx, cy);
+            // same pixel as translate
+            int x = (int) ((points[i] - minX) / (maxX - minX) * width);
+            int y = (int) ((1 - (points[i + 1] - minY) / (maxY - minY)) * height);
 
-            int pradius = radius * radius;
-
-            for (int ci = (int) (p.x - radius); ci <= (p.x + radius); ci++) {
-                for (int cj = (int) (p.y - radius); cj <= (p.y + radius); cj++) {
-                    if (ci >= 0 && ci < width && cj >= 0 && cj < height) {
-                        double d = Math.pow((p.x - ci), 2) + Math.pow((p.y - cj), 2);
-                        if ((int) d <= pradius) {
-                            // applying gradient to this circle so outer influence is low
-                            // and at the peak it's maximum
-                            dPoints[ci][cj] += numColours - ((d * numColours) / pradius);
-                        }
-                    }
-                }
-            }
+            density.add(x, y, counts == null ? 1 : counts[i / 2]);
         }
 
-        generateLogScaleCircle(dPoints);
+        generateLogScaleCircle(density.estimate());
     }
 
     public void generatePoints(double[] points, Color pointColour, String label) {
@@ -377,12 +371,12 @@ public class HeatMap {
         legendImage = newLegend;
     }
 
-    private void generateLegend(int maxValue) {
+    private void generateLegend(long maxValue) {
 
-        int scale[] = new int[numColours - 1];
+        long scale[] = new long[numColours - 1];
         scale[0] = maxValue;
         for (int i = 1; i < scale.length - 1; i++) {
-            scale[i] = (int) Math.pow(Math.E, ((numColours - i) * (Math.log((double) maxValue) / numColours)));
+            scale[i] = (long) Math.pow(Math.E, ((numColours - i) * (Math.log((double) maxValue) / numColours)));
         }
         scale[scale.length - 1] = 0;
 
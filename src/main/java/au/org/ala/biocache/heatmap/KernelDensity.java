@@ -0,0 +1,113 @@
+package au.org.ala.biocache.heatmap;
+
+import java.util.stream.IntStream;
+
+/**
+ * Kernel density raster for the static heatmap.
+ * <p>
+ * Weighted points are binned into a flat raster with a border of the kernel radius, so that points just outside of
+ * the image still contribute. The precomputed kernel is then applied to the bins one output row at a time. Rows are
+ * processed in parallel and each row is only written by one thread.
+ * <p>
+ * The kernel is the HeatMap circle of the given radius, numColours at the centre falling to 0 at the radius.
+ */
+public class KernelDensity {
+
+    final int width;
+    final int height;
+    final int radius;
+
+    /**
+     * kernel values, row by row, (2 * radius + 1) wide
+     */
+    final int[] kernel;
+
+    /**
+     * binned weights, row by row, with a border of radius
+     */
+    final long[] bins;
+    final int binWidth;
+    final int binHeight;
+
+    /**
+     * @param width      raster width in pixels
+     * @param height     raster height in pixels
+     * @param radius     kernel radius in pixels
+     * @param numColours kernel value at the centre
+     */
+    public KernelDensity(int width, int height, int radius, int numColours) {
+        this.width = width;
+        this.height = height;
+        this.radius = radius;
+        this.binWidth = width + 2 * radius;
+        this.binHeight = height + 2 * radius;
+        this.bins = new long[binWidth * binHeight];
+        this.kernel = createKernel(radius, numColours);
+    }
+
+    static int[] createKernel(int radius, int numColours) {
+        int size = 2 * radius + 1;
+        int pradius = radius * radius;
+        int[] kernel = new int[size * size];
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                int d = dx * dx + dy * dy;
+                if (d <= pradius) {
+                    // applying gradient to this circle so outer influence is low
+                    // and at the peak it's maximum
+                    kernel[(dy + radius) * size + dx + radius] = (int) (numColours - ((double) d * numColours) / pradius);
+                }
+            }
+        }
+        return kernel;
+    }
+
+    /**
+     * Add a weighted point.
+     *
+     * @param x      pixel column, may be outside of the raster
+     * @param y      pixel row, may be outside of the raster
+     * @param weight number of occurrences at the point
+     */
+    public void add(int x, int y, long weight) {
+        int bx = x + radius;
+        int by = y + radius;
+        if (bx >= 0 && bx < binWidth && by >= 0 && by < binHeight) {
+            bins[by * binWidth + bx] += weight;
+        }
+    }
+
+    /**
+     * @return density of each pixel, row by row
+     */
+    public long[] estimate() {
+        long[] density = new long[width * height];
+        IntStream.range(0, height).parallel().forEach(row -> estimateRow(row, density));
+        return density;
+    }
+
+    private void estimateRow(int row, long[] density) {
+        int size = 2 * radius + 1;
+        int offset = row * width;
+
+        // bins rows row - radius .. row + radius are within radius of this row
+        for (int ky = 0; ky < size; ky++) {
+            int binRow = (row + ky) * binWidth;
+            int kernelRow = (size - 1 - ky) * size;
+            for (int bx = 0; bx < binWidth; bx++) {
+                long weight = bins[binRow + bx];
+                if (weight == 0) {
+                    continue;
+                }
+
+                // the pixels of this row within radius of the bin
+                int x = bx - radius;
+                int start = Math.max(-radius, -x);
+                int end = Math.min(radius, width - 1 - x);
+                for (int dx = start; dx <= end; dx++) {
+                    density[offset + x + dx] += weight * kernel[kernelRow + dx + radius];
+                }
+            }
+        }
+    }
+}
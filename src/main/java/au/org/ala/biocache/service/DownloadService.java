@@ -25,6 +25,7 @@ import au.org.ala.biocache.stream.OptionalZipOutputStream;
 import au.org.ala.biocache.util.AlaFileUtils;
 import au.org.ala.biocache.util.thread.DownloadControlThread;
 import au.org.ala.biocache.util.thread.DownloadCreator;
+import au.org.ala.biocache.util.thread.DownloadListener;
 import au.org.ala.biocache.writer.RecordWriterException;
 import au.org.ala.doi.CreateDoiResponse;
 import com.google.common.annotations.VisibleForTesting;
@@ -236,6 +237,18 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
     @Value("${zip.file.size.mb.max:4000}")
     public Integer maxMB;
 
+    /** Deflate compression level of zipped downloads, 0 (no compression) to 9, or -1 for the default */
+    @Value("${zip.compression.level:-1}")
+    protected Integer zipCompressionLevel = -1;
+
+    /** Max number of threads deflating zipped downloads in parallel. 1 to deflate on the download thread. */
+    @Value("${zip.compression.threads:4}")
+    protected Integer zipCompressionThreads = 4;
+
+    /** Max number of threads sampling analysis layers for downloads in parallel. */
+    @Value("${download.layers.sample.threads:4}")
+    protected Integer layersSampleThreads = 4;
+
     @Value("${download.url:https://biocache.ala.org.au/biocache-download}")
     public String biocacheDownloadUrl;
 
@@ -327,6 +340,39 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
 
     private volatile ExecutorService offlineParallelQueryExecutor;
 
+    private volatile ExecutorService zipDeflateExecutor;
+
+    private volatile ExecutorService layersSampleExecutor;
+
+    /**
+     * Logs the lifecycle of each download streamed from the index.
+     */
+    private final DownloadListener downloadLogListener = new DownloadListener() {
+        @Override
+        public void firstRecord(DownloadDetailsDTO download) {
+            if (logger.isInfoEnabled()) {
+                logger.info("First record written " + (System.currentTimeMillis() - download.getStartTime()) + "ms after the download request: " + download.getDownloadParams());
+            }
+        }
+
+        @Override
+        public void finished(DownloadDetailsDTO download) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Finished writing " + download.getRecordsDownloaded() + " records in " + (System.currentTimeMillis() - download.getStartTime()) + "ms: " + download.getDownloadParams());
+            }
+        }
+
+        @Override
+        public void cancelled(DownloadDetailsDTO download) {
+            logger.warn("Download cancelled after " + download.getRecordsDownloaded() + " records: " + download.getDownloadParams());
+        }
+
+        @Override
+        public void failed(DownloadDetailsDTO download, Throwable error) {
+            logger.error("Download failed after " + download.getRecordsDownloaded() + " records: " + download.getDownloadParams(), error);
+        }
+    };
+
     @PostConstruct
     public void init() throws ParseException {
 
@@ -442,6 +488,49 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
         return nextExecutor;
     }
 
+    /**
+     * @return An instance of ExecutorService shared by downloads to deflate zip blocks in parallel, or null when
+     * zip.compression.threads is less than 2.
+     */
+    private ExecutorService getZipDeflateExecutor() {
+        if (zipCompressionThreads < 2) {
+            return null;
+        }
+        ExecutorService nextExecutor = zipDeflateExecutor;
+        if (nextExecutor == null) {
+            synchronized (this) {
+                nextExecutor = zipDeflateExecutor;
+                if (nextExecutor == null) {
+                    nextExecutor = zipDeflateExecutor = Executors.newFixedThreadPool(
+                            zipCompressionThreads,
+                            new ThreadFactoryBuilder().setNameFormat("biocache-zip-deflate-%d")
+                                    .setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+                }
+            }
+        }
+        return nextExecutor;
+    }
+
+    /**
+     * @return An instance of ExecutorService shared by downloads to sample analysis layers while the download
+     * continues.
+     */
+    public ExecutorService getLayersSampleExecutor() {
+        ExecutorService nextExecutor = layersSampleExecutor;
+        if (nextExecutor == null) {
+            synchronized (this) {
+                nextExecutor = layersSampleExecutor;
+                if (nextExecutor == null) {
+                    nextExecutor = layersSampleExecutor = Executors.newFixedThreadPool(
+                            Math.max(1, layersSampleThreads),
+                            new ThreadFactoryBuilder().setNameFormat("biocache-layers-sample-%d")
+                                    .setDaemon(true).build());
+                }
+            }
+        }
+        return nextExecutor;
+    }
+
     private int getMaxOfflineParallelDownloadThreads() {
         return maxOfflineParallelQueryDownloadThreads;
     }
@@ -540,6 +629,17 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
         return Collections.unmodifiableList(result);
     }
 
+    /**
+     * @return the number of offline downloads that are currently streaming from the index
+     */
+    public int getStreamingDownloadCount() {
+        int count = 0;
+        for (DownloadControlThread runnable : runningDownloadControlRunnables) {
+            count += runnable.getStreamingDownloads();
+        }
+        return count;
+    }
+
     /**
      * Writes the supplied download to the supplied output stream. It will
      * include all the appropriate citations etc.
@@ -556,6 +656,7 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
                                    OutputStream out, boolean includeSensitive, boolean limit, boolean zip, ExecutorService parallelExecutor, List<CreateDoiResponse> doiResponseList)
             throws Exception {
         afterInitialisation();
+        dd.addListener(downloadLogListener);
         String filename = requestParams.getFile();
         String originalParams = requestParams.toString();
 
@@ -565,7 +666,8 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
         // Use a zip output stream to include the data and citation together in
         // the download.
         try (OptionalZipOutputStream sp = new OptionalZipOutputStream(
-                zip ? OptionalZipOutputStream.Type.zipped : OptionalZipOutputStream.Type.unzipped, new CloseShieldOutputStream(out), maxMB);) {
+                zip ? OptionalZipOutputStream.Type.zipped : OptionalZipOutputStream.Type.unzipped, new CloseShieldOutputStream(out), maxMB,
+                zipCompressionLevel, getZipDeflateExecutor(), zipCompressionThreads);) {
             String suffix = requestParams.getFileType();
             sp.putNextEntry(filename + "." + suffix);
             // put the facets
@@ -15,9 +15,10 @@
 package au.org.ala.biocache.service;
 
 import au.org.ala.biocache.dto.Kvp;
+import au.org.ala.biocache.dto.KvpIndex;
 import au.org.ala.biocache.service.ListsService.SpeciesListItemDTO.KvpDTO;
 import au.org.ala.biocache.service.ListsService.SpeciesListSearchDTO.SpeciesListDTO;
-import au.org.ala.biocache.util.SearchUtils;
+import au.org.ala.biocache.util.TaxonRangeResolver;
 import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -47,7 +48,7 @@ public class ListsService {
     protected RestOperations restTemplate; // NB MappingJacksonHttpMessageConverter() injected by Spring
 
     @Inject
-    protected SearchUtils searchUtils;
+    protected TaxonRangeResolver taxonRangeResolver;
 
     @Value("${list.tool.lookup.enabled:true}")
     private Boolean enabled;
@@ -146,7 +147,7 @@ public class ListsService {
     /**
      * Get species list KVP data object.
      * <p>
-     * This is used as input into other ListsService functions.
+     * This is used as input into other ListsService functions. The returned list is a KvpIndex.
      *
      * @param dataResourceUid
      * @return species list KVP data for use in other ListsService functions.
@@ -158,26 +159,30 @@ public class ListsService {
         try {
             SpeciesListItemsDTO speciesListItems = restTemplate.getForObject(new URI(speciesListUrl + "/ws/speciesListItems/" + dataResourceUid + "?includeKVP=true"), SpeciesListItemsDTO.class);
 
+            // resolve the lft rgt values of all items in one batch
+            List<String> lsids = new ArrayList<>();
             for (SpeciesListItemDTO item : speciesListItems) {
                 if (item.lsid != null) {
-                    // ignore species list item when there are no lft rgt values for the LSID
-                    String fq = searchUtils.getTaxonSearch(item.lsid)[0];
-                    if (fq.startsWith("lft:[")) {
-                        List<String> keys = new ArrayList<>();
-                        List<String> values = new ArrayList<>();
-
-                        for (KvpDTO kvp : item.kvpValues) {
-                            keys.add(kvp.key);
-                            values.add(kvp.value);
-                        }
-
-                        long lft = Long.parseLong(fq.replaceAll("(.*\\[| TO.*)", ""));
-                        ;
-                        long rgt = Long.parseLong(fq.replaceAll("(.*TO |\\].*)", ""));
-                        Kvp kvp = new Kvp(lft, rgt, keys, values);
+                    lsids.add(item.lsid);
+                }
+            }
+            Map<String, TaxonRangeResolver.TaxonRange> ranges = taxonRangeResolver.getAll(lsids);
 
-                        list.add(kvp);
+            for (SpeciesListItemDTO item : speciesListItems) {
+                // ignore species list item when there are no lft rgt values for the LSID
+                TaxonRangeResolver.TaxonRange range = item.lsid != null ? ranges.get(item.lsid) : null;
+                if (range != null) {
+                    List<String> keys = new ArrayList<>();
+                    List<String> values = new ArrayList<>();
+
+                    for (KvpDTO kvp : item.kvpValues) {
+                        keys.add(kvp.key);
+                        values.add(kvp.value);
                     }
+
+                    Kvp kvp = new Kvp(range.getLft(), range.getRgt(), keys, values);
+
+                    list.add(kvp);
                 }
             }
 
@@ -186,8 +191,8 @@ public class ListsService {
         }
 
         if (list.size() > 0) {
-            list.sort(Kvp.KvpComparator);
-            return list;
+            // sorted and indexed for find
+            return new KvpIndex(list);
         } else {
             return null;
         }
@@ -290,22 +295,16 @@ public class ListsService {
         return value;
     }
 
+    /**
+     * Find the innermost species list item that contains the lft rgt values.
+     *
+     * @param kvps   KVP data returned by getKvp(dr)
+     * @param lftrgt lsid's lftrgt values as Kvp
+     * @return
+     */
     public Kvp find(List<Kvp> kvps, Kvp lftrgt) {
-        int idx = Collections.binarySearch(kvps, lftrgt, Kvp.KvpComparator);
-        if (idx >= 0) {
-            return kvps.get(idx);
-        } else {
-            // reverse through kvps until a match is found
-            idx = Math.min(idx * -1, kvps.size() -1);
-            while (idx >= 0) {
-                if (kvps.get(idx).contains(lftrgt)) {
-                    return kvps.get(idx);
-                }
-                idx--;
-            }
-
-            return null;
-        }
+        KvpIndex index = kvps instanceof KvpIndex ? (KvpIndex) kvps : new KvpIndex(kvps);
+        return index.find(lftrgt);
     }
 
     public static class SpeciesListSearchDTO {
@@ -17,15 +17,20 @@ package au.org.ala.biocache.service;
 import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.*;
-import org.apache.commons.collections.map.LRUMap;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Caches species counts using left/right values and an optional fq term.
@@ -35,6 +40,8 @@ import java.util.concurrent.ConcurrentHashMap;
 @Component("SpeciesCountsService")
 public class SpeciesCountsService {
 
+    private static final Logger logger = Logger.getLogger(SpeciesCountsService.class);
+
     /**
      * Fulltext search DAO
      */
@@ -45,7 +52,7 @@ public class SpeciesCountsService {
     protected IndexDAO indexDao;
 
     /**
-     * Refresh cache every 30 minutes.
+     * Load missing counts in the background. Counts for a changed index version are always refreshed in the background.
      */
     @Value("${species.counts.async.updates:false}")
     protected Boolean asyncUpdates;
@@ -56,20 +63,31 @@ public class SpeciesCountsService {
     @Value("${species.counts.cache.minage:1800000}")
     protected Long cacheMinAge;
 
+    /**
+     * Max number of queries with cached counts.
+     */
+    @Value("${species.counts.cache.size:100}")
+    protected Integer cacheSize = 100;
+
     /**
      * Permit disabling of cached species counts
      */
     @Value("${autocomplete.species.counts.enabled:true}")
     private Boolean enabled;
 
-    //left and left counts by q, fq, qc
-    final Object cacheLock = new Object();
-    LRUMap cache = new LRUMap();
-    final Object updatelock = new Object();
+    //left and left counts by normalised q and fqs
+    Cache<String, SpeciesCountDTO> cache;
 
     //record of updates in queue
-    final Object updatingLock = new Object();
-    Map<Integer, Boolean> updatingList = new ConcurrentHashMap<Integer, Boolean>();
+    final Map<String, Boolean> updatingList = new ConcurrentHashMap<String, Boolean>();
+
+    final ExecutorService updateExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("species-counts-update-%d").setDaemon(true).build());
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
 
     /**
      * retrieve left + count + index version
@@ -81,19 +99,15 @@ public class SpeciesCountsService {
 
         //lft counts for the query
         SpatialSearchRequestParams params = new SpatialSearchRequestParams();
-        StringBuilder fq = new StringBuilder();
+        String[] fqs = new String[0];
         if (filterQuery == null || filterQuery.length == 0) {
             params.setQ("*:*");
-            fq.append("*:*");
         } else {
             params.setQ(filterQuery[0]);
-            fq.append(filterQuery[0]);
             if (filterQuery.length > 1) {
-                String[] fqs = Arrays.copyOfRange(filterQuery, 1, filterQuery.length);
-                params.setFacets(fqs);
-                for (String s : fqs) {
-                    fq.append(s);
-                }
+                fqs = Arrays.copyOfRange(filterQuery, 1, filterQuery.length);
+                Arrays.sort(fqs);
+                params.setFq(fqs);
             }
         }
         params.setPageSize(0);
@@ -101,35 +115,21 @@ public class SpeciesCountsService {
         params.setFacets(new String[]{"lft"});
         params.setFlimit(-1);
 
-        //hash code
-        int hashCode = fq.toString().hashCode();
+        //normalised key, the order of fqs does not change the counts
+        String key = params.getQ() + "\n" + StringUtils.join(fqs, "\n");
 
-        SpeciesCountDTO counts;
-        synchronized (cacheLock) {
-            counts = (SpeciesCountDTO) cache.get(hashCode);
-        }
+        SpeciesCountDTO counts = cache.getIfPresent(key);
 
-        //refresh if cache missing and not refreshed recently (cacheMinAge)
-        long indexVersion = indexDao.getIndexVersion(false);
-        if (counts == null || (cacheMinAge + counts.getAge() < System.currentTimeMillis() && indexVersion != counts.getIndexVersion())) {
-            //old counts that need one update scheduled
-            synchronized (updatingLock) {
-                Boolean updating = updatingList.get(hashCode);
-
-                if (updating == null) {
-                    updatingList.put(hashCode, true);
-
-                    if (asyncUpdates){
-                        Thread updateThread = new UpdateThread(this, hashCode, params);
-                        updateThread.start();
-                    } else {
-                        //run synchronously...
-                        UpdateThread updateThread = new UpdateThread(this, hashCode, params);
-                        updateThread.update();
-                        counts = (SpeciesCountDTO) cache.get(hashCode);
-                    }
-                }
+        if (counts == null) {
+            if (asyncUpdates) {
+                scheduleUpdate(key, params);
+            } else {
+                //run synchronously, concurrent requests for the same key wait for a single load
+                counts = cache.get(key, k -> load(params));
             }
+        } else if (cacheMinAge + counts.getAge() < System.currentTimeMillis() && indexDao.getIndexVersion(false) != counts.getIndexVersion()) {
+            //old counts are returned until the refresh is done
+            scheduleUpdate(key, params);
         }
 
         return counts;
@@ -140,111 +140,79 @@ public class SpeciesCountsService {
     }
 
     public long getCount(SpeciesCountDTO counts, long left, long right) {
-        if (counts == null || counts.getLft() == null) {
+        if (counts == null) {
             return 0;
         }
-        long[] lft = counts.getLft();
-        long[] count = counts.getCounts();
-
-        int pos = java.util.Arrays.binarySearch(lft, left);
-        if (pos < 0) {
-            pos = -1 * pos - 1;
-        }
-
-        long sum = 0;
-        while (pos < lft.length && lft[pos] <= right) {
-            sum += count[pos++];
-        }
-        return sum;
+        return counts.getCount(left, right);
     }
 
     public void resetCache() {
-        synchronized (cacheLock) {
-            cache.clear();
-        }
-    }
-
-}
-
-class UpdateThread extends Thread {
-
-    private static final Logger logger = Logger.getLogger(UpdateThread.class);
-
-    SpeciesCountsService speciesCountsService;
-    int hashCode;
-    SpatialSearchRequestParams params;
-
-    public UpdateThread(SpeciesCountsService speciesCountsService, int hashCode, SpatialSearchRequestParams params) {
-        this.speciesCountsService = speciesCountsService;
-        this.hashCode = hashCode;
-        this.params = params;
+        cache.invalidateAll();
     }
 
-    @Override
-    public void run() {
-        update();
-    }
-
-    public void update() {
-        synchronized (speciesCountsService.updatelock) {
-            //check if another has already updated this query
-            synchronized (speciesCountsService.cacheLock) {
-                if (speciesCountsService.cache.get(hashCode) != null) {
-                    //remove this from the update list
-                    synchronized (speciesCountsService.updatingLock) {
-                        speciesCountsService.updatingList.remove(hashCode);
+    /**
+     * Queue one update for the key.
+     */
+    private void scheduleUpdate(String key, SpatialSearchRequestParams params) {
+        if (updatingList.putIfAbsent(key, true) == null) {
+            updateExecutor.execute(() -> {
+                try {
+                    SpeciesCountDTO counts = load(params);
+                    if (counts != null) {
+                        cache.put(key, counts);
                     }
-                    return;
+                } finally {
+                    //remove this from the update list
+                    updatingList.remove(key);
                 }
-            }
+            });
+        }
+    }
 
-            //not found, update now
-            try {
-                logger.debug("updating species counts for query: " + params.toString());
-                SearchResultDTO qr = speciesCountsService.searchDAO.findByFulltextSpatialQuery(params, false, null);
-
-                //get lft and count
-                Map<Long, Long> map = new HashMap<Long, Long>();
-                for (FacetResultDTO fr : qr.getFacetResults()) {
-                    for (FieldResultDTO r : fr.getFieldResult()) {
-                        if (StringUtils.isNotEmpty(r.getLabel())) {
-                            try {
-                                map.put(Long.parseLong(r.getLabel()), r.getCount());
-                            } catch (NumberFormatException e){
-                                //for non numeric
-                            }
+    /**
+     * Get the lft facet counts for the query.
+     *
+     * @param params
+     * @return counts or null when the query failed
+     */
+    SpeciesCountDTO load(SpatialSearchRequestParams params) {
+        try {
+            logger.debug("updating species counts for query: " + params.toString());
+            long indexVersion = indexDao.getIndexVersion(false);
+            SearchResultDTO qr = searchDAO.findByFulltextSpatialQuery(params, false, null);
+
+            //get lft and count
+            Map<Long, Long> map = new HashMap<Long, Long>();
+            for (FacetResultDTO fr : qr.getFacetResults()) {
+                for (FieldResultDTO r : fr.getFieldResult()) {
+                    if (StringUtils.isNotEmpty(r.getLabel())) {
+                        try {
+                            map.put(Long.parseLong(r.getLabel()), r.getCount());
+                        } catch (NumberFormatException e) {
+                            //for non numeric
                         }
                     }
                 }
+            }
 
-                //sort keys
-                long[] left = new long[map.size()];
-                List<Long> keys = new ArrayList<Long>(map.keySet());
-                for (int i = 0; i < left.length; i++) {
-                    left[i] = keys.get(i);
-                }
-                java.util.Arrays.sort(left);
-
-                //get sorted values
-                long[] leftCount = new long[map.size()];
-                for (int i = 0; i < leftCount.length; i++) {
-                    leftCount[i] = map.get(left[i]);
-                }
-
-                SpeciesCountDTO counts = new SpeciesCountDTO(left, leftCount, speciesCountsService.indexDao.getIndexVersion(false));
-
-                //store in map
-                synchronized (speciesCountsService.cacheLock) {
-                    speciesCountsService.cache.put(hashCode, counts);
-                }
+            //sort keys
+            long[] left = new long[map.size()];
+            int i = 0;
+            for (Long lft : map.keySet()) {
+                left[i++] = lft;
+            }
+            Arrays.sort(left);
 
-            } catch (Exception e) {
-                logger.error("Failed to update species counts for : " + params.toString() + " " + e.getMessage(), e);
+            //get sorted values
+            long[] leftCount = new long[left.length];
+            for (i = 0; i < leftCount.length; i++) {
+                leftCount[i] = map.get(left[i]);
             }
-        }
-        //remove this from the update list
-        synchronized (speciesCountsService.updatingLock) {
-            speciesCountsService.updatingList.remove(hashCode);
+
+            return new SpeciesCountDTO(left, leftCount, indexVersion);
+        } catch (Exception e) {
+            logger.error("Failed to update species counts for : " + params.toString() + " " + e.getMessage(), e);
+            return null;
         }
     }
-}
\ No newline at end of file
+}
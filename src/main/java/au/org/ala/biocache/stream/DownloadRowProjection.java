@@ -0,0 +1,142 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.DownloadHeaders;
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import au.org.ala.biocache.util.SearchUtils;
+import org.apache.solr.client.solrj.io.Tuple;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Projects a tuple from /export onto the field and assertion columns of a download row.
+ * <p>
+ * Built once from the DownloadHeaders of a download. The column positions of each requested field and assertion
+ * are resolved when the projection is built so that each tuple is projected by visiting only the fields it contains.
+ * <p>
+ * Not thread safe. Each ProcessDownload has its own projection.
+ */
+public class DownloadRowProjection {
+
+    private static final String TRUE = Boolean.toString(true);
+    private static final String FALSE = Boolean.toString(false);
+    private static final String MULTIVALUE_SEPARATOR = " | ";
+
+    // column positions of each field requested from SOLR, excluding post-process fields
+    private final Map<String, int[]> fieldColumns;
+    private final int fieldCount;
+
+    // column positions of each assertion, relative to qaOffset
+    private final Map<String, int[]> qaColumns;
+    private final int qaCount;
+    private final int qaOffset;
+
+    private final boolean includeMultivalues;
+
+    private final StringBuilder joiner = new StringBuilder();
+
+    public DownloadRowProjection(DownloadHeaders headers, boolean includeMultivalues) {
+        this.fieldCount = headers.labels.length;
+        this.fieldColumns = columns(Arrays.copyOf(headers.included, fieldCount));
+
+        this.qaCount = headers.qaIds.length;
+        this.qaColumns = columns(headers.qaIds);
+        this.qaOffset = headers.labels.length + headers.analysisIds.length + headers.speciesListIds.length;
+
+        this.includeMultivalues = includeMultivalues;
+    }
+
+    private static Map<String, int[]> columns(String[] names) {
+        Map<String, int[]> columns = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            int[] existing = columns.get(names[i]);
+            if (existing == null) {
+                columns.put(names[i], new int[]{i});
+            } else {
+                int[] positions = Arrays.copyOf(existing, existing.length + 1);
+                positions[existing.length] = i;
+                columns.put(names[i], positions);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Write the requested field values of the tuple into the first headers.labels.length columns of values.
+     *
+     * @param tuple
+     * @param values
+     */
+    public void projectFields(Tuple tuple, String[] values) {
+        Arrays.fill(values, 0, fieldCount, "");
+
+        for (Object o : tuple.getFields().entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            int[] positions = fieldColumns.get(entry.getKey());
+            if (positions != null && entry.getValue() != null) {
+                String value = format(entry.getValue());
+                for (int position : positions) {
+                    values[position] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write "true" or "false" into each assertion column of values.
+     *
+     * @param tuple
+     * @param values
+     */
+    public void projectAssertions(Tuple tuple, String[] values) {
+        if (qaCount == 0) {
+            return;
+        }
+
+        Arrays.fill(values, qaOffset, qaOffset + qaCount, FALSE);
+
+        Object assertions = tuple.get(OccurrenceIndex.ASSERTIONS);
+        if (assertions instanceof Collection) {
+            for (Object assertion : (Collection) assertions) {
+                setAssertion(assertion, values);
+            }
+        } else if (assertions != null) {
+            setAssertion(assertions, values);
+        }
+    }
+
+    private void setAssertion(Object assertion, String[] values) {
+        int[] positions = qaColumns.get(assertion.toString());
+        if (positions != null) {
+            for (int position : positions) {
+                values[qaOffset + position] = TRUE;
+            }
+        }
+    }
+
+    private String format(Object obj) {
+        if (!(obj instanceof Collection)) {
+            return SearchUtils.formatValue(obj);
+        }
+
+        Iterator it = ((Collection) obj).iterator();
+        if (!it.hasNext()) {
+            return "";
+        }
+
+        String first = SearchUtils.formatValue(it.next());
+        if (!includeMultivalues || !it.hasNext()) {
+            return first;
+        }
+
+        joiner.setLength(0);
+        joiner.append(first);
+        while (it.hasNext()) {
+            joiner.append(MULTIVALUE_SEPARATOR).append(SearchUtils.formatValue(it.next()));
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,281 @@
+package au.org.ala.biocache.stream;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.org.ala.biocache.service.LayersService;
+import au.org.ala.biocache.util.RecordWriter;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.io.Tuple;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Intersects download rows with remote analysis layers without stopping the SOLR stream.
+ * <p>
+ * Rows are collected into batches. When a batch is full it is sampled with {@link LayersService#sample} on a
+ * thread of the shared sample executor while the next batch is collected. At most one batch is sampled at a time, so rows are written
+ * in order and at most two batches are held in memory.
+ * <p>
+ * Sampled values are cached by coordinate, rounded to {@link #COORDINATE_PRECISION}, so repeated coordinates
+ * within a download are only sampled once.
+ * <p>
+ * Not thread safe. Each ProcessDownload has its own pipeline.
+ */
+public class LayerIntersectionPipeline {
+
+    protected static final Logger logger = Logger.getLogger(LayerIntersectionPipeline.class);
+
+    /**
+     * Coordinates are rounded to this many degrees for the sample cache. This is finer than the resolution of the
+     * gridded analysis layers.
+     */
+    public static final double COORDINATE_PRECISION = 0.00001;
+
+    /**
+     * Maximum number of coordinates in the sample cache.
+     */
+    public static final int CACHE_SIZE = 10000;
+
+    private final LayersService layersService;
+    private final ExecutorService sampleExecutor;
+    private final String[] analysisIds;
+    private final int offset;
+    private final int batchSize;
+    private final RecordWriter recordWriter;
+
+    private final Map<String, String[]> cache = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private Batch current;
+    private Batch sampling;
+    private Future<?> pending;
+
+    /**
+     * @param layersService  service used to sample the analysis layers
+     * @param analysisIds    the analysis layers to sample
+     * @param offset         the column of the first analysis layer value in each row
+     * @param batchSize      the number of rows in each sample request
+     * @param recordWriter   destination for the intersected rows
+     * @param sampleExecutor executor, shared by downloads, that samples the batches
+     */
+    public LayerIntersectionPipeline(LayersService layersService, String[] analysisIds, int offset, int batchSize,
+                                     RecordWriter recordWriter, ExecutorService sampleExecutor) {
+        this.layersService = layersService;
+        this.sampleExecutor = sampleExecutor;
+        this.analysisIds = analysisIds;
+        this.offset = offset;
+        this.batchSize = batchSize;
+        this.recordWriter = recordWriter;
+        this.current = new Batch(batchSize);
+        this.sampling = new Batch(batchSize);
+    }
+
+    /**
+     * Add a row to the current batch. The row is copied so values can be reused by the caller.
+     *
+     * @param values the row
+     * @param tuple  the tuple of the row, for the coordinates
+     */
+    public void add(String[] values, Tuple tuple) {
+        // clear analysis layer columns left over from a previous row
+        Arrays.fill(values, offset, offset + analysisIds.length, "");
+
+        current.add(values, tuple);
+
+        if (current.size >= batchSize) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Sample any remaining rows and write all rows.
+     */
+    public void flush() {
+        if (current.size > 0) {
+            dispatch();
+        }
+        await();
+    }
+
+    /**
+     * Start sampling the current batch after the previous batch has been written.
+     */
+    private void dispatch() {
+        await();
+
+        Batch batch = current;
+        current = sampling;
+        sampling = batch;
+
+        pending = sampleExecutor.submit(() -> intersect(batch));
+    }
+
+    /**
+     * Wait for the batch being sampled and write it.
+     *
+     * @throws RuntimeException when interrupted. The sampling is cancelled and, as it may still be writing to the
+     *                          batch, the batch is not written.
+     */
+    private void await() {
+        if (pending == null) {
+            return;
+        }
+
+        try {
+            pending.get();
+        } catch (InterruptedException | CancellationException e) {
+            pending.cancel(true);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RuntimeException("Interrupted while intersecting analysis layers", e);
+        } catch (ExecutionException e) {
+            logger.error("Failed to intersect analysis layers", e.getCause());
+        }
+        pending = null;
+
+        // rows are written without analysis layer values when sampling failed
+        for (int i = 0; i < sampling.size; i++) {
+            recordWriter.write(sampling.rows[i]);
+        }
+        sampling.clear();
+    }
+
+    private void intersect(Batch batch) {
+        // rows of the batch for each coordinate that is not cached, in request order
+        Map<String, List<Integer>> uncached = new LinkedHashMap<>();
+        List<double[]> points = new ArrayList<>();
+
+        for (int i = 0; i < batch.size; i++) {
+            if (batch.keys[i] == null) {
+                continue;
+            }
+            String[] sampled = cache.get(batch.keys[i]);
+            if (sampled != null) {
+                System.arraycopy(sampled, 0, batch.rows[i], offset, sampled.length);
+            } else {
+                List<Integer> rows = uncached.get(batch.keys[i]);
+                if (rows == null) {
+                    rows = new ArrayList<>(1);
+                    uncached.put(batch.keys[i], rows);
+                    points.add(batch.points[i]);
+                }
+                rows.add(i);
+            }
+        }
+
+        if (points.isEmpty()) {
+            return;
+        }
+
+        Reader reader = layersService.sample(analysisIds, points.toArray(new double[0][]), null);
+        if (reader == null) {
+            return;
+        }
+
+        // read the sampling one row at a time, in the order of the requested points
+        CSVReader csv = new CSVReader(reader);
+        try {
+            // skip the header row
+            csv.readNext();
+
+            for (Map.Entry<String, List<Integer>> entry : uncached.entrySet()) {
+                String[] line = csv.readNext();
+                if (line == null) {
+                    break;
+                }
+                //+2 offset for latitude,longitude columns in sampling array
+                if (line.length == analysisIds.length + 2) {
+                    String[] sampled = Arrays.copyOfRange(line, 2, line.length);
+                    cache.put(entry.getKey(), sampled);
+                    for (int row : entry.getValue()) {
+                        System.arraycopy(sampled, 0, batch.rows[row], offset, sampled.length);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read analysis layer intersection", e);
+        } finally {
+            try {
+                csv.close();
+            } catch (IOException e) {
+                logger.error("Failed to close analysis layer intersection", e);
+            }
+        }
+    }
+
+    /**
+     * @return the cache key of the coordinate, or null when the tuple does not have a valid coordinate
+     */
+    static String coordinateKey(double lon, double lat) {
+        if (Double.isNaN(lon) || Double.isNaN(lat)) {
+            return null;
+        }
+        return Math.round(lon / COORDINATE_PRECISION) + "," + Math.round(lat / COORDINATE_PRECISION);
+    }
+
+    /**
+     * A batch of rows with reusable row arrays.
+     */
+    private static class Batch {
+        final String[][] rows;
+        final double[][] points;
+        final String[] keys;
+        int size = 0;
+
+        Batch(int batchSize) {
+            rows = new String[batchSize][];
+            points = new double[batchSize][2];
+            keys = new String[batchSize];
+        }
+
+        void add(String[] values, Tuple tuple) {
+            String[] row = rows[size];
+            if (row == null || row.length != values.length) {
+                row = rows[size] = new String[values.length];
+            }
+            System.arraycopy(values, 0, row, 0, values.length);
+
+            recordCoordinates(tuple, points[size]);
+            keys[size] = coordinateKey(points[size][0], points[size][1]);
+
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private static void recordCoordinates(Tuple tuple, double[] point) {
+            try {
+                Object lon = null;
+                Object lat = null;
+                if ((lon = tuple.get("sensitive_decimalLongitude")) == null || (lat = tuple.get("sensitive_decimalLatitude")) == null) {
+                    lon = tuple.get("decimalLongitude");
+                    lat = tuple.get("decimalLatitude");
+                }
+                if (lon == null || lat == null) {
+                    // set as invalid
+                    point[0] = Double.NaN;
+                    point[1] = Double.NaN;
+                } else {
+                    point[0] = ((Number) lon).doubleValue();
+                    point[1] = ((Number) lat).doubleValue();
+                }
+            } catch (Exception e) {
+                // set the coordinates of the point to something that is invalid
+                point[0] = Double.NaN;
+                point[1] = Double.NaN;
+            }
+        }
+    }
+}
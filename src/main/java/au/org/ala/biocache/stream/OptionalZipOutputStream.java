@@ -5,10 +5,14 @@ import au.org.ala.biocache.writer.RecordWriterError;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
 import java.util.zip.ZipOutputStream;
 
 /**
  * An OutputStream that will write ZipOutputStream entries or file name separated unzipped output.
+ * <p>
+ * Zipped output can be deflated in parallel with a ParallelZipOutputStream, and the compression level can be set.
  */
 public class OptionalZipOutputStream extends OutputStream {
 
@@ -21,6 +25,7 @@ public class OptionalZipOutputStream extends OutputStream {
     private Type type;
     private OutputStream out;
     private ZipOutputStream zop;
+    private ParallelZipOutputStream pzop;
     private String currentEntry;
     private long currentEntryLength;
     private int splitCount;
@@ -32,7 +37,7 @@ public class OptionalZipOutputStream extends OutputStream {
      * Keeps track of the length of written records so a flush is not required.
      *
      * @param writer
-     * @param length number of characters written
+     * @param length number of bytes written
      * @return
      * @throws IOException
      */
@@ -48,7 +53,7 @@ public class OptionalZipOutputStream extends OutputStream {
 
                 splitCount++;
                 String[] parts = currentEntry.split("\\.(?=[^\\.]+$)");
-                zop.putNextEntry(new java.util.zip.ZipEntry(parts[0] + "_part" + splitCount + "." + parts[1]));
+                putZipEntry(parts[0] + "_part" + splitCount + "." + parts[1]);
                 isNewFile = true;
             }
         }
@@ -56,22 +61,53 @@ public class OptionalZipOutputStream extends OutputStream {
     }
 
     public OptionalZipOutputStream(Type type, OutputStream out, Integer maxZipFileMB) {
+        this(type, out, maxZipFileMB, Deflater.DEFAULT_COMPRESSION, null, 1);
+    }
+
+    /**
+     * @param type
+     * @param out
+     * @param maxZipFileMB     max size of a zip entry before it is split into _partN entries
+     * @param level            Deflater compression level, 0 (no compression) to 9 or -1 for the default
+     * @param deflateExecutor  executor for parallel deflate, or null
+     * @param deflateThreads   number of deflateExecutor threads available. Entries are deflated on the
+     *                         writing thread when this is less than 2.
+     */
+    public OptionalZipOutputStream(Type type, OutputStream out, Integer maxZipFileMB, int level,
+                                   ExecutorService deflateExecutor, int deflateThreads) {
         this.type = type;
         this.out = out;
         this.maxMB = maxZipFileMB;
 
         if (type == Type.zipped) {
-            zop = new ZipOutputStream(out);
+            if (deflateExecutor != null && deflateThreads > 1) {
+                pzop = new ParallelZipOutputStream(out, level, deflateExecutor, deflateThreads);
+            } else {
+                zop = new ZipOutputStream(out);
+                zop.setLevel(level);
+            }
+        }
+    }
+
+    private void putZipEntry(String name) throws IOException {
+        if (pzop != null) {
+            pzop.putNextEntry(name);
+        } else {
+            zop.putNextEntry(new java.util.zip.ZipEntry(name));
         }
     }
 
+    private OutputStream zipStream() {
+        return pzop != null ? pzop : zop;
+    }
+
     public void putNextEntry(String name) throws IOException {
         currentEntry = name;
         currentEntryLength = 0;
         splitCount = 1;
 
         if (type == Type.zipped) {
-            zop.putNextEntry(new java.util.zip.ZipEntry(name));
+            putZipEntry(name);
         } else {
             out.write(UNZIPPED_ENTRY_SEPARATOR.getBytes(StandardCharsets.UTF_8));
             out.write((name + "\n").getBytes(StandardCharsets.UTF_8));
@@ -79,7 +115,9 @@ public class OptionalZipOutputStream extends OutputStream {
     }
 
     public void closeEntry() throws IOException {
-        if (type == Type.zipped) {
+        if (pzop != null) {
+            pzop.closeEntry();
+        } else if (zop != null) {
             zop.closeEntry();
         } else {
             out.write("\n".getBytes(StandardCharsets.UTF_8));
@@ -89,7 +127,7 @@ public class OptionalZipOutputStream extends OutputStream {
     @Override
     public void write(int b) throws IOException {
         if (type == Type.zipped) {
-            zop.write(b);
+            zipStream().write(b);
         } else {
             out.write(b);
         }
@@ -98,16 +136,25 @@ public class OptionalZipOutputStream extends OutputStream {
     @Override
     public void write(byte [] b) throws IOException {
         if (type == Type.zipped) {
-            zop.write(b);
+            zipStream().write(b);
         } else {
             out.write(b);
         }
     }
 
+    @Override
+    public void write(byte [] b, int off, int len) throws IOException {
+        if (type == Type.zipped) {
+            zipStream().write(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (type == Type.zipped) {
-            zop.close();
+            zipStream().close();
         } else {
             out.close();
         }
@@ -116,7 +163,7 @@ public class OptionalZipOutputStream extends OutputStream {
     @Override
     public void flush() throws IOException {
         if (type == Type.zipped) {
-            zop.flush();
+            zipStream().flush();
         } else {
             out.flush();
         }
@@ -0,0 +1,396 @@
+package au.org.ala.biocache.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zip output stream that deflates blocks of an entry in parallel, in the same way as pigz.
+ * <p>
+ * Each block is deflated independently with the last 32KB of the previous block as the dictionary and ends with a
+ * sync flush so the compressed blocks join into a single deflate stream. The output is a standard zip with data
+ * descriptors and ZIP64 records when sizes or offsets exceed 4GB, the same as java.util.zip.ZipOutputStream.
+ * <p>
+ * The number of blocks waiting to be written is bounded so memory use is about 2 x threads x block size.
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 128 * 1024;
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final CountingOutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int maxPending;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private Entry current;
+    private final CRC32 crc = new CRC32();
+    private byte[] block;
+    private int blockLength;
+    private byte[] previousBlock;
+    private boolean closed;
+
+    /**
+     * @param out      output stream
+     * @param level    Deflater compression level, 0 to 9 or -1 for the default
+     * @param executor executor for deflating blocks
+     * @param threads  number of executor threads available to this stream
+     */
+    public ParallelZipOutputStream(OutputStream out, int level, ExecutorService executor, int threads) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 65536));
+        this.level = level;
+        this.executor = executor;
+        this.maxPending = Math.max(2, threads * 2);
+    }
+
+    public void putNextEntry(String name) throws IOException {
+        if (current != null) {
+            closeEntry();
+        }
+
+        current = new Entry(name, out.count, dosTime(System.currentTimeMillis()));
+        crc.reset();
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        previousBlock = null;
+
+        writeLocalHeader(current);
+    }
+
+    public void closeEntry() throws IOException {
+        if (current == null) {
+            return;
+        }
+
+        // the last block, which may be empty, finishes the deflate stream
+        submit(true);
+        while (!pending.isEmpty()) {
+            writeNextBlock();
+        }
+
+        current.crc = crc.getValue();
+        current.compressedSize = out.count - current.dataOffset;
+        writeDataDescriptor(current);
+
+        entries.add(current);
+        current = null;
+        block = null;
+        previousBlock = null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (current == null) {
+            throw new IOException("no current zip entry");
+        }
+
+        crc.update(b, off, len);
+        current.size += len;
+
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+
+            if (blockLength == BLOCK_SIZE) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Completed blocks are written, blocks that are still being deflated are not.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            closeEntry();
+            writeCentralDirectory();
+            out.flush();
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        final byte[] data = block;
+        final int length = blockLength;
+        final byte[] dictionary = previousBlock;
+        final int compressionLevel = level;
+
+        while (pending.size() >= maxPending) {
+            writeNextBlock();
+        }
+        pending.add(executor.submit(() -> deflate(data, length, dictionary, compressionLevel, last)));
+
+        previousBlock = data;
+        block = last ? null : new byte[BLOCK_SIZE];
+        blockLength = 0;
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for a deflated block");
+        } catch (ExecutionException e) {
+            throw new IOException("failed to deflate block", e.getCause());
+        }
+    }
+
+    /**
+     * Deflate a block to raw deflate data that can be joined to the deflated previous block.
+     */
+    static byte[] deflate(byte[] data, int length, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            }
+            deflater.setInput(data, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                // sync flush until the deflater does not fill the buffer, ending on a byte boundary
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(Entry e) throws IOException {
+        writeInt(0x04034b50L);
+        writeShort(20);         // version needed to extract
+        writeShort(e.flags());
+        writeShort(Deflater.DEFLATED);
+        writeInt(e.dosTime);
+        writeInt(0);            // crc, compressed size and size are in the data descriptor
+        writeInt(0);
+        writeInt(0);
+        writeShort(e.name.length);
+        writeShort(0);
+        out.write(e.name);
+        e.dataOffset = out.count;
+    }
+
+    private void writeDataDescriptor(Entry e) throws IOException {
+        writeInt(0x08074b50L);
+        writeInt(e.crc);
+        if (e.compressedSize >= ZIP64_MAGIC || e.size >= ZIP64_MAGIC) {
+            writeLong(e.compressedSize);
+            writeLong(e.size);
+        } else {
+            writeInt(e.compressedSize);
+            writeInt(e.size);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long offset = out.count;
+        for (Entry e : entries) {
+            boolean zip64Size = e.compressedSize >= ZIP64_MAGIC || e.size >= ZIP64_MAGIC;
+            boolean zip64Offset = e.offset >= ZIP64_MAGIC;
+            int extraLength = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+
+            writeInt(0x02014b50L);
+            writeShort(extraLength > 0 ? 45 : 20);  // version made by
+            writeShort(extraLength > 0 ? 45 : 20);  // version needed to extract
+            writeShort(e.flags());
+            writeShort(Deflater.DEFLATED);
+            writeInt(e.dosTime);
+            writeInt(e.crc);
+            writeInt(zip64Size ? ZIP64_MAGIC : e.compressedSize);
+            writeInt(zip64Size ? ZIP64_MAGIC : e.size);
+            writeShort(e.name.length);
+            writeShort(extraLength > 0 ? extraLength + 4 : 0);
+            writeShort(0);          // comment length
+            writeShort(0);          // disk number
+            writeShort(0);          // internal attributes
+            writeInt(0);            // external attributes
+            writeInt(zip64Offset ? ZIP64_MAGIC : e.offset);
+            out.write(e.name);
+            if (extraLength > 0) {
+                writeShort(0x0001);
+                writeShort(extraLength);
+                if (zip64Size) {
+                    writeLong(e.size);
+                    writeLong(e.compressedSize);
+                }
+                if (zip64Offset) {
+                    writeLong(e.offset);
+                }
+            }
+        }
+        long length = out.count - offset;
+
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || length >= ZIP64_MAGIC || offset >= ZIP64_MAGIC) {
+            long zip64Offset = out.count;
+
+            // zip64 end of central directory record
+            writeInt(0x06064b50L);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(length);
+            writeLong(offset);
+
+            // zip64 end of central directory locator
+            writeInt(0x07064b50L);
+            writeInt(0);
+            writeLong(zip64Offset);
+            writeInt(1);
+        }
+
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(length, ZIP64_MAGIC));
+        writeInt(Math.min(offset, ZIP64_MAGIC));
+        writeShort(0);
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xffff));
+        writeShort((int) ((v >>> 16) & 0xffff));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xffffffffL);
+        writeInt(v >>> 32);
+    }
+
+    private static long dosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final long offset;
+        final long dosTime;
+        long dataOffset;
+        long crc;
+        long size;
+        long compressedSize;
+
+        Entry(String name, long offset, long dosTime) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.offset = offset;
+            this.dosTime = dosTime;
+        }
+
+        /**
+         * data descriptor and UTF-8 name flags
+         */
+        int flags() {
+            return 0x0008 | 0x0800;
+        }
+    }
+
+    /**
+     * Counts the bytes written for entry offsets and sizes.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package au.org.ala.biocache.stream;
 
-import au.com.bytecode.opencsv.CSVReader;
 import au.org.ala.biocache.dao.SearchDAOImpl;
 import au.org.ala.biocache.dto.DownloadDetailsDTO;
 import au.org.ala.biocache.dto.DownloadHeaders;
@@ -10,19 +9,17 @@ import au.org.ala.biocache.service.LayersService;
 import au.org.ala.biocache.service.ListsService;
 import au.org.ala.biocache.util.RecordWriter;
 import au.org.ala.biocache.util.SearchUtils;
+import au.org.ala.biocache.util.thread.DownloadListener;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.io.Tuple;
 
-import java.io.IOException;
-import java.io.Reader;
 import java.util.*;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static au.org.ala.biocache.dto.OccurrenceIndex.*;
 
@@ -48,18 +45,26 @@ public class ProcessDownload implements ProcessInterface {
     boolean includeMisc;
 
     // remote analysis layer intersections require batching for performance reasons
-    List<String[]> batch = new ArrayList();
-    double[][] points = new double[MAX_BATCH_SIZE][2];
+    LayerIntersectionPipeline intersection;
+
+    DownloadRowProjection projection;
+
+    // species list KVP data and kvp value index for each species list column
+    List<Kvp>[] speciesListKvps;
+    int[] speciesListFieldIdx;
 
     String[] values = new String[0];
 
     long startTime = 0;
 
+    volatile boolean cancelled = false;
+
     public ProcessDownload(ConcurrentMap<String, AtomicInteger> uidStats, DownloadHeaders headers,
                            RecordWriter recordWriter, DownloadDetailsDTO downloadDetails, boolean checkLimit,
                            long maxDownloadSize,
                            ListsService listsService,
-                           LayersService layersService) {
+                           LayersService layersService,
+                           ExecutorService layersSampleExecutor) {
         this.uidStats = uidStats;
         this.headers = headers;
         this.recordWriter = recordWriter;
@@ -77,6 +82,30 @@ public class ProcessDownload implements ProcessInterface {
                 !downloadDetails.getRequestParams().getIncludeMultivalues();
         this.includeMisc = downloadDetails != null && downloadDetails.getRequestParams() != null &&
                 downloadDetails.getRequestParams().getIncludeMisc();
+
+        this.projection = new DownloadRowProjection(headers, includeMultivalues);
+
+        if (headers.speciesListIds.length > 0) {
+            initSpeciesListColumns();
+        }
+
+        String layersServiceUrl = downloadDetails.getRequestParams() != null ? downloadDetails.getRequestParams().getLayersServiceUrl() : null;
+        if (headers.analysisIds.length > 0 && StringUtils.isNotEmpty(layersServiceUrl)) {
+            this.intersection = new LayerIntersectionPipeline(layersService, headers.analysisIds, headers.labels.length,
+                    MAX_BATCH_SIZE, recordWriter, layersSampleExecutor);
+        }
+    }
+
+    /**
+     * Stop processing. The tuple stream is closed before the next tuple is read.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public boolean cancelled() {
+        return cancelled || (downloadDetails != null && downloadDetails.getInterrupt().get());
     }
 
     /**
@@ -85,13 +114,10 @@ public class ProcessDownload implements ProcessInterface {
      * @return
      */
     public boolean flush() {
-        // do analysis layer intersections before writing the batch
-        intersectAnalysisLayers();
-
-        downloadDetails.updateCounts(batch.size());
-
-        batch.forEach(row -> recordWriter.write(row));
-        batch.clear();
+        // finish analysis layer intersections and write the remaining rows
+        if (intersection != null) {
+            intersection.flush();
+        }
 
         return true;
     }
@@ -124,14 +150,21 @@ public class ProcessDownload implements ProcessInterface {
                 values = new String[numColumns];
             }
 
-            if (count % 10000 == 0) {
+            if (count % DownloadListener.PROGRESS_INTERVAL == 0) {
                 if (count > 0) {
-                    logger.info("Download: " + (10000 * 1000 / (System.currentTimeMillis() - startTime)) + " records/s, " + numColumns + " columns");
+                    logger.info("Download: " + (DownloadListener.PROGRESS_INTERVAL * 1000L / Math.max(1, System.currentTimeMillis() - startTime)) + " records/s, " + numColumns + " columns");
+                    for (DownloadListener listener : downloadDetails.getListeners()) {
+                        listener.progress(downloadDetails, count);
+                    }
+                } else {
+                    for (DownloadListener listener : downloadDetails.getListeners()) {
+                        listener.firstRecord(downloadDetails);
+                    }
                 }
                 startTime = System.currentTimeMillis();
             }
 
-            appendColumns(tuple, values);
+            projection.projectFields(tuple, values);
 
             // add species list info after field label and analysisId columns
             if (headers.speciesListIds.length > 0) {
@@ -140,7 +173,7 @@ public class ProcessDownload implements ProcessInterface {
 
             // add the assertions in separate columns
             if (headers.qaLabels.length > 0) {
-                appendQaColumns(tuple, values, headers.labels.length + headers.analysisIds.length + headers.speciesListIds.length);
+                projection.projectAssertions(tuple, values);
             }
 
             // Append previous and new non-empty misc fields.
@@ -154,14 +187,9 @@ public class ProcessDownload implements ProcessInterface {
             SearchDAOImpl.incrementCount(uidStats, tuple.get(DATA_PROVIDER_UID));
             SearchDAOImpl.incrementCount(uidStats, tuple.get(DATA_RESOURCE_UID));
 
-            if (headers.analysisIds.length > 0) {
-                // record longitude and latitude for remote analysis layer intersections
-                recordCoordinates(tuple);
-                batch.add(Arrays.copyOf(values, values.length));
-
-                if (batch.size() > MAX_BATCH_SIZE) {
-                    flush();
-                }
+            if (intersection != null) {
+                // rows are written after the remote analysis layer intersection of their batch
+                intersection.add(values, tuple);
             } else {
                 // batching is not required where there are no analysis layers
                 recordWriter.write(values);
@@ -174,43 +202,6 @@ public class ProcessDownload implements ProcessInterface {
         return finished;
     }
 
-    private void appendQaColumns(Tuple tuple, String[] values, int offset) {
-        java.util.Collection<String> assertions = tuple.getStrings("assertions");
-
-        //Handle the case where there a no assertions against a record
-        if (assertions == null) {
-            assertions = Collections.EMPTY_LIST;
-        }
-
-        for (int k = 0; k < headers.qaIds.length; k++) {
-            values[offset + k] = Boolean.toString(assertions.contains(headers.qaIds[k]));
-        }
-    }
-
-    private void appendColumns(Tuple tuple, String[] values) {
-        // get all the fields requested of SOLR, excluding post-process fields.
-        // post-process fields requested are headers.included[pos] where pos >= headers.labels.length
-        for (int j = 0; j < headers.labels.length; j++) {
-            Object obj = tuple.get(headers.included[j]);
-
-            if (obj == null) {
-                values[j] = "";
-            } else if (obj instanceof Collection) {
-
-                Stream objStream = ((Collection) obj).stream();
-
-                if (!includeMultivalues) {
-                    objStream = objStream.limit(1);
-                }
-
-                values[j] = (String) objStream.map(SearchUtils::formatValue).collect(Collectors.joining(" | "));
-
-            } else {
-                values[j] = SearchUtils.formatValue(obj);
-            }
-        }
-    }
-
     private void appendSpeciesListColumns(Tuple tuple, String[] values, int offset) {
         String lftString = String.valueOf(tuple.getString("lft"));
         String rgtString = String.valueOf(tuple.getString("rgt"));
@@ -219,82 +210,37 @@ public class ProcessDownload implements ProcessInterface {
             long rgt = Long.parseLong(rgtString);
             Kvp lftrgt = new Kvp(lft, rgt);
 
-            String drDot = ".";
-            String dr = "";
-            int fieldIdx = 0;
             for (int i = 0; i < headers.speciesListIds.length; i++) {
-                if (headers.speciesListIds[i].startsWith(drDot)) {
-                    fieldIdx++;
-                } else {
-                    dr = headers.speciesListIds[i].split("\\.", 2)[0];
-                    drDot = dr + ".";
-                    fieldIdx = 0;
-                }
-
-                values[offset + i] = listsService.getKvpValue(fieldIdx, listsService.getKvp(dr), lftrgt);
+                values[offset + i] = listsService.getKvpValue(speciesListFieldIdx[i], speciesListKvps[i], lftrgt);
             }
         }
     }
 
-    private void intersectAnalysisLayers() {
-        String layersServiceUrl = downloadDetails.getRequestParams().getLayersServiceUrl();
-
-        if (batch.size() > 0 && StringUtils.isNotEmpty(layersServiceUrl) && headers.analysisIds.length > 0) {
-            List<String[]> intersection = new ArrayList<String[]>();
-            try {
-                // only do intersection where there is at least one valid coordinate
-                int i = 0;
-                for (i = 0; i < batch.size(); i++) {
-                    if (points[i][0] != Integer.MIN_VALUE) {
-                        break;
-                    }
-                }
-                if (i < batch.size()) {
-                    Reader reader = layersService.sample(headers.analysisIds, points, null);
-
-                    CSVReader csv = new CSVReader(reader);
-                    intersection = csv.readAll();
-                    csv.close();
-
-                    for (int j = 0; j < batch.size(); j++) {
-                        if (j > batch.size()) {
-                            //+1 offset for header row in intersection list
-                            String[] sampling = intersection.get(j + 1);
-                            //+2 offset for latitude,longitude columns in sampling array
-                            if (sampling != null && sampling.length == headers.analysisIds.length + 2) {
-                                // suitable space is already available in each batch row String[]
-                                System.arraycopy(sampling, 2, batch.get(j), headers.labels.length, sampling.length - 2);
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                logger.error("Failed to intersect analysis layers", e);
-            }
-        }
-    }
-
-    private void recordCoordinates(Tuple tuple) {
-        try {
-            Object lon = null;
-            Object lat = null;
-            if ((lon = tuple.get("sensitive_decimalLongitude")) == null || (lat = tuple.get("sensitive_decimalLatitude")) == null) {
-                lon = tuple.get("decimalLongitude");
-                lat = tuple.get("decimalLatitude");
-            }
-            if (lon == null || lat == null) {
-                // set as invalid longitude
-                points[batch.size()][0] = Integer.MIN_VALUE;
-                points[batch.size()][1] = Integer.MIN_VALUE;
+    /**
+     * Resolve the species list and kvp value index of each species list column once for the download.
+     */
+    private void initSpeciesListColumns() {
+        List<Kvp>[] kvps = new List[headers.speciesListIds.length];
+        int[] fieldIdxs = new int[headers.speciesListIds.length];
+
+        String drDot = ".";
+        List<Kvp> drKvps = null;
+        int fieldIdx = 0;
+        for (int i = 0; i < headers.speciesListIds.length; i++) {
+            if (headers.speciesListIds[i].startsWith(drDot)) {
+                fieldIdx++;
             } else {
-                points[batch.size()][0] = (Double) lon;
-                points[batch.size()][1] = (Double) lat;
+                String dr = headers.speciesListIds[i].split("\\.", 2)[0];
+                drDot = dr + ".";
+                drKvps = listsService.getKvp(dr);
+                fieldIdx = 0;
             }
-        } catch (Exception e) {
-            // set the coordinates of the point to something that is invalid
-            points[batch.size()][0] = Integer.MIN_VALUE;
-            points[batch.size()][1] = Integer.MIN_VALUE;
+            kvps[i] = drKvps;
+            fieldIdxs[i] = fieldIdx;
         }
+
+        speciesListFieldIdx = fieldIdxs;
+        speciesListKvps = kvps;
     }
 
     /**
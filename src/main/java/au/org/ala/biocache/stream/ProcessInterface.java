@@ -6,4 +6,13 @@ public interface ProcessInterface {
     boolean process(Tuple t);
 
     boolean flush();
+
+    /**
+     * Checked before each tuple is read. Returning true stops reading and closes the tuple stream.
+     *
+     * @return true when processing has been cancelled
+     */
+    default boolean cancelled() {
+        return false;
+    }
 }
\ No newline at end of file
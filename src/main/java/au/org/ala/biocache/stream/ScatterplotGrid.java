@@ -0,0 +1,202 @@
+package au.org.ala.biocache.stream;
+
+import org.apache.solr.client.solrj.io.Tuple;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the tuples of a two field facet stream into a fixed resolution grid of occurrence counts.
+ * <p>
+ * The grid is sized to the output image so that memory does not depend on the number of distinct value pairs. The
+ * distinct pairs are also kept, up to maxPoints, so that small results can be drawn as exact points.
+ */
+public class ScatterplotGrid implements ProcessInterface {
+
+    private static final String COUNT = "count(*)";
+    private static final int INITIAL_POINTS = 1024;
+
+    final String x;
+    final String y;
+    final double minX;
+    final double minY;
+    final double cellWidth;
+    final double cellHeight;
+    final int width;
+    final int height;
+    final int maxPoints;
+
+    /**
+     * occurrence count of each cell, row by row from minY
+     */
+    final long[] counts;
+
+    double[] pointsX;
+    double[] pointsY;
+    int pointCount = 0;
+    boolean pointsOverflow = false;
+
+    long count = 0;
+
+    /**
+     * @param x         x field
+     * @param y         y field
+     * @param bounds    minX, minY, maxX, maxY
+     * @param width     number of columns
+     * @param height    number of rows
+     * @param maxPoints max number of distinct pairs to keep as exact points
+     */
+    public ScatterplotGrid(String x, String y, double[] bounds, int width, int height, int maxPoints) {
+        this.x = x;
+        this.y = y;
+        this.width = Math.max(1, width);
+        this.height = Math.max(1, height);
+        this.maxPoints = Math.max(0, maxPoints);
+        this.counts = new long[this.width * this.height];
+
+        // the range of a single value is 1, around the value
+        double rangeX = bounds[2] - bounds[0];
+        double rangeY = bounds[3] - bounds[1];
+        this.cellWidth = rangeX > 0 ? rangeX / this.width : 1.0 / this.width;
+        this.cellHeight = rangeY > 0 ? rangeY / this.height : 1.0 / this.height;
+        this.minX = rangeX > 0 ? bounds[0] : bounds[0] - 0.5;
+        this.minY = rangeY > 0 ? bounds[1] : bounds[1] - 0.5;
+
+        int initialPoints = Math.min(INITIAL_POINTS, this.maxPoints);
+        this.pointsX = new double[initialPoints];
+        this.pointsY = new double[initialPoints];
+    }
+
+    public boolean process(Tuple tuple) {
+        if (tuple != null && tuple.fields != null && tuple.fields.size() >= 2) {
+            Double a;
+            Double b;
+            try {
+                a = tuple.getDouble(x);
+                b = tuple.getDouble(y);
+            } catch (Exception e) {
+                return true;
+            }
+            if (a == null || b == null || a.isNaN() || b.isNaN()) {
+                return true;
+            }
+
+            Long c = tuple.getLong(COUNT);
+            long n = c == null ? 1 : c;
+
+            counts[row(b) * width + column(a)] += n;
+            count += n;
+
+            addPoint(a, b);
+        }
+
+        return true;
+    }
+
+    public boolean flush() {
+        return true;
+    }
+
+    private void addPoint(double a, double b) {
+        if (pointsOverflow) {
+            return;
+        }
+        if (pointCount == maxPoints) {
+            // too many for exact points, only the grid is kept
+            pointsOverflow = true;
+            pointsX = null;
+            pointsY = null;
+            return;
+        }
+        if (pointCount == pointsX.length) {
+            int size = Math.min(maxPoints, pointsX.length * 2);
+            pointsX = Arrays.copyOf(pointsX, size);
+            pointsY = Arrays.copyOf(pointsY, size);
+        }
+        pointsX[pointCount] = a;
+        pointsY[pointCount] = b;
+        pointCount++;
+    }
+
+    /**
+     * Values outside of the bounds, e.g. from records indexed after the bounds were found, are put in the edge cells.
+     */
+    int column(double value) {
+        int i = (int) ((value - minX) / cellWidth);
+        return Math.max(0, Math.min(width - 1, i));
+    }
+
+    int row(double value) {
+        int i = (int) ((value - minY) / cellHeight);
+        return Math.max(0, Math.min(height - 1, i));
+    }
+
+    /**
+     * @return number of occurrences
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return true when all distinct pairs were kept as exact points
+     */
+    public boolean hasPoints() {
+        return !pointsOverflow;
+    }
+
+    /**
+     * @return the distinct pairs as {x values, y values}, or null when there were more than maxPoints
+     */
+    public double[][] getPoints() {
+        if (pointsOverflow) {
+            return null;
+        }
+        return new double[][]{Arrays.copyOf(pointsX, pointCount), Arrays.copyOf(pointsY, pointCount)};
+    }
+
+    /**
+     * @return the cells with occurrences as {x centres, y centres, occurrence counts}
+     */
+    public double[][] getCells() {
+        int n = 0;
+        for (long c : counts) {
+            if (c > 0) {
+                n++;
+            }
+        }
+
+        double[][] cells = new double[3][n];
+        int i = 0;
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                long c = counts[row * width + column];
+                if (c > 0) {
+                    cells[0][i] = minX + (column + 0.5) * cellWidth;
+                    cells[1][i] = minY + (row + 0.5) * cellHeight;
+                    cells[2][i] = c;
+                    i++;
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return largest occurrence count of a cell
+     */
+    public long getMaxCellCount() {
+        long max = 0;
+        for (long c : counts) {
+            max = Math.max(max, c);
+        }
+        return max;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+}
@@ -0,0 +1,220 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.client.solrj.beans.Field;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.apache.solr.common.SolrDocument;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Writes the tuples of a search stream to a JSON array as occurrences, a batch at a time, so that large pages are not
+ * held in memory.
+ * <p>
+ * Tuple values are read from the SOLR JSON response, e.g. dates are strings and integers are longs. They are
+ * converted to the types of the annotated result class fields before binding so that the occurrences are the same as
+ * those from a SOLR search response.
+ */
+public class StreamAsJSON implements ProcessInterface {
+
+    private final static Logger logger = Logger.getLogger(StreamAsJSON.class);
+
+    /**
+     * number of occurrences updated together before they are written
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private static final Map<Class<?>, Map<String, Type>> fieldTypesByClass = new ConcurrentHashMap<>();
+
+    private final DocumentObjectBinder binder = new DocumentObjectBinder();
+
+    JsonGenerator json;
+    Class<? extends OccurrenceIndex> resultClass;
+    Consumer<List<OccurrenceIndex>> update;
+    Map<String, Type> fieldTypes;
+
+    List<OccurrenceIndex> batch = new ArrayList<>(BATCH_SIZE);
+
+    int count = 0;
+    boolean cancelled = false;
+
+    /**
+     * @param json        generator positioned inside an array. It must have an ObjectCodec.
+     * @param resultClass occurrence class to bind each tuple to
+     * @param update      updates each batch of occurrences before it is written, e.g. image URLs. Optional.
+     */
+    public StreamAsJSON(JsonGenerator json, Class<? extends OccurrenceIndex> resultClass, Consumer<List<OccurrenceIndex>> update) {
+        this.json = json;
+        this.resultClass = resultClass;
+        this.update = update;
+        this.fieldTypes = fieldTypesByClass.computeIfAbsent(resultClass, StreamAsJSON::getFieldTypes);
+    }
+
+    public boolean process(Tuple tuple) {
+        SolrDocument doc = new SolrDocument();
+        for (Object entry : tuple.getMap().entrySet()) {
+            String name = String.valueOf(((Map.Entry) entry).getKey());
+            doc.setField(name, convert(((Map.Entry) entry).getValue(), fieldTypes.get(name)));
+        }
+
+        batch.add(binder.getBean(resultClass, doc));
+        if (batch.size() >= BATCH_SIZE) {
+            writeBatch();
+        }
+
+        return !cancelled;
+    }
+
+    public boolean flush() {
+        writeBatch();
+        try {
+            json.flush();
+        } catch (IOException e) {
+            cancel(e);
+        }
+
+        return !cancelled;
+    }
+
+    @Override
+    public boolean cancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return number of occurrences written
+     */
+    public int getCount() {
+        return count;
+    }
+
+    private void writeBatch() {
+        if (batch.isEmpty() || cancelled) {
+            return;
+        }
+
+        if (update != null) {
+            update.accept(batch);
+        }
+
+        try {
+            for (OccurrenceIndex oi : batch) {
+                json.writeObject(oi);
+                count++;
+            }
+        } catch (IOException e) {
+            cancel(e);
+        }
+        batch.clear();
+    }
+
+    private void cancel(IOException e) {
+        // the client has gone, stop reading the SOLR stream
+        logger.debug("Occurrence stream cancelled after " + count + " occurrences: " + e.getMessage());
+        cancelled = true;
+    }
+
+    /**
+     * Convert a tuple value to the type of a result field.
+     *
+     * @param value tuple value
+     * @param type  field type, or null to keep the value
+     * @return
+     */
+    static Object convert(Object value, Type type) {
+        if (value == null || type == null) {
+            return value;
+        }
+
+        Type componentType = getComponentType(type);
+        if (componentType != null) {
+            Collection<?> values = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+            List<Object> list = new ArrayList<>(values.size());
+            for (Object item : values) {
+                list.add(convert(item, componentType));
+            }
+            return list;
+        }
+
+        if (value instanceof Collection) {
+            Iterator<?> it = ((Collection<?>) value).iterator();
+            value = it.hasNext() ? it.next() : null;
+            if (value == null) {
+                return null;
+            }
+        }
+
+        if (type == String.class) {
+            return value instanceof Date ? ((Date) value).toInstant().toString() : value.toString();
+        } else if (type == Integer.class || type == int.class) {
+            return value instanceof Number ? ((Number) value).intValue() : Integer.valueOf(value.toString());
+        } else if (type == Long.class || type == long.class) {
+            return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+        } else if (type == Double.class || type == double.class) {
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(value.toString());
+        } else if (type == Float.class || type == float.class) {
+            return value instanceof Number ? ((Number) value).floatValue() : Float.valueOf(value.toString());
+        } else if (type == Boolean.class || type == boolean.class) {
+            return value instanceof Boolean ? value : Boolean.valueOf(value.toString());
+        } else if (type == Date.class) {
+            return value instanceof Date ? value : Date.from(Instant.parse(value.toString()));
+        }
+        return value;
+    }
+
+    private static Type getComponentType(Type type) {
+        if (type instanceof Class && ((Class<?>) type).isArray()) {
+            return ((Class<?>) type).getComponentType();
+        } else if (type instanceof GenericArrayType) {
+            return ((GenericArrayType) type).getGenericComponentType();
+        } else if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() instanceof Class
+                && Collection.class.isAssignableFrom((Class<?>) ((ParameterizedType) type).getRawType())) {
+            return ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        return null;
+    }
+
+    /**
+     * Find the SOLR field names and types of the annotated fields and setters. Wildcard fields are not included, their
+     * values are bound as they are.
+     */
+    static Map<String, Type> getFieldTypes(Class<?> resultClass) {
+        Map<String, Type> types = new HashMap<>();
+        for (Class<?> c = resultClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (java.lang.reflect.Field field : c.getDeclaredFields()) {
+                Field annotation = field.getAnnotation(Field.class);
+                if (annotation != null) {
+                    String name = Field.DEFAULT.equals(annotation.value()) ? field.getName() : annotation.value();
+                    if (!name.contains("*")) {
+                        types.putIfAbsent(name, field.getGenericType());
+                    }
+                }
+            }
+            for (Method method : c.getDeclaredMethods()) {
+                Field annotation = method.getAnnotation(Field.class);
+                if (annotation != null && method.getParameterCount() == 1) {
+                    String name = annotation.value();
+                    if (Field.DEFAULT.equals(name)) {
+                        name = method.getName().startsWith("set") ? Introspector.decapitalize(method.getName().substring(3)) : method.getName();
+                    }
+                    if (!name.contains("*")) {
+                        types.putIfAbsent(name, method.getGenericParameterTypes()[0]);
+                    }
+                }
+            }
+        }
+        return types;
+    }
+}
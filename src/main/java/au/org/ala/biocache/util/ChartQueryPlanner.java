@@ -0,0 +1,356 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dto.FieldStatsItem;
+import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.response.FieldStatsInfo;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+import java.util.*;
+
+/**
+ * Plans the counts and stats of a chart as one JSON Facet API request.
+ * <p>
+ * Each count or stats is for the occurrences matching a list of filter queries, e.g. a series fq and a range fq. The
+ * filter queries become nested query facets so that the counts for each range of a series share the series domain.
+ * They are formatted like the fqs of a search, see {@link #formatQueries(QueryFormatter)}.
+ * The stat field and stat types are those of the SOLR stats component and are decoded into the same
+ * {@link FieldStatsItem}s.
+ */
+public class ChartQueryPlanner {
+
+    /**
+     * stats component stat types and the JSON Facet API functions that calculate them
+     */
+    static final Map<String, String> STAT_FUNCTIONS = new LinkedHashMap<>();
+
+    static {
+        STAT_FUNCTIONS.put("min", "min");
+        STAT_FUNCTIONS.put("max", "max");
+        STAT_FUNCTIONS.put("sum", "sum");
+        STAT_FUNCTIONS.put("mean", "avg");
+        STAT_FUNCTIONS.put("stddev", "stddev");
+        STAT_FUNCTIONS.put("sumOfSquares", "sumsq");
+        STAT_FUNCTIONS.put("count", "countvals");
+        STAT_FUNCTIONS.put("missing", "missing");
+        STAT_FUNCTIONS.put("countDistinct", "unique");
+        STAT_FUNCTIONS.put("cardinality", "hll");
+    }
+
+    private static final String STAT_PREFIX = "stat_";
+    private static final String TERMS = "terms";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String statField;
+    private String translatedStatField;
+    private final List<String> statTypes = new ArrayList<>();
+
+    private final Node root = new Node(null, null);
+    private final List<Item> items = new ArrayList<>();
+
+    private int nodeCount = 0;
+
+    /**
+     * Formats a filter query for SOLR, e.g. expands lsid: and qid: terms.
+     */
+    public interface QueryFormatter {
+        String format(String fq) throws QidMissingException;
+    }
+
+    /**
+     * @param statField numeric or date field for the stats, or null for counts only
+     * @param statTypes stats component stat types, e.g. min,max,mean. Unsupported types are ignored.
+     */
+    public ChartQueryPlanner(String statField, Collection<String> statTypes) {
+        this.statField = statField;
+        if (statTypes != null) {
+            for (String statType : statTypes) {
+                if (STAT_FUNCTIONS.containsKey(statType)) {
+                    this.statTypes.add(statType);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plan the count of occurrences matching all of the fqs.
+     *
+     * @param fqs filter queries, empty values are ignored
+     * @return id of the result
+     */
+    public int addCount(String... fqs) {
+        return add(fqs, null, false);
+    }
+
+    /**
+     * Plan the stats of the occurrences matching all of the fqs.
+     *
+     * @param fqs filter queries, empty values are ignored
+     * @return id of the result
+     */
+    public int addStats(String... fqs) {
+        return add(fqs, null, true);
+    }
+
+    /**
+     * Plan the stats for each value of a field, including missing values, of the occurrences matching all of the fqs.
+     *
+     * @param facetField field to group by
+     * @param fqs        filter queries, empty values are ignored
+     * @return id of the result
+     */
+    public int addFacetStats(String facetField, String... fqs) {
+        return add(fqs, facetField, true);
+    }
+
+    private int add(String[] fqs, String facetField, boolean stats) {
+        Node node = root;
+        for (String fq : fqs) {
+            if (fq != null && !fq.isEmpty()) {
+                node = node.child(fq);
+            }
+        }
+        if (node == root) {
+            // the query facet for the whole domain
+            node = node.child("*:*");
+        }
+        if (stats) {
+            node.stats = true;
+        }
+        if (facetField != null) {
+            node.facetFields.add(facetField);
+        }
+
+        items.add(new Item(node, facetField));
+        return items.size() - 1;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Format the filter queries of the query facets. Each distinct filter query is formatted once. Unformatted filter
+     * queries are used as they are.
+     *
+     * @param formatter
+     * @throws QidMissingException
+     */
+    public void formatQueries(QueryFormatter formatter) throws QidMissingException {
+        root.format(formatter, new HashMap<>());
+    }
+
+    /**
+     * @param fieldMappingUtil translates the stat field and facet fields, optional
+     * @return json.facet request parameter
+     */
+    public String toJsonFacet(FieldMappingUtil fieldMappingUtil) {
+        translatedStatField = statField == null || fieldMappingUtil == null ? statField : fieldMappingUtil.translateFieldName(statField);
+        try {
+            return mapper.writeValueAsString(root.toJson(fieldMappingUtil));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read the results from the response.
+     *
+     * @param facets value of facets in the response
+     */
+    public void decode(NamedList<Object> facets) {
+        root.decode(facets);
+    }
+
+    /**
+     * @param id value returned by addCount
+     * @return number of occurrences
+     */
+    public long getCount(int id) {
+        return items.get(id).node.count;
+    }
+
+    /**
+     * @param id value returned by addStats
+     * @return stats of the occurrences
+     */
+    public FieldStatsItem getStats(int id) {
+        Node node = items.get(id).node;
+        return new FieldStatsItem(new FieldStatsInfo(node.statValues(), translatedStatField != null ? translatedStatField : statField));
+    }
+
+    /**
+     * @param id value returned by addFacetStats
+     * @return stats for each value, with the label and fq of the value
+     */
+    public List<FieldStatsItem> getFacetStats(int id) {
+        Item item = items.get(id);
+        List<FieldStatsItem> output = new ArrayList<>();
+        NamedList<Object> terms = item.node.terms.get(item.facetField);
+        if (terms == null) {
+            return output;
+        }
+
+        List<NamedList<Object>> buckets = (List<NamedList<Object>>) terms.get("buckets");
+        if (buckets != null) {
+            for (NamedList<Object> bucket : buckets) {
+                Object value = bucket.get("val");
+                String name = value instanceof Date ? ((Date) value).toInstant().toString() : String.valueOf(value);
+
+                FieldStatsItem statsItem = new FieldStatsItem(new FieldStatsInfo(statValues(bucket), name));
+                statsItem.setFq(item.facetField + ":\"" + name + "\"");
+                statsItem.setLabel(name);
+                output.add(statsItem);
+            }
+        }
+
+        NamedList<Object> missing = (NamedList<Object>) terms.get("missing");
+        if (missing != null && ((Number) missing.get("count")).longValue() > 0) {
+            FieldStatsItem statsItem = new FieldStatsItem(new FieldStatsInfo(statValues(missing), null));
+            statsItem.setFq("-" + item.facetField + ":*");
+            statsItem.setLabel(null);
+            output.add(statsItem);
+        }
+        return output;
+    }
+
+    /**
+     * Convert the stat functions of a bucket to stats component values.
+     */
+    private NamedList<Object> statValues(NamedList<Object> bucket) {
+        long count = bucket.get("count") == null ? 0 : ((Number) bucket.get("count")).longValue();
+
+        NamedList<Object> values = new SimpleOrderedMap<>();
+        for (String statType : statTypes) {
+            Object value = bucket.get(STAT_PREFIX + statType);
+            switch (statType) {
+                case "count":
+                case "missing":
+                case "countDistinct":
+                case "cardinality":
+                    // stats of an empty domain are not returned
+                    values.add(statType, value == null ? 0L : ((Number) value).longValue());
+                    break;
+                case "stddev":
+                case "sumOfSquares":
+                    values.add(statType, value == null ? (count == 0 ? null : 0.0) : ((Number) value).doubleValue());
+                    break;
+                default:
+                    // numeric stats are doubles, date min and max are dates
+                    values.add(statType, value instanceof Number ? ((Number) value).doubleValue() : value);
+            }
+        }
+        return values;
+    }
+
+    private class Node {
+        final String key;
+        final String fq;
+        String formattedFq;
+        final Map<String, Node> children = new LinkedHashMap<>();
+        final Set<String> facetFields = new LinkedHashSet<>();
+        boolean stats = false;
+
+        long count;
+        NamedList<Object> values = new SimpleOrderedMap<>();
+        final Map<String, NamedList<Object>> terms = new HashMap<>();
+
+        Node(String key, String fq) {
+            this.key = key;
+            this.fq = fq;
+        }
+
+        Node child(String fq) {
+            return children.computeIfAbsent(fq, k -> new Node("q" + nodeCount++, fq));
+        }
+
+        void format(QueryFormatter formatter, Map<String, String> formatted) throws QidMissingException {
+            for (Node child : children.values()) {
+                if (!formatted.containsKey(child.fq)) {
+                    formatted.put(child.fq, formatter.format(child.fq));
+                }
+                child.formattedFq = formatted.get(child.fq);
+                child.format(formatter, formatted);
+            }
+        }
+
+        Map<String, Object> toJson(FieldMappingUtil fieldMappingUtil) {
+            Map<String, Object> facet = new LinkedHashMap<>();
+            for (Node child : children.values()) {
+                Map<String, Object> query = new LinkedHashMap<>();
+                query.put("type", "query");
+                query.put("q", StringUtils.isNotEmpty(child.formattedFq) ? child.formattedFq : child.fq);
+
+                Map<String, Object> childFacet = child.toJson(fieldMappingUtil);
+                if (!childFacet.isEmpty()) {
+                    query.put("facet", childFacet);
+                }
+                facet.put(child.key, query);
+            }
+
+            String field = translatedStatField;
+            if (stats && field != null) {
+                facet.putAll(statFunctions(field));
+            }
+
+            int i = 0;
+            for (String facetField : facetFields) {
+                Map<String, Object> termsFacet = new LinkedHashMap<>();
+                termsFacet.put("type", "terms");
+                termsFacet.put("field", fieldMappingUtil == null ? facetField : fieldMappingUtil.translateFieldName(facetField));
+                termsFacet.put("limit", -1);
+                termsFacet.put("missing", true);
+                termsFacet.put("sort", "index asc");
+                if (field != null) {
+                    termsFacet.put("facet", statFunctions(field));
+                }
+                facet.put(TERMS + i++, termsFacet);
+            }
+            return facet;
+        }
+
+        Map<String, Object> statFunctions(String field) {
+            Map<String, Object> functions = new LinkedHashMap<>();
+            for (String statType : statTypes) {
+                functions.put(STAT_PREFIX + statType, STAT_FUNCTIONS.get(statType) + "(" + field + ")");
+            }
+            return functions;
+        }
+
+        void decode(NamedList<Object> response) {
+            if (response == null) {
+                return;
+            }
+            Object c = response.get("count");
+            count = c == null ? 0 : ((Number) c).longValue();
+            values = response;
+
+            int i = 0;
+            for (String facetField : facetFields) {
+                terms.put(facetField, (NamedList<Object>) response.get(TERMS + i++));
+            }
+
+            for (Node child : children.values()) {
+                child.decode((NamedList<Object>) response.get(child.key));
+            }
+        }
+
+        NamedList<Object> statValues() {
+            return ChartQueryPlanner.this.statValues(values);
+        }
+    }
+
+    private static class Item {
+        final Node node;
+        final String facetField;
+
+        Item(Node node, String facetField) {
+            this.node = node;
+            this.facetField = facetField;
+        }
+    }
+}
@@ -19,10 +19,21 @@ public class DownloadCallable implements Callable {
         this.indexDAO = indexDAO;
     }
 
+    /**
+     * Stop the download. Any open tuple stream is closed before the next tuple is read and remaining queries are
+     * not run.
+     */
+    public void cancel() {
+        procDownload.cancel();
+    }
+
     @Override
     public Object call() throws Exception {
         // iterate over queries
         for (SolrQuery query : queries) {
+            if (procDownload.cancelled()) {
+                break;
+            }
             indexDAO.streamingQuery(query, procDownload, null, null);
         }
 
@@ -0,0 +1,53 @@
+package au.org.ala.biocache.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a download into disjoint partitions that can be streamed from SOLR concurrently.
+ * <p>
+ * Partitions are ranges over the leading character of the record <code>id</code>. Record ids are UUIDs so the
+ * ranges are cut on hex digits. The first and last ranges are open ended so that every id, including any that
+ * are not UUIDs, belongs to exactly one partition.
+ */
+public class DownloadPartitions {
+
+    private static final String HEX = "0123456789abcdef";
+
+    /**
+     * The maximum number of partitions available when cutting on the first hex digit.
+     */
+    public static final int MAX_PARTITIONS = HEX.length();
+
+    private DownloadPartitions() {
+    }
+
+    /**
+     * Build the filter queries for each partition.
+     *
+     * @param partitions requested number of partitions, limited to {@link #MAX_PARTITIONS}
+     * @return one filter query per partition, or a single null entry when partitions < 2
+     */
+    public static List<String> idRangeFilters(int partitions) {
+        List<String> fqs = new ArrayList<>();
+        int n = Math.min(partitions, MAX_PARTITIONS);
+
+        if (n < 2) {
+            fqs.add(null);
+            return fqs;
+        }
+
+        String lower = "*";
+        for (int i = 1; i <= n; i++) {
+            if (i == n) {
+                fqs.add("id:[" + lower + " TO *]");
+            } else {
+                String upper = String.valueOf(HEX.charAt(i * MAX_PARTITIONS / n));
+                fqs.add("id:[" + lower + " TO " + upper + "}");
+                lower = upper;
+            }
+        }
+
+        return fqs;
+    }
+}
@@ -1,10 +1,13 @@
 package au.org.ala.biocache.util;
 
+import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.QidCacheDAO;
 import au.org.ala.biocache.dto.*;
 import au.org.ala.biocache.service.*;
 import au.org.ala.biocache.service.ListsService.SpeciesListSearchDTO;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.Iterables;
 import com.google.common.html.HtmlEscapers;
 import org.apache.commons.lang.ArrayUtils;
@@ -16,9 +19,11 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.support.AbstractMessageSource;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -63,8 +68,12 @@ public class QueryFormatUtils {
     @Inject
     private FieldMappingUtil fieldMappingUtil;
 
+    @Inject
+    protected IndexDAO indexDao;
+
     protected static final String QUOTE = "\"";
     protected static final char[] CHARS = {' ', ':'};
+    protected static final Pattern LFT_RANGE_PATTERN = Pattern.compile(OccurrenceIndex.LFT + ":\\[(-?[0-9]+) TO (-?[0-9]+)\\]");
 
     private String spatialField = "geohash";
 
@@ -83,6 +92,18 @@ public class QueryFormatUtils {
 
     private int maxBooleanClauses = 1024;
 
+    /**
+     * max size, in characters, of the cached species list queries
+     */
+    @Value("${species.list.query.cache.size:20000000}")
+    protected long speciesListQueryCacheSize = 20000000;
+
+    /**
+     * species list queries by list, index version and max boolean clauses. Entries expire with the speciesListItems
+     * cache so changes to a list are used.
+     */
+    private Cache<String, String> speciesListQueries;
+
     @Value("${solr.circle.segments:18}")
     int solrCircleSegments = 18;
 
@@ -98,6 +119,15 @@ public class QueryFormatUtils {
     @Value("${circle.display.string: - within {0} km of point({1}, {2})}")
     protected String circleDisplayString;
 
+    @PostConstruct
+    public void init() {
+        speciesListQueries = Caffeine.newBuilder()
+                .maximumWeight(speciesListQueryCacheSize)
+                .weigher((String key, String q) -> q.length())
+                .expireAfterWrite(600, TimeUnit.SECONDS)
+                .build();
+    }
+
     public int getMaxBooleanClauses() {
         return maxBooleanClauses;
     }
@@ -477,23 +507,11 @@ public class QueryFormatUtils {
             String speciesList = m.group(2);
             String prefix = m.group(1);
             try {
-                List<String> lsids = listsService.getListItems(speciesList);
-
-                List<String> strings;
-
-                strings = lsids.stream()
-                        .map(searchUtils::getTaxonSearch)
-                        .filter(t -> t.length > 1)
-                        .map(t -> t[0])
-                        .collect(toList());
-
-                Iterable<List<String>> partition = Iterables.partition(strings, max - 10);
-                String q = stream(partition.spliterator(), false)
-                        .map(part -> part.stream()
-                                .collect(joining(" OR ", "(", ")")))
-                        .collect(joining(" OR "));
-                if (q.length() > 1) {
-                    q = "(" + q + ")";
+                String key = speciesListQueryKey(speciesList, max);
+                String q = speciesListQueries.getIfPresent(key);
+                if (q == null) {
+                    q = speciesListQuery(speciesList, max);
+                    speciesListQueries.put(key, q);
                 }
                 m.appendReplacement(sb, prefix + q);
             } catch (Exception e) {
@@ -527,6 +545,80 @@ public class QueryFormatUtils {
         current[0] = sb.toString();
     }
 
+    private String speciesListQueryKey(String speciesList, int maxBooleanClauses) {
+        Long version = indexDao.getIndexVersion(false);
+        return speciesList + "\n" + version + "\n" + maxBooleanClauses;
+    }
+
+    /**
+     * Build the query for a species list. The lft ranges of the list items are merged so the query has as few
+     * terms as possible.
+     *
+     * @param speciesList       species list data resource uid
+     * @param maxBooleanClauses max terms in a single boolean query
+     * @return
+     * @throws Exception when the species list could not be retrieved
+     */
+    private String speciesListQuery(String speciesList, int maxBooleanClauses) throws Exception {
+        List<String> lsids = listsService.getListItems(speciesList);
+
+        List<String> strings = mergeLftRanges(searchUtils.getTaxonSearches(lsids).stream()
+                .filter(t -> t.length > 1)
+                .map(t -> t[0])
+                .collect(toList()));
+
+        Iterable<List<String>> partition = Iterables.partition(strings, maxBooleanClauses - 10);
+        String q = stream(partition.spliterator(), false)
+                .map(part -> part.stream()
+                        .collect(joining(" OR ", "(", ")")))
+                .collect(joining(" OR "));
+        if (q.length() > 1) {
+            q = "(" + q + ")";
+        }
+        return q;
+    }
+
+    /**
+     * Replace the lft:[a TO b] terms with the minimal set of disjoint ranges. Ranges that are nested, overlapping or
+     * adjacent are merged. Other terms are unchanged and follow the ranges.
+     *
+     * @param terms query terms
+     * @return
+     */
+    static List<String> mergeLftRanges(List<String> terms) {
+        List<long[]> ranges = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        for (String term : terms) {
+            Matcher matcher = LFT_RANGE_PATTERN.matcher(term);
+            if (matcher.matches()) {
+                ranges.add(new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))});
+            } else {
+                others.add(term);
+            }
+        }
+
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+
+        List<String> merged = new ArrayList<>(ranges.size() + others.size());
+        long[] current = null;
+        for (long[] range : ranges) {
+            if (current != null && range[0] <= current[1] + 1) {
+                current[1] = Math.max(current[1], range[1]);
+            } else {
+                if (current != null) {
+                    merged.add(OccurrenceIndex.LFT + ":[" + current[0] + " TO " + current[1] + "]");
+                }
+                current = range;
+            }
+        }
+        if (current != null) {
+            merged.add(OccurrenceIndex.LFT + ":[" + current[0] + " TO " + current[1] + "]");
+        }
+
+        merged.addAll(others);
+        return merged;
+    }
+
     /**
      * Substitute lft ranges for lsids in queries for formattedQuery and displayString.
      *
@@ -548,7 +640,19 @@ public class QueryFormatUtils {
             StringBuffer displaySb = new StringBuffer();
             int last = 0;
 
+            // resolve all lsids in one batch
             Matcher matcher = lsidPattern.matcher(translatedQuery);
+            List<String> lsids = new ArrayList<>();
+            while (matcher.find()) {
+                lsids.add(cleanLsid(matcher.group(2)));
+            }
+            Map<String, String[]> taxonSearches = new HashMap<>();
+            List<String[]> searches = searchUtils.getTaxonSearches(lsids);
+            for (int i = 0; i < lsids.size(); i++) {
+                taxonSearches.put(lsids.get(i), searches.get(i));
+            }
+
+            matcher.reset();
             queryString.setLength(0);
             while (matcher.find()) {
                 //only want to process the "lsid" if it does not represent taxon_concept_lsid etc...
@@ -558,20 +662,11 @@ public class QueryFormatUtils {
                         logger.debug("pre-processing " + value);
                     }
                     String lsidHeader = matcher.group(1);
-                    String lsid = matcher.group(2);
-                    if (lsid.contains("\"")) {
-                        //remove surrounding quotes, if present
-                        lsid = lsid.replaceAll("\"", "");
-                    }
-                    if (lsid.contains("\\")) {
-                        //remove internal \ chars, if present
-                        //noinspection MalformedRegex
-                        lsid = lsid.replaceAll("\\\\", "");
-                    }
+                    String lsid = cleanLsid(matcher.group(2));
                     if (logger.isDebugEnabled()) {
                         logger.debug("lsid = " + lsid);
                     }
-                    String[] values = searchUtils.getTaxonSearch(lsid);
+                    String[] values = taxonSearches.get(lsid);
 
                     String taxonConceptId = OccurrenceIndex.TAXON_CONCEPT_ID;
 
@@ -602,6 +697,19 @@ public class QueryFormatUtils {
         }
     }
 
+    private String cleanLsid(String lsid) {
+        if (lsid.contains("\"")) {
+            //remove surrounding quotes, if present
+            lsid = lsid.replaceAll("\"", "");
+        }
+        if (lsid.contains("\\")) {
+            //remove internal \ chars, if present
+            //noinspection MalformedRegex
+            lsid = lsid.replaceAll("\\\\", "");
+        }
+        return lsid;
+    }
+
     /**
      * Format Urn in queries for formattedQuery.
      *
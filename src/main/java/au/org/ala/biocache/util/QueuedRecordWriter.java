@@ -0,0 +1,66 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dto.DownloadDetailsDTO;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecordWriter used by each partition of a partitioned download.
+ * <p>
+ * Rows are copied onto a bounded queue that is drained by a single consumer into the real RecordWriter. When the
+ * queue is full the producer waits, checking for interrupts every <code>timeoutMillis</code>.
+ */
+public class QueuedRecordWriter implements RecordWriter {
+
+    private final BlockingQueue<String[]> queue;
+    private final int partition;
+    private final DownloadDetailsDTO downloadDetails;
+    private final long timeoutMillis;
+
+    private volatile boolean finalised = false;
+
+    public QueuedRecordWriter(BlockingQueue<String[]> queue, int partition, DownloadDetailsDTO downloadDetails, long timeoutMillis) {
+        this.queue = queue;
+        this.partition = partition;
+        this.downloadDetails = downloadDetails;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void initialise() {
+    }
+
+    /**
+     * Queue a copy of the record. ProcessDownload reuses its row array so the record must be copied.
+     *
+     * @param record
+     */
+    @Override
+    public void write(String[] record) {
+        String[] row = Arrays.copyOf(record, record.length);
+        try {
+            while (!queue.offer(row, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (downloadDetails.getInterrupt().get() || Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Download partition " + partition + " cancelled");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Download partition " + partition + " interrupted");
+        }
+        downloadDetails.updatePartitionCount(partition, 1);
+    }
+
+    @Override
+    public boolean finalised() {
+        return finalised;
+    }
+
+    @Override
+    public void finalise() {
+        finalised = true;
+    }
+}
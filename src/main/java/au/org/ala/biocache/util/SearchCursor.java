@@ -0,0 +1,83 @@
+package au.org.ala.biocache.util;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque token for cursor paging of a search.
+ * <p>
+ * The token holds the qid of the stored query, the sort and the SOLR cursorMark for the next page. Each page is
+ * requested with the SOLR cursorMark instead of a start offset so that deep pages cost the same as the first.
+ */
+public class SearchCursor {
+
+    /**
+     * cursor parameter value for the first page
+     */
+    public static final String START = "*";
+
+    private static final String SEPARATOR = "\n";
+
+    private final String qid;
+    private final String sort;
+    private final String dir;
+    private final String cursorMark;
+
+    public SearchCursor(String qid, String sort, String dir, String cursorMark) {
+        this.qid = qid;
+        this.sort = sort;
+        this.dir = dir;
+        this.cursorMark = cursorMark;
+    }
+
+    /**
+     * @param token value returned by encode
+     * @return
+     * @throws QidMissingException when the token is not valid
+     */
+    public static SearchCursor decode(String token) throws QidMissingException {
+        String[] parts = null;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, 4);
+        } catch (IllegalArgumentException e) {
+            // not base64
+        }
+
+        if (parts == null || parts.length != 4 || !StringUtils.isNumeric(parts[0]) || parts[0].isEmpty()
+                || parts[3].isEmpty()) {
+            throw new QidMissingException(token);
+        }
+        return new SearchCursor(parts[0], parts[1], parts[2], parts[3]);
+    }
+
+    public String encode() {
+        String value = qid + SEPARATOR + sort + SEPARATOR + dir + SEPARATOR + cursorMark;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param nextCursorMark SOLR cursorMark returned for this page
+     * @return the cursor for the next page
+     */
+    public SearchCursor next(String nextCursorMark) {
+        return new SearchCursor(qid, sort, dir, nextCursorMark);
+    }
+
+    public String getQid() {
+        return qid;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public String getCursorMark() {
+        return cursorMark;
+    }
+}
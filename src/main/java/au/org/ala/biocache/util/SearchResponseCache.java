@@ -0,0 +1,209 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import au.org.ala.biocache.util.solr.FieldMappedQueryResponse;
+import au.org.ala.biocache.util.solr.SolrParamsKey;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heap cache of SOLR search and facet responses.
+ * <p>
+ * Responses are keyed on the endpoint and the formatted SOLR request, with the filter queries sorted, so equivalent
+ * requests share a response. The cache is cleared when the SOLR index version changes.
+ * <p>
+ * Concurrent requests for a response that is not cached wait for the first request to load it instead of making
+ * their own SOLR request. Failed requests are not cached. Field mapped responses are translated before they are
+ * shared so that they are only read by the requests.
+ */
+@Component("searchResponseCache")
+public class SearchResponseCache {
+
+    /**
+     * estimated heap bytes of each value in a response
+     */
+    private static final int VALUE_SIZE = 64;
+
+    @Value("${search.cache.enabled:true}")
+    protected boolean enabled = true;
+
+    /**
+     * max estimated size of the cached responses in bytes
+     */
+    @Value("${search.cache.size:104857600}")
+    protected long cacheSize = 104857600;
+
+    /**
+     * seconds before a cached response is requested again, for changes that do not update the index version
+     */
+    @Value("${search.cache.expiry:3600}")
+    protected long cacheExpiry = 3600;
+
+    @Inject
+    protected IndexDAO indexDao;
+
+    private AsyncCache<String, QueryResponse> cache;
+
+    private volatile long indexVersion = -1;
+
+    private final Map<String, LongAdder[]> endpointStats = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(cacheSize)
+                .weigher((String key, QueryResponse qr) -> (int) Math.min(Integer.MAX_VALUE, key.length() * 2L + estimateSize(qr)))
+                .expireAfterWrite(cacheExpiry, TimeUnit.SECONDS)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Get a cached response or load it.
+     *
+     * @param endpoint name of the search method, for the hit rate of each endpoint
+     * @param query    formatted SOLR request
+     * @param loader   SOLR request for the response
+     * @return
+     * @throws Exception from the loader
+     */
+    public QueryResponse get(String endpoint, SolrParams query, Callable<QueryResponse> loader) throws Exception {
+        if (!enabled) {
+            return loader.call();
+        }
+
+        String key = key(endpoint, query);
+        LongAdder[] stats = endpointStats.computeIfAbsent(endpoint, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+
+        CompletableFuture<QueryResponse> future = new CompletableFuture<>();
+        CompletableFuture<QueryResponse> existing = cache.asMap().putIfAbsent(key, future);
+        if (existing != null) {
+            stats[0].increment();
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        stats[1].increment();
+        try {
+            QueryResponse qr = loader.call();
+            if (qr instanceof FieldMappedQueryResponse) {
+                ((FieldMappedQueryResponse) qr).translate();
+            }
+            future.complete(qr);
+            return qr;
+        } catch (Exception | Error e) {
+            cache.asMap().remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Build a response key. The key includes the index version and the cache is cleared when it changes.
+     *
+     * @param endpoint
+     * @param query
+     * @return
+     */
+    String key(String endpoint, SolrParams query) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getIndexVersion()).append('\n').append(endpoint).append('\n');
+
+        sb.append(SolrParamsKey.of(query));
+        return sb.toString();
+    }
+
+    /**
+     * Current index version, clearing the cache when it has changed.
+     *
+     * @return
+     */
+    public long getIndexVersion() {
+        Long version = indexDao.getIndexVersion(false);
+        long v = version == null ? 0 : version;
+        if (v != indexVersion) {
+            synchronized (this) {
+                if (v != indexVersion) {
+                    indexVersion = v;
+                    cache.synchronous().invalidateAll();
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void clear() {
+        cache.synchronous().invalidateAll();
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.synchronous().stats();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("indexVersion", indexVersion);
+        map.put("size", cache.synchronous().estimatedSize());
+        map.put("evictionCount", stats.evictionCount());
+        for (Map.Entry<String, LongAdder[]> entry : new TreeMap<>(endpointStats).entrySet()) {
+            long hits = entry.getValue()[0].sum();
+            long misses = entry.getValue()[1].sum();
+
+            Map<String, Object> endpoint = new LinkedHashMap<>();
+            endpoint.put("hitCount", hits);
+            endpoint.put("missCount", misses);
+            endpoint.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+            map.put(entry.getKey(), endpoint);
+        }
+        return map;
+    }
+
+    /**
+     * Estimate the heap size of a response from the number of values and the length of strings.
+     */
+    static long estimateSize(QueryResponse qr) {
+        return estimateSize(qr.getResponse());
+    }
+
+    private static long estimateSize(Object value) {
+        long size = VALUE_SIZE;
+        if (value instanceof CharSequence) {
+            size += ((CharSequence) value).length() * 2L;
+        } else if (value instanceof NamedList) {
+            NamedList<?> list = (NamedList<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                size += estimateSize(list.getName(i)) + estimateSize(list.getVal(i));
+            }
+        } else if (value instanceof Map) {
+            // includes SolrDocument
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                size += estimateSize(item);
+            }
+        }
+        return size;
+    }
+}
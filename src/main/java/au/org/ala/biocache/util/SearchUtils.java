@@ -7,6 +7,8 @@ import au.org.ala.biocache.dto.SpatialSearchRequestParams;
 import au.org.ala.names.ws.api.NameSearch;
 import au.org.ala.names.ws.api.NameUsageMatch;
 import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -38,6 +40,12 @@ public class SearchUtils {
 
     /** Logger initialisation */
     private final static Logger logger = Logger.getLogger(SearchUtils.class);
+
+    /**
+     * Writes occurrence search results and records as JSON without null values. It is shared, so do not change its
+     * configuration.
+     */
+    public static final ObjectMapper RESULT_MAPPER = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
     @Inject
     private CollectionsCache collectionCache;
 
@@ -56,6 +64,9 @@ public class SearchUtils {
     @Inject
     private ALANameUsageMatchServiceClient nameUsageMatchService;
 
+    @Inject
+    private TaxonRangeResolver taxonRangeResolver;
+
     protected static List<String> defaultParams = new ArrayList<String>();
 
     static {
@@ -285,26 +296,32 @@ public class SearchUtils {
      * @param taxonId
      * @return
      */
-     public String[] getTaxonSearch(String taxonId) {
-        //use the name matching index
-        try {
-
-            NameUsageMatch nameUsageMatch = nameUsageMatchService.get(taxonId);
+    public String[] getTaxonSearch(String taxonId) {
+        return getTaxonSearch(taxonId, taxonRangeResolver.get(taxonId));
+    }
 
-            if (nameUsageMatch != null && nameUsageMatch.isSuccess()) {
+    /**
+     * Bulk getTaxonSearch. The taxonIds are resolved with batched name matching service requests.
+     *
+     * @param taxonIds
+     * @return list of getTaxonSearch values in the same order as taxonIds
+     */
+    public List<String[]> getTaxonSearches(List<String> taxonIds) {
+        Map<String, TaxonRangeResolver.TaxonRange> ranges = taxonRangeResolver.getAll(taxonIds);
 
-                String rank = nameUsageMatch.getRank() != null ? nameUsageMatch.getRank() : "Unknown Rank";
-                String scientificName = nameUsageMatch.getScientificName() != null ? nameUsageMatch.getScientificName() : null;
-                StringBuffer dispSB = new StringBuffer(rank + ": " + scientificName);
-                StringBuilder sb = new StringBuilder(OccurrenceIndex.LFT + ":[");
-                int lft = nameUsageMatch.getLft() != null ? nameUsageMatch.getLft() : 0;
-                int rgt = nameUsageMatch.getRgt() != null ? nameUsageMatch.getRgt() : 0;
-                sb.append(lft).append(" TO ").append(rgt).append("]");
-                return new String[]{ sb.toString(), dispSB.toString() };
-            }
+        List<String[]> searches = new ArrayList<>(taxonIds.size());
+        for (String taxonId : taxonIds) {
+            searches.add(getTaxonSearch(taxonId, ranges.get(taxonId)));
+        }
+        return searches;
+    }
 
-        } catch(Exception e){
-            logger.error(e.getMessage(), e);
+    private String[] getTaxonSearch(String taxonId, TaxonRangeResolver.TaxonRange range) {
+        if (range != null) {
+            String rank = range.getRank() != null ? range.getRank() : "Unknown Rank";
+            String display = rank + ": " + range.getScientificName();
+            String query = OccurrenceIndex.LFT + ":[" + range.getLft() + " TO " + range.getRgt() + "]";
+            return new String[]{ query, display };
         }
 
         return new String[]{OccurrenceIndex.TAXON_CONCEPT_ID + ":\"" + ClientUtils.escapeQueryChars(taxonId) + "\"", OccurrenceIndex.TAXON_CONCEPT_ID + ":\"" + taxonId + "\""};
@@ -0,0 +1,96 @@
+package au.org.ala.biocache.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls with the same key into a single call.
+ * <p>
+ * The first caller for a key runs the call on its own thread. Callers with the same key that arrive before it has
+ * finished wait for it and share its result or exception. Nothing is kept once the call has finished.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Run the call, or wait for the call with the same key that is already running.
+     *
+     * @param key
+     * @param call
+     * @return
+     * @throws Exception from the call
+     */
+    public V execute(K key, Callable<V> call) throws Exception {
+        Flight<V> flight = new Flight<>();
+        Flight<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            existing.waiting = true;
+            try {
+                return existing.future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        executed.increment();
+        try {
+            V value = call.call();
+            flight.future.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * For a running call to find out if its result will be shared. A caller may still start waiting after this
+     * returns false.
+     *
+     * @param key
+     * @return true when another caller is waiting for the running call with this key
+     */
+    public boolean hasWaiters(K key) {
+        Flight<V> flight = inFlight.get(key);
+        return flight != null && flight.waiting;
+    }
+
+    /**
+     * @return number of calls currently running
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public Map<String, Object> getStats() {
+        long executedCount = executed.sum();
+        long coalescedCount = coalesced.sum();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("inFlight", inFlight.size());
+        map.put("executedCount", executedCount);
+        map.put("coalescedCount", coalescedCount);
+        map.put("coalescingRatio", executedCount + coalescedCount == 0 ? 0 : (double) coalescedCount / (executedCount + coalescedCount));
+        return map;
+    }
+
+    private static class Flight<V> {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        volatile boolean waiting = false;
+    }
+}
@@ -0,0 +1,122 @@
+package au.org.ala.biocache.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limiter using sliding window counters.
+ * <p>
+ * Each key has the count for the current fixed window and the previous window. The number of requests in the sliding
+ * window is estimated as the current count plus the previous count weighted by the part of the previous window that
+ * is still within the sliding window. This uses a fixed amount of memory per key, unlike a list of access times.
+ * <p>
+ * Keys are held in a bounded table and expire after two windows without a request, when their counts can no longer
+ * limit a request. Each key is locked separately so requests for different keys do not wait for each other.
+ */
+public class SlidingWindowRateLimiter {
+
+    private final Cache<String, Window> windows;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxKeys max number of keys to keep counts for
+     */
+    public SlidingWindowRateLimiter(long maxKeys) {
+        windows = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfter(new Expiry<String, Window>() {
+                    @Override
+                    public long expireAfterCreate(String key, Window window, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(window.windowMillis * 2);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Window window, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, window, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Window window, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, window, currentTime);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Count a request for the key when it is within the limit.
+     *
+     * @param key           e.g. IP address
+     * @param limit         max number of requests in the window
+     * @param windowSeconds length of the sliding window
+     * @return true when the request is allowed, false when it is rate limited
+     */
+    public boolean tryAcquire(String key, int limit, int windowSeconds) {
+        return tryAcquire(key, limit, TimeUnit.SECONDS.toMillis(windowSeconds), System.currentTimeMillis());
+    }
+
+    boolean tryAcquire(String key, int limit, long windowMillis, long now) {
+        Window window = windows.get(key, k -> new Window(windowMillis));
+
+        boolean isAllowed = window.tryAcquire(limit, windowMillis, now);
+        if (isAllowed) {
+            allowed.increment();
+        } else {
+            rejected.increment();
+        }
+        return isAllowed;
+    }
+
+    public void clear() {
+        windows.invalidateAll();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", windows.estimatedSize());
+        map.put("allowedCount", allowed.sum());
+        map.put("rejectedCount", rejected.sum());
+        map.put("evictionCount", windows.stats().evictionCount());
+        return map;
+    }
+
+    /**
+     * Counts of requests allowed in the current and previous fixed windows.
+     */
+    static class Window {
+        final long windowMillis;
+        private long currentStart;
+        private int current;
+        private int previous;
+
+        Window(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        synchronized boolean tryAcquire(int limit, long windowMillis, long now) {
+            long start = now - now % windowMillis;
+            if (start != currentStart) {
+                // the current window is the previous window when it ended less than a window ago
+                previous = start - currentStart == windowMillis ? current : 0;
+                current = 0;
+                currentStart = start;
+            }
+
+            double previousWeight = (double) (windowMillis - (now - start)) / windowMillis;
+            if (previous * previousWeight + current < limit) {
+                current++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
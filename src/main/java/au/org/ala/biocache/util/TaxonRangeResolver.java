@@ -0,0 +1,219 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves taxon LSIDs to their lft rgt range, rank and scientific name with the name matching service.
+ * <p>
+ * Lookups are batched with nameUsageMatchService.getAll and the results are cached. Concurrent requests for an
+ * LSID that is already being looked up wait for that lookup instead of making another.
+ * <p>
+ * LSIDs that the name matching service does not match are also cached. Failed lookups are not cached.
+ */
+@Component("taxonRangeResolver")
+public class TaxonRangeResolver {
+
+    private static final Logger logger = Logger.getLogger(TaxonRangeResolver.class);
+
+    /**
+     * Cached value of LSIDs without a match
+     */
+    private static final TaxonRange NOT_FOUND = new TaxonRange(0, 0, null, null);
+
+    /**
+     * max number of cached LSIDs
+     */
+    @Value("${taxon.range.cache.size:100000}")
+    protected long cacheSize = 100000;
+
+    /**
+     * minutes before a cached LSID is looked up again. The name matching service does not expose an index version
+     * so this is the upper bound for using values from a previous name matching index.
+     */
+    @Value("${taxon.range.cache.expiry:1440}")
+    protected long cacheExpiry = 1440;
+
+    /**
+     * max number of LSIDs in a single name matching service request
+     */
+    @Value("${taxon.range.batch.size:500}")
+    protected int batchSize = 500;
+
+    /**
+     * max number of concurrent name matching service requests
+     */
+    @Value("${taxon.range.threads:4}")
+    protected int threads = 4;
+
+    @Inject
+    protected ALANameUsageMatchServiceClient nameUsageMatchService;
+
+    private AsyncLoadingCache<String, TaxonRange> cache;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("taxon-range-%d").setDaemon(true).build());
+
+        cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheExpiry, TimeUnit.MINUTES)
+                .executor(executor)
+                .recordStats()
+                .buildAsync(new AsyncCacheLoader<String, TaxonRange>() {
+                    @Override
+                    public CompletableFuture<TaxonRange> asyncLoad(String lsid, Executor executor) {
+                        return asyncLoadAll(Collections.singleton(lsid), executor).thenApply(map -> map.get(lsid));
+                    }
+
+                    @Override
+                    public CompletableFuture<Map<String, TaxonRange>> asyncLoadAll(Iterable<? extends String> lsids, Executor executor) {
+                        return loadAll(lsids, executor);
+                    }
+                });
+    }
+
+    /**
+     * Resolve a single LSID.
+     *
+     * @param lsid
+     * @return TaxonRange or null when there is no match or the lookup failed
+     */
+    public TaxonRange get(String lsid) {
+        return getAll(Collections.singletonList(lsid)).get(lsid);
+    }
+
+    /**
+     * Resolve LSIDs in as few name matching service requests as possible.
+     *
+     * @param lsids
+     * @return map of LSID to TaxonRange, without the LSIDs that have no match or failed
+     */
+    public Map<String, TaxonRange> getAll(Collection<String> lsids) {
+        Set<String> keys = lsids.stream().filter(StringUtils::isNotEmpty).collect(Collectors.toCollection(LinkedHashSet::new));
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        try {
+            Map<String, TaxonRange> ranges = new HashMap<>(cache.getAll(keys).get());
+            ranges.values().removeIf(range -> range == NOT_FOUND);
+            return ranges;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Failed to resolve taxon ranges: " + e.getMessage(), e);
+        }
+        return Collections.emptyMap();
+    }
+
+    public void clear() {
+        cache.synchronous().invalidateAll();
+    }
+
+    public Map<String, Object> getCacheStats() {
+        CacheStats stats = cache.synchronous().stats();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", cache.synchronous().estimatedSize());
+        map.put("hitCount", stats.hitCount());
+        map.put("missCount", stats.missCount());
+        map.put("loadFailureCount", stats.loadFailureCount());
+        map.put("evictionCount", stats.evictionCount());
+        return map;
+    }
+
+    /**
+     * Look up LSIDs in concurrent batches. LSIDs in a batch that fails are left out of the result so they are not cached.
+     */
+    private CompletableFuture<Map<String, TaxonRange>> loadAll(Iterable<? extends String> lsids, Executor executor) {
+        List<CompletableFuture<Map<String, TaxonRange>>> batches = new ArrayList<>();
+        for (List<? extends String> batch : Iterables.partition(lsids, batchSize)) {
+            batches.add(CompletableFuture.supplyAsync(() -> lookup(new ArrayList<>(batch)), executor));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).thenApply(v -> {
+            Map<String, TaxonRange> ranges = new HashMap<>();
+            batches.forEach(batch -> ranges.putAll(batch.join()));
+            return ranges;
+        });
+    }
+
+    private Map<String, TaxonRange> lookup(List<String> lsids) {
+        Map<String, TaxonRange> ranges = new HashMap<>();
+        try {
+            List<NameUsageMatch> matches = nameUsageMatchService.getAll(lsids, false);
+            for (int i = 0; i < lsids.size(); i++) {
+                NameUsageMatch match = matches != null && i < matches.size() ? matches.get(i) : null;
+                if (match != null && match.isSuccess()) {
+                    ranges.put(lsids.get(i), new TaxonRange(
+                            match.getLft() != null ? match.getLft() : 0,
+                            match.getRgt() != null ? match.getRgt() : 0,
+                            match.getRank(),
+                            match.getScientificName()));
+                } else {
+                    ranges.put(lsids.get(i), NOT_FOUND);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to get " + lsids.size() + " taxa from the name matching service: " + e.getMessage(), e);
+        }
+        return ranges;
+    }
+
+    /**
+     * lft rgt range, rank and scientific name of a taxon
+     */
+    public static class TaxonRange {
+        private final int lft;
+        private final int rgt;
+        private final String rank;
+        private final String scientificName;
+
+        public TaxonRange(int lft, int rgt, String rank, String scientificName) {
+            this.lft = lft;
+            this.rgt = rgt;
+            this.rank = rank;
+            this.scientificName = scientificName;
+        }
+
+        public int getLft() {
+            return lft;
+        }
+
+        public int getRgt() {
+            return rgt;
+        }
+
+        public String getRank() {
+            return rank;
+        }
+
+        public String getScientificName() {
+            return scientificName;
+        }
+    }
+}
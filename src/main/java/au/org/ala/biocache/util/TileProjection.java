@@ -0,0 +1,160 @@
+package au.org.ala.biocache.util;
+
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Projects EPSG:4326 coordinates to the pixels of a WMS tile.
+ * <p>
+ * When x depends only on longitude and y only on latitude (e.g. EPSG:4326, EPSG:3857) the pixels of all heatmap
+ * columns and rows are projected once with {@link #columnPixels} and {@link #rowPixels}. Other projections use
+ * {@link #pixel} for each coordinate.
+ */
+public class TileProjection {
+
+    /**
+     * Pixel value for a coordinate that cannot be projected.
+     */
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    private final MathTransform transform;
+    private final double left;
+    private final double bottom;
+    private final double right;
+    private final double top;
+    private final int width;
+    private final int height;
+
+    private final double[] src = new double[2];
+    private final double[] dst = new double[2];
+
+    /**
+     * @param transform transform from EPSG:4326 to the tile SRS
+     * @param tilebbox  tile extents in the tile SRS [minx, miny, maxx, maxy]
+     * @param width     tile width in pixels
+     * @param height    tile height in pixels
+     */
+    public TileProjection(MathTransform transform, double[] tilebbox, int width, int height) {
+        this.transform = transform;
+        this.left = tilebbox[0];
+        this.bottom = tilebbox[1];
+        this.right = tilebbox[2];
+        this.top = tilebbox[3];
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Test if x depends only on longitude and y only on latitude within the area, to within 1/100th of a pixel.
+     */
+    public boolean isSeparable(double minLng, double minLat, double maxLng, double maxLat) {
+        double[] corners = {minLng, minLat, minLng, maxLat, maxLng, minLat, maxLng, maxLat};
+        double[] projected = new double[8];
+        try {
+            transform.transform(corners, 0, projected, 0, 4);
+        } catch (TransformException e) {
+            return false;
+        }
+
+        double xTolerance = Math.abs(right - left) / width / 100;
+        double yTolerance = Math.abs(top - bottom) / height / 100;
+
+        return Math.abs(projected[0] - projected[2]) <= xTolerance
+                && Math.abs(projected[4] - projected[6]) <= xTolerance
+                && Math.abs(projected[1] - projected[5]) <= yTolerance
+                && Math.abs(projected[3] - projected[7]) <= yTolerance;
+    }
+
+    /**
+     * Project longitudes to x pixels. Only valid when {@link #isSeparable} is true.
+     *
+     * @param lngs longitudes
+     * @param lat  any latitude within the tile
+     * @return x pixel for each longitude, or INVALID
+     */
+    public int[] columnPixels(double[] lngs, double lat) {
+        double[] projected = transformAll(lngs, lat, true);
+        int[] pixels = new int[lngs.length];
+        for (int i = 0; i < lngs.length; i++) {
+            pixels[i] = Double.isNaN(projected[i * 2]) ? INVALID : scaleX(projected[i * 2]);
+        }
+        return pixels;
+    }
+
+    /**
+     * Project latitudes to y pixels. Only valid when {@link #isSeparable} is true.
+     *
+     * @param lats latitudes
+     * @param lng  any longitude within the tile
+     * @return y pixel for each latitude, or INVALID
+     */
+    public int[] rowPixels(double[] lats, double lng) {
+        double[] projected = transformAll(lats, lng, false);
+        int[] pixels = new int[lats.length];
+        for (int i = 0; i < lats.length; i++) {
+            pixels[i] = Double.isNaN(projected[i * 2 + 1]) ? INVALID : scaleY(projected[i * 2 + 1]);
+        }
+        return pixels;
+    }
+
+    /**
+     * Project a single coordinate. Not thread safe.
+     *
+     * @param lng
+     * @param lat
+     * @param xy  output x and y pixel
+     * @return false when the coordinate cannot be projected
+     */
+    public boolean pixel(double lng, double lat, int[] xy) {
+        src[0] = lng;
+        src[1] = lat;
+        try {
+            transform.transform(src, 0, dst, 0, 1);
+        } catch (TransformException e) {
+            return false;
+        }
+        xy[0] = scaleX(dst[0]);
+        xy[1] = scaleY(dst[1]);
+        return true;
+    }
+
+    private double[] transformAll(double[] values, double other, boolean longitudes) {
+        double[] coords = new double[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            coords[i * 2] = longitudes ? values[i] : other;
+            coords[i * 2 + 1] = longitudes ? other : values[i];
+        }
+
+        double[] projected = new double[coords.length];
+        try {
+            transform.transform(coords, 0, projected, 0, values.length);
+        } catch (TransformException e) {
+            // project individually so only the failed coordinates are lost
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    transform.transform(coords, i * 2, projected, i * 2, 1);
+                } catch (TransformException ex) {
+                    projected[i * 2] = Double.NaN;
+                    projected[i * 2 + 1] = Double.NaN;
+                }
+            }
+        }
+        return projected;
+    }
+
+    private int scaleX(double x) {
+        return (int) (((x - left) / (right - left)) * width);
+    }
+
+    private int scaleY(double y) {
+        return (int) (((y - top) / (bottom - top)) * height);
+    }
+}
@@ -0,0 +1,348 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level (heap and disk) cache of rendered WMS tile PNGs.
+ * <p>
+ * Keys include the SOLR index version so tiles are not served after an index update. On an index version change the
+ * heap level is cleared and disk tiles of older versions are deleted in the background.
+ */
+@Component("wmsTileCache")
+public class WmsTileCache {
+
+    private static final Logger logger = Logger.getLogger(WmsTileCache.class);
+
+    @Value("${wms.tile.cache.enabled:true}")
+    protected boolean enabled = true;
+
+    /**
+     * max size of the heap tile cache in bytes
+     */
+    @Value("${wms.tile.cache.heap.size:104857600}")
+    protected long heapSize = 104857600;
+
+    /**
+     * directory for the disk tile cache. Empty to disable the disk tile cache.
+     */
+    @Value("${wms.tile.cache.dir:/data/cache/wms-tiles}")
+    protected String cacheDir = "/data/cache/wms-tiles";
+
+    /**
+     * max size of the disk tile cache in bytes. The disk tiles of the current index version are deleted when it is full.
+     */
+    @Value("${wms.tile.cache.disk.size:1073741824}")
+    protected long diskSize = 1073741824L;
+
+    @Inject
+    protected IndexDAO indexDao;
+
+    private Cache<String, byte[]> heap;
+
+    private volatile long indexVersion = -1;
+
+    private final AtomicLong diskUsed = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong diskMisses = new AtomicLong();
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    /**
+     * disk writes and deletes are done in the background
+     */
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("wms-tile-cache-%d").setDaemon(true).build());
+
+    @PostConstruct
+    public void init() {
+        heap = Caffeine.newBuilder()
+                .maximumWeight(heapSize)
+                .weigher((String key, byte[] png) -> png.length)
+                .recordStats()
+                .build();
+
+        if (!isDiskEnabled()) {
+            return;
+        }
+
+        File dir = new File(cacheDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            logger.error("Unable to create WMS tile cache dir " + cacheDir + ", disk tile cache disabled");
+            cacheDir = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Current index version, clearing the cache when it has changed.
+     *
+     * @return
+     */
+    public long getIndexVersion() {
+        Long version = indexDao.getIndexVersion(false);
+        long v = version == null ? 0 : version;
+        if (v != indexVersion) {
+            synchronized (this) {
+                if (v != indexVersion) {
+                    indexVersion = v;
+                    heap.invalidateAll();
+                    diskUsed.set(0);
+                    deleteOtherVersions(v);
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Build a tile key. Filter queries and hidden layers are sorted so equivalent requests share a tile.
+     *
+     * @param query          formatted query
+     * @param filterQueries  formatted filter queries
+     * @param env            ENV style
+     * @param styles         STYLES
+     * @param srs            SRS
+     * @param bbox           BBOX
+     * @param width          tile width in pixels
+     * @param height         tile height in pixels
+     * @param outline        OUTLINE
+     * @param outlineColour  OUTLINECOLOUR
+     * @param hidden         hidden legend items (HQ)
+     * @param gridDetail     GRIDDETAIL
+     * @return
+     */
+    public String key(String query, String[] filterQueries, String env, String styles, String srs, String bbox,
+                      int width, int height, boolean outline, String outlineColour, Collection<Integer> hidden,
+                      int gridDetail) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getIndexVersion()).append('\n');
+        sb.append(query).append('\n');
+        if (filterQueries != null) {
+            String[] fqs = Arrays.stream(filterQueries).filter(StringUtils::isNotEmpty).sorted().toArray(String[]::new);
+            for (String fq : fqs) {
+                sb.append("fq=").append(fq).append('\n');
+            }
+        }
+        sb.append(StringUtils.trimToEmpty(env)).append('\n');
+        sb.append(StringUtils.trimToEmpty(styles)).append('\n');
+        sb.append(srs).append('\n');
+        sb.append(StringUtils.deleteWhitespace(bbox)).append('\n');
+        sb.append(width).append('x').append(height).append('\n');
+        sb.append(outline).append(outlineColour).append('\n');
+        if (hidden != null && !hidden.isEmpty()) {
+            sb.append(new TreeSet<>(hidden)).append('\n');
+        }
+        sb.append(gridDetail);
+        return sb.toString();
+    }
+
+    /**
+     * ETag for tiles of the current index version.
+     *
+     * @param wmsETag
+     * @return
+     */
+    public String eTag(String wmsETag) {
+        return wmsETag + "-" + getIndexVersion();
+    }
+
+    /**
+     * Test an If-None-Match header against an ETag.
+     *
+     * @param ifNoneMatch If-None-Match header value, may be null
+     * @param eTag
+     * @return true when the client copy is current
+     */
+    public static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String value : ifNoneMatch.split(",")) {
+            value = value.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if ("*".equals(value) || eTag.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get a cached tile.
+     *
+     * @param key from key(...)
+     * @return PNG bytes or null
+     */
+    public byte[] get(String key) {
+        if (!enabled) {
+            return null;
+        }
+
+        byte[] png = heap.getIfPresent(key);
+        if (png == null && isDiskEnabled()) {
+            File file = tileFile(key);
+            if (file.exists()) {
+                try {
+                    png = Files.readAllBytes(file.toPath());
+                    heap.put(key, png);
+                    diskHits.incrementAndGet();
+                } catch (IOException e) {
+                    // deleted by a purge
+                    diskMisses.incrementAndGet();
+                }
+            } else {
+                diskMisses.incrementAndGet();
+            }
+        }
+        return png;
+    }
+
+    /**
+     * Add a rendered tile.
+     *
+     * @param key from key(...)
+     * @param png
+     */
+    public void put(String key, byte[] png) {
+        if (!enabled) {
+            return;
+        }
+
+        heap.put(key, png);
+
+        if (isDiskEnabled()) {
+            diskExecutor.execute(() -> write(key, png));
+        }
+    }
+
+    /**
+     * Remove all cached tiles.
+     */
+    public void clear() {
+        heap.invalidateAll();
+        diskUsed.set(0);
+        if (isDiskEnabled()) {
+            diskExecutor.execute(() -> FileUtils.deleteQuietly(new File(cacheDir, String.valueOf(indexVersion))));
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats stats = heap.stats();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("indexVersion", indexVersion);
+        map.put("heapSize", heap.estimatedSize());
+        map.put("heapHitCount", stats.hitCount());
+        map.put("heapMissCount", stats.missCount());
+        map.put("heapEvictionCount", stats.evictionCount());
+        map.put("diskHitCount", diskHits.get());
+        map.put("diskMissCount", diskMisses.get());
+        map.put("diskUsed", diskUsed.get());
+        return map;
+    }
+
+    private boolean isDiskEnabled() {
+        return StringUtils.isNotEmpty(cacheDir);
+    }
+
+    private void write(String key, byte[] png) {
+        File file = tileFile(key);
+        if (file.exists()) {
+            return;
+        }
+
+        try {
+            File parent = file.getParentFile();
+            parent.mkdirs();
+
+            // write to a temporary file so a partial tile is never read
+            File tmp = File.createTempFile("tile", ".tmp", parent);
+            Files.write(tmp.toPath(), png);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            if (diskUsed.addAndGet(png.length) > diskSize && purging.compareAndSet(false, true)) {
+                try {
+                    logger.info("WMS tile cache dir is full, deleting tiles for index version " + indexVersion);
+                    FileUtils.deleteQuietly(new File(cacheDir, String.valueOf(indexVersion)));
+                    diskUsed.set(0);
+                } finally {
+                    purging.set(false);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write WMS tile to " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private void deleteOtherVersions(long version) {
+        if (!isDiskEnabled()) {
+            return;
+        }
+
+        diskExecutor.execute(() -> {
+            File[] dirs = new File(cacheDir).listFiles(File::isDirectory);
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    if (!dir.getName().equals(String.valueOf(version))) {
+                        FileUtils.deleteQuietly(dir);
+                    } else {
+                        // tiles written before a restart
+                        diskUsed.addAndGet(FileUtils.sizeOfDirectory(dir));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Tile file path of [cacheDir]/[index version]/[first 2 hash chars]/[hash].png
+     */
+    private File tileFile(String key) {
+        String hash = sha256(key);
+        return new File(cacheDir, indexVersion + File.separator + hash.substring(0, 2) + File.separator + hash + ".png");
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
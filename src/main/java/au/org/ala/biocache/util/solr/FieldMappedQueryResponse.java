@@ -13,6 +13,13 @@ import org.apache.solr.common.util.NamedList;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Query response with the results and facets translated back to the requested field names.
+ * <p>
+ * The response can be shared between threads, e.g. by coalesced or cached queries. The translations are filled in
+ * by {@link #translate()} before the response is returned by {@link FieldMappedSolrClient}, and each translated list
+ * is only published once it is complete.
+ */
 public class FieldMappedQueryResponse extends QueryResponse {
 
     private static final Logger logger = Logger.getLogger(FieldMappedQueryResponse.class);
@@ -21,11 +28,11 @@ public class FieldMappedQueryResponse extends QueryResponse {
     final private FieldMappedSolrParams solrParams;
     final private QueryResponse delegate;
 
-    SolrDocumentList _results;
-    private List<FacetField> _facetFields = null;
-    private List<FacetField> _facetDates = null;
-    private List<RangeFacet> _rangeFacets = null;
-    private List<IntervalFacet> _intervalFacets = null;
+    volatile SolrDocumentList _results;
+    private volatile List<FacetField> _facetFields = null;
+    private volatile List<FacetField> _facetDates = null;
+    private volatile List<RangeFacet> _rangeFacets = null;
+    private volatile List<IntervalFacet> _intervalFacets = null;
 
     public FieldMappedQueryResponse(SolrClient solrClient, FieldMappedSolrParams solrParams, QueryResponse delegate) {
         this.solrClient = solrClient;
@@ -33,6 +40,20 @@ public class FieldMappedQueryResponse extends QueryResponse {
         this.delegate = delegate;
     }
 
+    /**
+     * Fill in all of the translations.
+     *
+     * @return this response
+     */
+    public FieldMappedQueryResponse translate() {
+        getResults();
+        getFacetFields();
+        getFacetDates();
+        getFacetRanges();
+        getIntervalFacets();
+        return this;
+    }
+
     @Override
     public void setResponse(NamedList<Object> res) {
         delegate.setResponse(res);
@@ -71,10 +92,10 @@ public class FieldMappedQueryResponse extends QueryResponse {
 
                 logger.debug("before results translation: " + results);
 
-                this._results = new SolrDocumentList();
-                this._results.setMaxScore(results.getMaxScore());
-                this._results.setNumFound(results.getNumFound());
-                this._results.setStart(results.getStart());
+                SolrDocumentList translatedResults = new SolrDocumentList();
+                translatedResults.setMaxScore(results.getMaxScore());
+                translatedResults.setNumFound(results.getNumFound());
+                translatedResults.setStart(results.getStart());
 
                 results.forEach((SolrDocument solrDocument) -> {
 
@@ -96,10 +117,12 @@ public class FieldMappedQueryResponse extends QueryResponse {
                         }
                     }
 
-                    this._results.add(translatedSd);
+                    translatedResults.add(translatedSd);
                 });
 
-                logger.debug("after results translation: " + this._results);
+                logger.debug("after results translation: " + translatedResults);
+
+                this._results = translatedResults;
             }
         }
 
@@ -177,7 +200,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
                 return null;
             }
 
-            this._facetFields = new ArrayList<>();
+            List<FacetField> translatedFacets = new ArrayList<>();
             Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.field");
 
             if (facetMappings != null) {
@@ -191,7 +214,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
 
                         if (facetName.equals(legacyFacetName)) {
 
-                            this._facetFields.add(facetField);
+                            translatedFacets.add(facetField);
 
                         } else if (legacyFacetName != null) {
 
@@ -200,11 +223,13 @@ public class FieldMappedQueryResponse extends QueryResponse {
                                 legacyFacet.add(facetFieldCount.getName(), facetFieldCount.getCount());
                             }
 
-                            this._facetFields.add(legacyFacet);
+                            translatedFacets.add(legacyFacet);
                         }
                     }
                 }
             }
+
+            this._facetFields = translatedFacets;
         }
 
         return this._facetFields;
@@ -221,7 +246,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
                 return null;
             }
 
-            this._facetDates = new ArrayList<>();
+            List<FacetField> translatedFacets = new ArrayList<>();
             Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.field");
 
             if (facetMappings != null) {
@@ -235,7 +260,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
 
                         if (facetName.equals(legacyFacetName)) {
 
-                            this._facetDates.add(facetField);
+                            translatedFacets.add(facetField);
 
                         } else if (legacyFacetName != null) {
 
@@ -244,11 +269,13 @@ public class FieldMappedQueryResponse extends QueryResponse {
                                 legacyFacet.add(facetFieldCount.getName(), facetFieldCount.getCount());
                             }
 
-                            this._facetDates.add(legacyFacet);
+                            translatedFacets.add(legacyFacet);
                         }
                     }
                 }
             }
+
+            this._facetDates = translatedFacets;
         }
 
         return this._facetDates;
@@ -265,7 +292,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
                 return null;
             }
 
-            this._rangeFacets = new ArrayList<>();
+            List<RangeFacet> translatedFacets = new ArrayList<>();
             Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.range");
 
             if (facetMappings != null) {
@@ -279,17 +306,19 @@ public class FieldMappedQueryResponse extends QueryResponse {
 
                         if (facetName.equals(legacyFacetName)) {
 
-                            this._rangeFacets.add(rangeFacet);
+                            translatedFacets.add(rangeFacet);
 
                         } else if (legacyFacetName != null) {
 
                             RangeFacet legacyFacet = new WrappedRangeFacet(legacyFacetName, rangeFacet);
 
-                            this._rangeFacets.add(legacyFacet);
+                            translatedFacets.add(legacyFacet);
                         }
                     }
                 }
             }
+
+            this._rangeFacets = translatedFacets;
         }
 
         return this._rangeFacets;
@@ -311,7 +340,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
                 return null;
             }
 
-            this._intervalFacets = new ArrayList<>();
+            List<IntervalFacet> translatedFacets = new ArrayList<>();
             Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.interval");
 
             if (facetMappings != null) {
@@ -325,7 +354,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
 
                         if (facetName.equals(legacyFacetName)) {
 
-                            this._intervalFacets.add(intervalFacet);
+                            translatedFacets.add(intervalFacet);
 
                         } else if (legacyFacetName != null) {
 
@@ -340,11 +369,13 @@ public class FieldMappedQueryResponse extends QueryResponse {
 //                                }
 //                            };
 //
-//                            this._intervalFacets.add(legacyFacet);
+//                            translatedFacets.add(legacyFacet);
                         }
                     }
                 }
             }
+
+            this._intervalFacets = translatedFacets;
         }
 
         return this._intervalFacets;
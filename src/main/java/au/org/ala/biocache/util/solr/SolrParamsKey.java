@@ -0,0 +1,53 @@
+package au.org.ala.biocache.util.solr;
+
+import org.apache.solr.common.params.SolrParams;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Builds a key for SolrParams that is the same for equivalent requests.
+ * <p>
+ * Parameter names are sorted, filter queries are sorted and parameters that do not change the response are left out.
+ */
+public class SolrParamsKey {
+
+    /**
+     * request parameters that do not change the response
+     */
+    private static final Set<String> IGNORED_PARAMS = new HashSet<>(Arrays.asList("XRequestID", "wt", "version"));
+
+    private SolrParamsKey() {
+    }
+
+    public static String of(SolrParams params) {
+        StringBuilder sb = new StringBuilder();
+
+        Iterator<String> it = params.getParameterNamesIterator();
+        SortedSet<String> names = new TreeSet<>();
+        while (it.hasNext()) {
+            names.add(it.next());
+        }
+        for (String name : names) {
+            if (IGNORED_PARAMS.contains(name)) {
+                continue;
+            }
+            String[] values = params.getParams(name);
+            if (values == null) {
+                continue;
+            }
+            if ("fq".equals(name)) {
+                values = values.clone();
+                Arrays.sort(values);
+            }
+            for (String value : values) {
+                sb.append(name).append('=').append(value).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
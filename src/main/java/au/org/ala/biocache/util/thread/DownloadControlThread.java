@@ -7,6 +7,7 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
@@ -34,6 +35,32 @@ public class DownloadControlThread implements Runnable {
     private final DownloadCreator downloadCreator;
     private final PersistentQueueDAO persistentQueueDAO;
     private final ExecutorService parallelQueryExecutor;
+    private final AtomicInteger streamingDownloads = new AtomicInteger(0);
+
+    /**
+     * Tracks the downloads submitted by this thread that are streaming from the index.
+     */
+    private final DownloadListener streamingListener = new DownloadListener() {
+        @Override
+        public void started(DownloadDetailsDTO download) {
+            streamingDownloads.incrementAndGet();
+        }
+
+        @Override
+        public void finished(DownloadDetailsDTO download) {
+            streamingDownloads.decrementAndGet();
+        }
+
+        @Override
+        public void cancelled(DownloadDetailsDTO download) {
+            streamingDownloads.decrementAndGet();
+        }
+
+        @Override
+        public void failed(DownloadDetailsDTO download, Throwable error) {
+            streamingDownloads.decrementAndGet();
+        }
+    };
     
     public DownloadControlThread(String name,
                                 Integer maxRecords,
@@ -92,6 +119,7 @@ public class DownloadControlThread implements Runnable {
                 if (currentDownload != null) {
                     // The submitted download will return the capacity when it finishes
                     currentDownload.setProcessingThreadName(this.name);
+                    currentDownload.addListener(streamingListener);
                     downloadServiceExecutor.submitDownload(currentDownload, parallelQueryExecutor);
                 } else {
                     // We need to return the capacity we reserved because we don't need to use it
@@ -113,6 +141,13 @@ public class DownloadControlThread implements Runnable {
         }
     }
     
+    /**
+     * @return the number of downloads submitted by this thread that are currently streaming from the index
+     */
+    public int getStreamingDownloads() {
+        return streamingDownloads.get();
+    }
+
     /**
      * Set a flag to indicate that we need to shutdown.
      */
@@ -0,0 +1,69 @@
+/**************************************************************************
+ *  Copyright (C) 2016 Atlas of Living Australia
+ *  All Rights Reserved.
+ *
+ *  The contents of this file are subject to the Mozilla Public
+ *  License Version 1.1 (the "License"); you may not use this file
+ *  except in compliance with the License. You may obtain a copy of
+ *  the License at http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  rights and limitations under the License.
+ ***************************************************************************/
+package au.org.ala.biocache.util.thread;
+
+import au.org.ala.biocache.dto.DownloadDetailsDTO;
+
+/**
+ * Receives lifecycle events for a download streamed from the index.
+ * <p>
+ * Listeners are registered with {@link DownloadDetailsDTO#addListener(DownloadListener)} and are called on the
+ * threads doing the download, so implementations must be thread safe and must not block.
+ */
+public interface DownloadListener {
+
+    /**
+     * The download has been submitted for execution.
+     */
+    default void started(DownloadDetailsDTO download) {
+    }
+
+    /**
+     * The first record of the download has been written.
+     */
+    default void firstRecord(DownloadDetailsDTO download) {
+    }
+
+    /**
+     * Called after every {@link #PROGRESS_INTERVAL} records.
+     *
+     * @param recordCount the number of records written so far
+     */
+    default void progress(DownloadDetailsDTO download, long recordCount) {
+    }
+
+    /**
+     * All records have been written.
+     */
+    default void finished(DownloadDetailsDTO download) {
+    }
+
+    /**
+     * The download was interrupted before all records were written.
+     */
+    default void cancelled(DownloadDetailsDTO download) {
+    }
+
+    /**
+     * The download failed with an error.
+     */
+    default void failed(DownloadDetailsDTO download, Throwable error) {
+    }
+
+    /**
+     * The number of records between progress events.
+     */
+    int PROGRESS_INTERVAL = 10000;
+}
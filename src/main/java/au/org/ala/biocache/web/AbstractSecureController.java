@@ -14,6 +14,7 @@
  ***************************************************************************/
 package au.org.ala.biocache.web;
 
+import au.org.ala.biocache.util.SlidingWindowRateLimiter;
 import org.ala.client.util.Constants;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.cache.Cache;
@@ -29,8 +30,6 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.time.Instant;
-import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -82,6 +81,14 @@ public class AbstractSecureController {
     @Value("${ratelimit.count:5}")
     protected int rateLimitCount;
 
+    /**
+     * max number of IP addresses to keep rate limit counts for
+     */
+    @Value("${ratelimit.cache.size:200000}")
+    protected long rateLimitCacheSize = 200000;
+
+    private volatile SlidingWindowRateLimiter rateLimiter;
+
     @Value("${apikey.check.url:https://auth.ala.org.au/apikey/ws/check?apikey=}")
     protected String apiCheckUrl;
 
@@ -96,6 +103,22 @@ public class AbstractSecureController {
 
     public AbstractSecureController(){}
 
+    /**
+     * @return the rate limiter, created on first use so that it is sized from the configured ratelimit.cache.size
+     */
+    protected SlidingWindowRateLimiter getRateLimiter() {
+        SlidingWindowRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            synchronized (this) {
+                limiter = rateLimiter;
+                if (limiter == null) {
+                    limiter = rateLimiter = new SlidingWindowRateLimiter(rateLimitCacheSize);
+                }
+            }
+        }
+        return limiter;
+    }
+
     /**
      * Returns the IP address for the supplied request. It will look for the existence of
      * an X-Forwarded-For Header before extracting it from the request.
@@ -144,36 +167,7 @@ public class AbstractSecureController {
         }
 
         if (rateLimitWindowSeconds > 0 && rateLimitCount > 0) {
-
-            Cache cache = cacheManager.getCache("rateLimit");
-            Cache.ValueWrapper valueWrapper = cache.get(ipAddress);
-            ArrayDeque<Instant> accessTimes;
-
-            if (valueWrapper == null) {
-
-                accessTimes = new ArrayDeque<>();
-
-            } else {
-
-                accessTimes = (ArrayDeque<Instant>) valueWrapper.get();
-
-                // remove any access times that are older then the rate limit window
-                Instant windowStart = Instant.now().minusSeconds(rateLimitWindowSeconds);
-                for (Instant oldestAccessTime = accessTimes.getFirst();
-                     oldestAccessTime != null && oldestAccessTime.isBefore(windowStart);
-                     oldestAccessTime = accessTimes.getFirst()) {
-                    accessTimes.removeFirst();
-                }
-            }
-
-            if (accessTimes.size() < rateLimitCount) {
-
-                // add access times keyed by IP address only for successful requests.
-                accessTimes.addLast(Instant.now());
-                cache.put(ipAddress, accessTimes);
-
-                return false;
-            }
+            return !getRateLimiter().tryAcquire(ipAddress, rateLimitCount, rateLimitWindowSeconds);
         }
 
         return true;
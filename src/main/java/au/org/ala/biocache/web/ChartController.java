@@ -17,6 +17,7 @@ package au.org.ala.biocache.web;
 import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.*;
+import au.org.ala.biocache.util.ChartQueryPlanner;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -137,18 +138,22 @@ public class ChartController extends AbstractSecureController implements Seriali
 
         boolean date = isDate(x);
 
+        // counts and stats of all series are requested together after the loop
+        ChartQueryPlanner planner = new ChartQueryPlanner(stats, statTypes);
+        List<Runnable> decoders = new ArrayList<>();
+
         for (Map seriesq : seriesFqs) {
             //update fq
             String[] fqBackup = searchParams.getFq();
 
-            if (seriesq.containsKey("fq")) {
-                appendFq(searchParams, seriesq.get("fq").toString());
-            }
+            String seriesFq = seriesq.containsKey("fq") ? seriesq.get("fq").toString() : null;
 
             List data = new ArrayList();
 
             if (xranges == null && stats == null) {
                 //1. occurrence bar/pie/line chart of field
+                if (seriesFq != null) appendFq(searchParams, seriesFq);
+
                 searchParams.setFacet(true);
                 searchParams.setFlimit(maxStringFacets);
                 searchParams.setFsort(fsort);
@@ -167,91 +172,56 @@ public class ChartController extends AbstractSecureController implements Seriali
                 }
 
                 if (inverseXranges.length() > 0) {
-                    searchParams.setFq(fqBackup);
-                    if (seriesq.containsKey("fq")) appendFq(searchParams, seriesq.get("fq").toString());
-
-                    searchParams.setFacet(false);
-                    appendFq(searchParams, inverseXranges.toString());
-                    SearchResultDTO sr = searchDAO.findByFulltextSpatialQuery(searchParams, false, null);
-                    if (sr != null) {
-                        data.add(new FieldResultDTO("Other", "Other", sr.getTotalRecords()));
-                    }
+                    int other = planner.addCount(seriesFq, inverseXranges.toString());
+                    List seriesData = data;
+                    decoders.add(() -> seriesData.add(new FieldResultDTO("Other", "Other", planner.getCount(other))));
                 }
             } else if (xranges == null && stats != null) {
                 //2. mean/max/min/quartile of field2, bar/pie/line chart of field1
-                if (xRanges.length() > 0) appendFq(searchParams, xRanges.toString());
-                data = searchDAO.searchStat(searchParams, stats, x, statTypes);
-                if (!xmissing) {
-                    for (int i = data.size() - 1; i >= 0; i--) {
-                        if (StringUtils.isEmpty(((FieldStatsItem) data.get(i)).getLabel())) data.remove(i);
-                    }
+                List seriesData = data;
+                if (x != null) {
+                    int facetStats = planner.addFacetStats(x, seriesFq, xRanges.toString());
+                    decoders.add(() -> {
+                        for (FieldStatsItem item : planner.getFacetStats(facetStats)) {
+                            if (xmissing || StringUtils.isNotEmpty(item.getLabel())) seriesData.add(item);
+                        }
+                    });
+                } else {
+                    int all = planner.addStats(seriesFq, xRanges.toString());
+                    decoders.add(() -> seriesData.add(planner.getStats(all)));
                 }
 
                 if (inverseXranges.length() > 0) {
-                    searchParams.setFq(fqBackup);
-                    if (seriesq.containsKey("fq")) appendFq(searchParams, seriesq.get("fq").toString());
-
-                    searchParams.setFacet(false);
-                    appendFq(searchParams, inverseXranges.toString());
-                    List d = searchDAO.searchStat(searchParams, stats, null, statTypes);
-                    if (d != null && d.size() > 0) {
-                        ((FieldStatsItem) d.get(0)).setLabel("Other");
-                        data.add(d.get(0));
-                    }
+                    int other = planner.addStats(seriesFq, inverseXranges.toString());
+                    decoders.add(() -> {
+                        FieldStatsItem item = planner.getStats(other);
+                        item.setLabel("Other");
+                        seriesData.add(item);
+                    });
                 }
-            } else if (xranges != null && stats == null) {
+            } else if (xranges != null) {
                 //3. occurrence bar/pie chart of numeric field with predefined ranges (min to <= value1; >value1 <= value2; > value2 <= max)
-
-                //use separate queries for each fq in xranges
-                searchParams.setFacet(false);
-                String[] xrangessplit = xranges.split(",");
-                String[] fqBackup2 = searchParams.getFq();
-                String[] xrangesFqs = new String[searchParams.getFq().length + 1];
-                if (searchParams.getFq().length > 0)
-                    System.arraycopy(searchParams.getFq(), 0, xrangesFqs, 0, searchParams.getFq().length);
-                List output = new ArrayList();
-                for (int i = 0; i < xrangessplit.length - 1; i++) {
-                    Map m = makeRangeMap(i == 0, x, xrangessplit[i], xrangessplit[i + 1], date);
-
-                    xrangesFqs[fqBackup2.length] = m.get("fq").toString();
-                    searchParams.setFq(xrangesFqs);
-
-                    SearchResultDTO l = searchDAO.findByFulltextSpatialQuery(searchParams, false, null);
-                    if (l != null) {
-                        String label = m.get("label").toString();
-                        FieldResultDTO fr = new FieldResultDTO(label, label, l.getTotalRecords(), m.get("fq").toString());
-
-                        output.add(fr);
-                    }
-                }
-                searchParams.setFq(fqBackup2);
-
-                data = output;
-            } else if (xranges != null && stats != null) {
                 //4. mean/max/min/quartile of field2, occurrence bar/pie chart of numeric field1 with predefined ranges (min to <= value1; >value1 <= value2; > value2 <= max)
-
-                String[] fqs = new String[searchParams.getFq().length + 1];
-                if (searchParams.getFq().length > 0)
-                    System.arraycopy(searchParams.getFq(), 0, fqs, 0, searchParams.getFq().length);
-
                 String[] r = xranges.split(",");
-                List output = new ArrayList<>(r.length - 1);
-                for (int i = 0; i < r.length; i++) {
-                    if (i < r.length - 1) {
-                        Map m = makeRangeMap(i == 0, x, r[i], r[i + 1], date);
-                        fqs[fqs.length - 1] = m.get("fq").toString();
-                        searchParams.setFq(fqs);
-
-                        List result = searchDAO.searchStat(searchParams, stats, null, statTypes);
-                        if (result.size() > 0) {
-                            ((FieldStatsItem) result.iterator().next()).setFq(fqs[fqs.length - 1]);
-                            ((FieldStatsItem) result.iterator().next()).setLabel(m.get("label").toString());
-                            output.addAll(result);
-                        }
+                List seriesData = data;
+                for (int i = 0; i < r.length - 1; i++) {
+                    Map m = makeRangeMap(i == 0, x, r[i], r[i + 1], date);
+                    String label = m.get("label").toString();
+                    String rangeFq = m.get("fq").toString();
+
+                    if (stats == null) {
+                        int count = planner.addCount(seriesFq, rangeFq);
+                        decoders.add(() -> seriesData.add(new FieldResultDTO(label, label, planner.getCount(count), rangeFq)));
+                    } else {
+                        int rangeStats = planner.addStats(seriesFq, rangeFq);
+                        decoders.add(() -> {
+                            FieldStatsItem item = planner.getStats(rangeStats);
+                            item.setFq(rangeFq);
+                            item.setLabel(label);
+                            seriesData.add(item);
+                        });
                     }
                 }
-
-                data = output;
             }
 
             seriesq.put("data", data);
@@ -259,6 +229,11 @@ public class ChartController extends AbstractSecureController implements Seriali
             searchParams.setFq(fqBackup);
         }
 
+        searchDAO.searchChart(searchParams, planner);
+        for (Runnable decoder : decoders) {
+            decoder.run();
+        }
+
         //insert zeros
         insertZeros(seriesFqs);
 
@@ -51,6 +51,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
@@ -381,12 +382,15 @@ public class MapController {
 
         PointType pointType = PointType.POINT_001;
 
-        double[] points = retrievePoints(requestParams, pointType);
+        List<OccurrencePoint> occurrencePoints = retrieveOccurrencePoints(requestParams, pointType);
+        double[] points = toCoordinates(occurrencePoints);
+        long[] counts = toCounts(occurrencePoints);
+        long totalCount = Arrays.stream(counts).sum();
         
         HeatMap hm = new HeatMap();
 
         //heatmap versus points
-        if (forcePointsDisplay || points.length == 0 || (points.length / 2) < pointHeatMapThreshold) {
+        if (forcePointsDisplay || points.length == 0 || totalCount < pointHeatMapThreshold) {
             hm.setLegendImage(null);
             if (!generateLegend && colourByFq != null){
                 String[] originalFq = requestParams.getFq();
@@ -396,11 +400,11 @@ public class MapController {
                     } else {
                         requestParams.setFq(new String[]{colourByFq[k]});
                     }
-                    if(forcePointsDisplay && points.length > 0 && (points.length / 2 < pointHeatMapThreshold) ){
+                    if(forcePointsDisplay && points.length > 0 && (totalCount < pointHeatMapThreshold) ){
                         pointType = PointType.POINT_01;
                     }
 
-                    double[] pointsForFacet = retrievePoints(requestParams, pointType);
+                    double[] pointsForFacet = toCoordinates(retrieveOccurrencePoints(requestParams, pointType));
                     Color pointColor = ColorUtil.getColor(colours[k], opacity);
 
                     String facetDisplayString = queryFormatUtils.formatQueryTerm(colourByFq[k], null)[0];
@@ -413,7 +417,7 @@ public class MapController {
             hm.drawOutput(baseDir + "/" + outputHMFile, false);
             hm.drawLegend(baseDir + "/legend_" + outputHMFile);
         } else {
-            hm.generateClasses(points); //this will create legend
+            hm.generateClasses(points, counts); //this will create legend
             if (generateLegend){
                 hm.drawLegend(baseDir + "/legend_" + outputHMFile);
             } else {
@@ -423,45 +427,60 @@ public class MapController {
     }
 
     /**
-     * Returns an array of points in the format [lat1,long1,lat2,long2,.....]
+     * Returns the distinct points and their occurrence counts.
      *
      * @param requestParams
      * @param pointType
-     * @return returns an empty array if none found.
+     * @return returns an empty list if none found.
      */
-    private double[] retrievePoints(SpatialSearchRequestParams requestParams, PointType pointType) {
+    private List<OccurrencePoint> retrieveOccurrencePoints(SpatialSearchRequestParams requestParams, PointType pointType) {
 
-        double[] points = new double[0];
+        List<OccurrencePoint> occ_points = new ArrayList<>();
         try {
             requestParams.setQ(requestParams.getQ());
-            List<OccurrencePoint> occ_points = searchDAO.getFacetPoints(requestParams, pointType);
+            for (OccurrencePoint pt : searchDAO.getFacetPoints(requestParams, pointType)) {
+                if (pt.getCoordinates().size() >= 2) {
+                    occ_points.add(pt);
+                }
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("Points search for " + pointType.getLabel() + " - found: " + occ_points.size());
             }
-
-            int totalItems = 0;
-            for (int i = 0; i < occ_points.size(); i++) {
-                OccurrencePoint pt = occ_points.get(i);
-                totalItems = (int) (totalItems + pt.getCount());
-            }
-
-            logger.debug("total number of occurrence points is " + totalItems);
-
-            points = new double[totalItems * 2];
-
-            int j = 0;
-            for (int i = 0; i < occ_points.size(); i++) {
-                OccurrencePoint pt = occ_points.get(i);
-                pt.getCount();
-                double lng = pt.getCoordinates().get(0).doubleValue();
-                double lat = pt.getCoordinates().get(1).doubleValue();
-                points[j] = lng;
-                points[j + 1] = lat;
-                j = j + 2;
-            }
         } catch (Exception e) {
             logger.error("An error occurred getting heatmap points", e);
         }
+        return occ_points;
+    }
+
+    /**
+     * Returns an array of points in the format [long1,lat1,long2,lat2,.....]
+     *
+     * @param occ_points
+     * @return
+     */
+    private static double[] toCoordinates(List<OccurrencePoint> occ_points) {
+        double[] points = new double[occ_points.size() * 2];
+
+        int j = 0;
+        for (OccurrencePoint pt : occ_points) {
+            points[j] = pt.getCoordinates().get(0).doubleValue();
+            points[j + 1] = pt.getCoordinates().get(1).doubleValue();
+            j = j + 2;
+        }
         return points;
     }
+
+    /**
+     * Returns the occurrence count of each point.
+     *
+     * @param occ_points
+     * @return
+     */
+    private static long[] toCounts(List<OccurrencePoint> occ_points) {
+        long[] counts = new long[occ_points.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = Math.max(1, occ_points.get(i).getCount());
+        }
+        return counts;
+    }
 }
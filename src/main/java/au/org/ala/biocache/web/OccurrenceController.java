@@ -25,7 +25,11 @@ import au.org.ala.biocache.dto.DownloadDetailsDTO.DownloadType;
 import au.org.ala.biocache.service.*;
 import au.org.ala.biocache.util.OccurrenceUtils;
 import au.org.ala.biocache.util.QidSizeException;
+import au.org.ala.biocache.util.SearchResponseCache;
 import au.org.ala.biocache.util.SearchUtils;
+import au.org.ala.biocache.util.TaxonRangeResolver;
+import au.org.ala.biocache.util.WmsTileCache;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.sf.json.JSONArray;
@@ -68,6 +72,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -127,6 +132,12 @@ public class OccurrenceController extends AbstractSecureController {
     @Inject
     protected QidCacheDAO qidCacheDao;
     @Inject
+    protected WmsTileCache wmsTileCache;
+    @Inject
+    protected TaxonRangeResolver taxonRangeResolver;
+    @Inject
+    protected SearchResponseCache searchResponseCache;
+    @Inject
     private LayersService layersService;
 
     @Inject
@@ -197,6 +208,12 @@ public class OccurrenceController extends AbstractSecureController {
     @Value("${occurrence.log.enabled:true}")
     private boolean occurrenceLogEnabled = true;
 
+    /**
+     * max number of ids in a /occurrences/ids request
+     */
+    @Value("${occurrence.ids.max:1000}")
+    private int occurrenceIdsMax = 1000;
+
     private final AtomicReference<String> occurrenceETag = new AtomicReference<>(UUID.randomUUID().toString());
 
     private ExecutorService executor;
@@ -887,6 +904,61 @@ public class OccurrenceController extends AbstractSecureController {
          return srtdto;
     }
 
+    /**
+     * Occurrence search that writes each occurrence as it is read from SOLR, for large pages.
+     * <p>
+     * The response is the same as the occurrence search. Selected with the <code>stream=true</code> parameter.
+     *
+     * @throws Exception
+     */
+    @RequestMapping(value = {"/occurrences/search.json*", "/occurrences/search*", "/occurrence/search*"}, params = "stream=true", method = RequestMethod.GET)
+    public void occurrenceSearchStream(SpatialSearchRequestParams requestParams,
+                                       @RequestParam(value = "apiKey", required = false) String apiKey,
+                                       @RequestParam(value = "im", required = false, defaultValue = "false") Boolean lookupImageMetadata,
+                                       HttpServletRequest request,
+                                       HttpServletResponse response) throws Exception {
+        boolean includeSensitive = false;
+        if (apiKey != null) {
+            if (!shouldPerformOperation(apiKey, response, false)) {
+                return;
+            }
+            includeSensitive = true;
+        }
+
+        SearchUtils.setDefaultParams(requestParams);
+        Map<String, String[]> map = SearchUtils.getExtraParams(request.getParameterMap());
+        map.remove("apiKey");
+        map.remove("stream");
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("occurrence search stream params = " + requestParams + " extra params = " + map);
+        }
+
+        Consumer<List<OccurrenceIndex>> update = null;
+        if (lookupImageMetadata) {
+            update = batch -> {
+                List<String> occurrenceIDs = new ArrayList<String>();
+                for (OccurrenceIndex oi : batch) {
+                    occurrenceIDs.add(oi.getUuid());
+                }
+                try {
+                    Map<String, List<Map<String, Object>>> imageMap = imageMetadataService.getImageMetadataForOccurrences(occurrenceIDs);
+                    for (OccurrenceIndex oi : batch) {
+                        oi.setImageMetadata(imageMap.get(oi.getUuid()));
+                    }
+                } catch (Exception e) {
+                    logger.warn("Unable to get image metadata: " + e.getMessage());
+                }
+            };
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        try (JsonGenerator json = SearchUtils.RESULT_MAPPER.getFactory().createGenerator(new CloseShieldOutputStream(response.getOutputStream()))) {
+            searchDAO.writeResultsToStream(requestParams, includeSensitive, map, json, update);
+        }
+    }
+
     public @ResponseBody
     SearchResultDTO occurrenceSearchSensitive(SpatialSearchRequestParams requestParams,
                                               @RequestParam(value = "apiKey", required = true) String apiKey,
@@ -922,11 +994,36 @@ public class OccurrenceController extends AbstractSecureController {
                 facetConfig, indexDao.getIndexedFields(), facetsMax, facetsDefaultMax, facetDefault);
 
         cacheManager.getCacheNames().forEach((String cacheName) -> cacheManager.getCache(cacheName).clear());
+        wmsTileCache.clear();
+        taxonRangeResolver.clear();
+        searchResponseCache.clear();
+        searchDAO.clearBreakdownLevelCache();
 
         regenerateETag();
         return null;
     }
 
+    /**
+     * Hit, miss and eviction counts of the in memory caches, and the number of offline downloads streaming from the
+     * index
+     *
+     * @return
+     */
+    @RequestMapping(value = {"/cache/stats"}, method = RequestMethod.GET)
+    public @ResponseBody
+    Map<String, Object> cacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("qid", qidCacheDao.getCacheStats());
+        stats.put("wmsTile", wmsTileCache.getStats());
+        stats.put("taxonRange", taxonRangeResolver.getCacheStats());
+        stats.put("search", searchResponseCache.getStats());
+        stats.put("solrCoalescing", indexDao.getCoalescingStats());
+        stats.put("breakdownLevel", searchDAO.getBreakdownLevelCacheStats());
+        stats.put("rateLimit", getRateLimiter().getStats());
+        stats.put("streamingDownloads", downloadService.getStreamingDownloadCount());
+        return stats;
+    }
+
     /**
      * Regenerate the ETag after clearing the cache so that cached responses are identified as out of date
      */
@@ -1501,6 +1598,76 @@ public class OccurrenceController extends AbstractSecureController {
         return null;
     }
 
+    /**
+     * Occurrence records for a list of ids.
+     * <p>
+     * The records are requested from SOLR in batches and written as JSON in the order of the ids as they are mapped,
+     * followed by the ids that were not found. Records are the same as /occurrence/{uuid}.
+     *
+     * @param ids    occurrence ids separated by commas or white space
+     * @param apiKey include sensitive values when it is valid
+     * @param im     include image metadata unless false
+     * @throws Exception
+     */
+    @RequestMapping(value = {"/occurrences/ids", "/occurrences/ids.json"}, method = {RequestMethod.GET, RequestMethod.POST})
+    public void showOccurrences(@RequestParam(value = "ids") String ids,
+                                @RequestParam(value = "apiKey", required = false) String apiKey,
+                                @RequestParam(value = "im", required = false) String im,
+                                HttpServletRequest request, HttpServletResponse response) throws Exception {
+        List<String> idList = Arrays.stream(ids.split("[,\\s]+"))
+                .filter(StringUtils::isNotEmpty)
+                .distinct()
+                .collect(Collectors.toList());
+        if (idList.size() > occurrenceIdsMax) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Too many ids, the maximum is " + occurrenceIdsMax);
+            return;
+        }
+
+        boolean includeSensitive = false;
+        if (apiKey != null) {
+            if (!shouldPerformOperation(apiKey, response)) {
+                return;
+            }
+            includeSensitive = true;
+        }
+
+        SolrDocumentList sdl = idList.isEmpty() ? new SolrDocumentList() : searchDAO.findByIds(idList, "*");
+
+        // one pass over all of the records so that each value is substituted once
+        Map<String, SolrDocument> records = new HashMap<>();
+        Map<String, String> emails = new HashMap<>();
+        Map<String, String> displayNames = new HashMap<>();
+        for (SolrDocument sd : sdl) {
+            records.put(String.valueOf(sd.getFieldValue(OccurrenceIndex.ID)), substituteUserDetails(sd, emails, displayNames));
+        }
+
+        if (occurrenceLogEnabled && !sdl.isEmpty()) {
+            logViewEvent(getIPAddress(request), sdl, getUserAgent(request), null, "Viewing Occurrence Records");
+        }
+
+        Set<String> schemaFields = indexDao.getSchemaFields();
+        boolean includeImageMetadata = (im == null || !im.equalsIgnoreCase("false"));
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        try (JsonGenerator json = SearchUtils.RESULT_MAPPER.getFactory().createGenerator(new CloseShieldOutputStream(response.getOutputStream()))) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("occurrences");
+            List<String> notFound = new ArrayList<>();
+            for (String id : idList) {
+                SolrDocument sd = records.get(id);
+                if (sd == null) {
+                    notFound.add(id);
+                } else {
+                    json.writeObject(mapAsFullRecord(sd, includeImageMetadata, includeSensitive, schemaFields));
+                }
+            }
+            json.writeEndArray();
+            json.writeObjectField("notFound", notFound);
+            json.writeEndObject();
+        }
+    }
+
     private Object getOccurrenceInformation(String uuid, String im, HttpServletRequest request,
                                             boolean includeSensitive) throws Exception {
         logger.debug("Retrieving occurrence record with guid: '" + uuid + "'");
@@ -1517,9 +1684,30 @@ public class OccurrenceController extends AbstractSecureController {
             return null;
         }
 
-        SolrDocument sd = sdl.get(0);
+        SolrDocument sd = substituteUserDetails(sdl.get(0), new HashMap<>(), new HashMap<>());
+
+        if (occurrenceLogEnabled) {
+            //log the statistics for viewing the record
+            logViewEvent(ip, sd, getUserAgent(request), null, "Viewing Occurrence Record " + uuid);
+        }
+
+        boolean includeImageMetadata = (im == null || !im.equalsIgnoreCase("false"));
+        return mapAsFullRecord(sd, includeImageMetadata, includeSensitive);
+    }
 
-        // obscure email addresses, or anything else containing @
+    /**
+     * Obscure email addresses, or anything else containing @, and replace user ids with display names.
+     * <p>
+     * Search results are shared with concurrent and cached requests so the record is copied before it is changed.
+     *
+     * @param sd           record, not changed
+     * @param emails       substituted values by value, shared by the records of a request so each value is
+     *                     substituted once
+     * @param displayNames display names by user id, shared by the records of a request
+     * @return the record, or a copy with the substituted values
+     */
+    private SolrDocument substituteUserDetails(SolrDocument sd, Map<String, String> emails, Map<String, String> displayNames) {
+        SolrDocument substituted = sd;
         Set<String> keys = new HashSet<>();
         keys.addAll(sd.keySet());
         for (String key : keys) {
@@ -1536,16 +1724,17 @@ public class OccurrenceController extends AbstractSecureController {
                             String v = list[i];
                             if (value.toString().contains("@")) {
                                 //multivalue fields; collector_text, collectors
-                                list[i] = authService.substituteEmailAddress(value.toString());
+                                list[i] = emails.computeIfAbsent(value.toString(), authService::substituteEmailAddress);
                                 changed = true;
                             } else if (key.contains("user_id")) {
                                 //multivalue fields; assertion_user_id
-                                list[i] = authService.getDisplayNameFor(v);
+                                list[i] = displayNames.computeIfAbsent(v, authService::getDisplayNameFor);
                                 changed = true;
                             }
                         }
                         if (changed) {
-                            sd.setField(key, JSONArray.fromObject(list).toString());
+                            substituted = copyOf(sd, substituted);
+                            substituted.setField(key, JSONArray.fromObject(list).toString());
                         }
                     } catch (Exception e) {
                         notJson = true;
@@ -1556,21 +1745,28 @@ public class OccurrenceController extends AbstractSecureController {
                             && (key.contains("recorded")
                             || key.startsWith("_")
                             || key.contains("collector"))) {
-                        sd.setField(key, authService.substituteEmailAddress(value.toString()));
+                        substituted = copyOf(sd, substituted);
+                        substituted.setField(key, emails.computeIfAbsent(value.toString(), authService::substituteEmailAddress));
                     } else if (value instanceof String && key.contains("user_id")) {
-                        sd.setField(key, authService.getDisplayNameFor(value.toString()));
+                        substituted = copyOf(sd, substituted);
+                        substituted.setField(key, displayNames.computeIfAbsent(value.toString(), authService::getDisplayNameFor));
                     }
                 }
             }
         }
+        return substituted;
+    }
 
-        if (occurrenceLogEnabled) {
-            //log the statistics for viewing the record
-            logViewEvent(ip, sd, getUserAgent(request), null, "Viewing Occurrence Record " + uuid);
+    /**
+     * @return substituted, or a copy of sd when it has not been copied yet
+     */
+    private static SolrDocument copyOf(SolrDocument sd, SolrDocument substituted) {
+        if (substituted != sd) {
+            return substituted;
         }
-
-        boolean includeImageMetadata = (im == null || !im.equalsIgnoreCase("false"));
-        return mapAsFullRecord(sd, includeImageMetadata, includeSensitive);
+        SolrDocument copy = new SolrDocument();
+        copy.putAll(sd);
+        return copy;
     }
 
     private boolean isSensitive(SolrDocument doc) {
@@ -1583,8 +1779,10 @@ public class OccurrenceController extends AbstractSecureController {
      * @return
      */
     private Map mapAsFullRecord(SolrDocument sd, Boolean includeImageMetadata, Boolean includeSensitive) throws Exception {
+        return mapAsFullRecord(sd, includeImageMetadata, includeSensitive, indexDao.getSchemaFields());
+    }
 
-        Set<String> schemaFields = indexDao.getSchemaFields();
+    private Map mapAsFullRecord(SolrDocument sd, Boolean includeImageMetadata, Boolean includeSensitive, Set<String> schemaFields) throws Exception {
 
         Map map = new LinkedHashMap();
         Map raw = fullRecord(sd, (String fieldName) -> schemaFields.contains(RAW_FIELD_PREFIX + fieldName) ? (RAW_FIELD_PREFIX + fieldName) : fieldName);
@@ -2303,30 +2501,21 @@ public class OccurrenceController extends AbstractSecureController {
     }
 
     private void logViewEvent(String ip, SolrDocument occ, String userAgent, String email, String reason) {
+        logViewEvent(ip, Collections.singletonList(occ), userAgent, email, reason);
+    }
+
+    private void logViewEvent(String ip, Collection<SolrDocument> occs, String userAgent, String email, String reason) {
         //String ip = request.getLocalAddr();
         ConcurrentMap<String, AtomicInteger> uidStats = new ConcurrentHashMap<>();
 
-        String collectionUid;
-        String institutionUid;
-        String dataProviderUid;
-        String dataResourceUid;
-
-        collectionUid = (String) occ.getFieldValue(OccurrenceIndex.COLLECTION_UID);
-        institutionUid = (String) occ.getFieldValue(OccurrenceIndex.INSTITUTION_UID);
-        dataProviderUid = (String) occ.getFieldValue(OccurrenceIndex.DATA_PROVIDER_UID);
-        dataResourceUid = (String) occ.getFieldValue(OccurrenceIndex.DATA_RESOURCE_UID);
-
-        if (StringUtils.isNotEmpty(collectionUid)) {
-            uidStats.put(collectionUid, new AtomicInteger(1));
-        }
-        if (StringUtils.isNotEmpty(institutionUid)) {
-            uidStats.put(institutionUid, new AtomicInteger(1));
-        }
-        if (StringUtils.isNotEmpty(dataProviderUid)) {
-            uidStats.put(dataProviderUid, new AtomicInteger(1));
-        }
-        if (StringUtils.isNotEmpty(dataResourceUid)) {
-            uidStats.put(dataResourceUid, new AtomicInteger(1));
+        for (SolrDocument occ : occs) {
+            for (String uidField : new String[]{OccurrenceIndex.COLLECTION_UID, OccurrenceIndex.INSTITUTION_UID,
+                    OccurrenceIndex.DATA_PROVIDER_UID, OccurrenceIndex.DATA_RESOURCE_UID}) {
+                String uid = (String) occ.getFieldValue(uidField);
+                if (StringUtils.isNotEmpty(uid)) {
+                    uidStats.computeIfAbsent(uid, k -> new AtomicInteger()).incrementAndGet();
+                }
+            }
         }
 
         //remove header entries from uidStats
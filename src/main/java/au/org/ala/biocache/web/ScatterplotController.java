@@ -4,20 +4,25 @@ import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.IndexFieldDTO;
 import au.org.ala.biocache.dto.SpatialSearchRequestParams;
-import au.org.ala.biocache.stream.ScatterplotSearch;
+import au.org.ala.biocache.stream.ScatterplotGrid;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartRenderingInfo;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.encoders.EncoderUtil;
 import org.jfree.chart.encoders.ImageFormat;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.LookupPaintScale;
+import org.jfree.chart.renderer.PaintScale;
+import org.jfree.chart.renderer.xy.XYBlockRenderer;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
+import org.jfree.data.xy.DefaultXYZDataset;
 import org.jfree.ui.RectangleEdge;
-import org.locationtech.jts.math.Vector2D;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -31,7 +36,6 @@ import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This controller is responsible for providing basic scatterplot services.
@@ -45,6 +49,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  * - title, string default query-display-name
  * - pointcolour, colour as RGB string like FF0000 for red, default 0000FF
  * - pointradius, double default 3
+ * <p>
+ * Occurrences are counted in a grid with a cell for each pixel of the image. When there are more than
+ * scatterplot.points.max distinct x,y values the grid is drawn as a density raster instead of points.
  */
 @Controller
 public class ScatterplotController {
@@ -56,6 +63,7 @@ public class ScatterplotController {
     private final static String DEFAULT_SCATTERPLOT_WIDTH = "256";
     private final static String DEFAULT_SCATTERPLOT_POINTCOLOUR = "0000FF";
     private final static String DEFAULT_SCATTERPLOT_POINTRADIUS = "3";
+    private final static int DENSITY_COLOUR_STEPS = 16;
     private final static List<String> VALID_DATATYPES = Arrays.asList("float", "double", "int", "long", "tfloat", "tdouble", "tint", "tlong");
 
     @Inject
@@ -63,6 +71,12 @@ public class ScatterplotController {
     @Inject
     protected IndexDAO indexDao;
 
+    /**
+     * max number of distinct x,y values to draw as points. Larger results are drawn as a density raster.
+     */
+    @Value("${scatterplot.points.max:10000}")
+    protected int scatterplotPointsMax = 10000;
+
     @RequestMapping(value = {"/scatterplot"}, method = RequestMethod.GET)
     public void scatterplot(SpatialSearchRequestParams requestParams,
                             @RequestParam(value = "x", required = true) String x,
@@ -74,7 +88,7 @@ public class ScatterplotController {
                             @RequestParam(value = "pointradius", required = false, defaultValue = DEFAULT_SCATTERPLOT_POINTRADIUS) Double pointradius,
                             HttpServletResponse response) throws Exception {
 
-        JFreeChart jChart = makeScatterplot(requestParams, x, y, title, pointcolour, pointradius);
+        JFreeChart jChart = makeScatterplot(requestParams, x, y, title, pointcolour, pointradius, width, height);
 
         //produce image
         ChartRenderingInfo chartRenderingInfo = new ChartRenderingInfo();
@@ -104,7 +118,7 @@ public class ScatterplotController {
                                     @RequestParam(value = "pointx2", required = true) Integer pointx2,
                                     @RequestParam(value = "pointy2", required = true) Integer pointy2) throws Exception {
 
-        JFreeChart jChart = makeScatterplot(requestParams, x, y, title, "000000", 1.0);
+        JFreeChart jChart = makeScatterplot(requestParams, x, y, title, "000000", 1.0, width, height);
 
         //produce image
         ChartRenderingInfo chartRenderingInfo = new ChartRenderingInfo();
@@ -113,10 +127,10 @@ public class ScatterplotController {
         XYPlot plot = (XYPlot) jChart.getPlot();
 
         //identify point range across x and y
-        double tx1 = plot.getRangeAxis().java2DToValue(pointx1, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.BOTTOM);
-        double tx2 = plot.getRangeAxis().java2DToValue(pointx2, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.BOTTOM);
-        double ty1 = plot.getDomainAxis().java2DToValue(pointy1, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.LEFT);
-        double ty2 = plot.getDomainAxis().java2DToValue(pointy2, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.LEFT);
+        double tx1 = plot.getDomainAxis().java2DToValue(pointx1, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.BOTTOM);
+        double tx2 = plot.getDomainAxis().java2DToValue(pointx2, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.BOTTOM);
+        double ty1 = plot.getRangeAxis().java2DToValue(pointy1, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.LEFT);
+        double ty2 = plot.getRangeAxis().java2DToValue(pointy2, chartRenderingInfo.getPlotInfo().getDataArea(), RectangleEdge.LEFT);
         double x1 = Math.min(tx1, tx2);
         double x2 = Math.max(tx1, tx2);
         double y1 = Math.min(ty1, ty2);
@@ -133,8 +147,8 @@ public class ScatterplotController {
         return map;
     }
 
-    JFreeChart makeScatterplot(SpatialSearchRequestParams requestParams, String x, String y
-            , String title, String pointcolour, Double pointradius) throws Exception {
+    JFreeChart makeScatterplot(SpatialSearchRequestParams requestParams, String x, String y, String title,
+                                String pointcolour, Double pointradius, int width, int height) throws Exception {
         //verify x and y are numerical and stored
         String displayNameX = null;
         String displayNameY = null;
@@ -145,50 +159,63 @@ public class ScatterplotController {
 
         // format query
         requestParams.setFlimit(-1);
+        double[] bounds = searchDAO.getRange(requestParams, x, y);
+        if (bounds == null) {
+            throw new Exception("No valid records found for these input parameters");
+        }
         SolrQuery query = searchDAO.initSolrQuery(requestParams, false, null);
 
         // set parameters for streaming a facet query
         query.set("facet.field", x + "," + y);
         query.setFacetSort(x + " asc," + y + " asc");
 
-        Set<Vector2D> vectors = new HashSet<>();
-        AtomicInteger count = new AtomicInteger();
-        ScatterplotSearch proc = new ScatterplotSearch(vectors, x, y, count);
+        // one grid cell for each pixel of the image
+        ScatterplotGrid grid = new ScatterplotGrid(x, y, bounds, width, height, scatterplotPointsMax);
 
         try {
-            indexDao.streamingQuery(query, null, proc, null);
+            indexDao.streamingQuery(query, null, grid, null);
         } catch (Exception e) {
             logger.error("scatterplot failed", e);
         }
 
-        if (count.get() == 0) {
+        if (grid.getCount() == 0) {
             throw new Exception("No valid records found for these input parameters");
         }
 
-        // copy vectors to array
-        double[][] data = new double[2][vectors.size()];
-        int i = 0;
-        for (Vector2D v : vectors) {
-            data[0][i] = v.getX();
-            data[1][i] = v.getY();
-            i++;
-        }
-
-        //create dataset
-        DefaultXYDataset xyDataset = new DefaultXYDataset();
-        xyDataset.addSeries("series", data);
+        Color c = new Color(Integer.parseInt(pointcolour, 16));
 
         //create chart
-        JFreeChart jChart = ChartFactory.createScatterPlot(
-                title.equals(" ") ? requestParams.getDisplayString() : title //chart display name
-                , displayNameX //x-axis display name
-                , displayNameY //y-axis display name
-                , xyDataset
-                , PlotOrientation.HORIZONTAL, false, false, false);
+        XYPlot plot;
+        if (grid.hasPoints()) {
+            DefaultXYDataset xyDataset = new DefaultXYDataset();
+            xyDataset.addSeries("series", grid.getPoints());
+
+            plot = new XYPlot(xyDataset, new NumberAxis(displayNameX), new NumberAxis(displayNameY), new XYLineAndShapeRenderer(false, true));
+
+            //point shape and colour
+            plot.getRenderer().setSeriesPaint(0, c);
+            plot.getRenderer().setSeriesShape(0, new Ellipse2D.Double(-pointradius, -pointradius, pointradius * 2, pointradius * 2));
+        } else {
+            // density raster, too many distinct values for exact points
+            DefaultXYZDataset xyzDataset = new DefaultXYZDataset();
+            xyzDataset.addSeries("series", grid.getCells());
+
+            XYBlockRenderer renderer = new XYBlockRenderer();
+            renderer.setBlockWidth(grid.getCellWidth());
+            renderer.setBlockHeight(grid.getCellHeight());
+            renderer.setPaintScale(densityPaintScale(c, grid.getMaxCellCount()));
+
+            plot = new XYPlot(xyzDataset, new NumberAxis(displayNameX), new NumberAxis(displayNameY), renderer);
+        }
+        ((NumberAxis) plot.getDomainAxis()).setAutoRangeIncludesZero(false);
+        ((NumberAxis) plot.getRangeAxis()).setAutoRangeIncludesZero(false);
+        plot.setOrientation(PlotOrientation.VERTICAL);
+
+        JFreeChart jChart = new JFreeChart(title.equals(" ") ? requestParams.getDisplayString() : title //chart display name
+                , JFreeChart.DEFAULT_TITLE_FONT, plot, false);
         jChart.setBackgroundPaint(Color.white);
 
         //styling
-        XYPlot plot = (XYPlot) jChart.getPlot();
         Font axisfont = new Font("Arial", Font.PLAIN, 10);
         Font titlefont = new Font("Arial", Font.BOLD, 11);
         plot.getDomainAxis().setLabelFont(axisfont);
@@ -198,14 +225,24 @@ public class ScatterplotController {
         plot.setBackgroundPaint(new Color(220, 220, 220));
         jChart.getTitle().setFont(titlefont);
 
-        //point shape and colour
-        Color c = new Color(Integer.parseInt(pointcolour, 16));
-        plot.getRenderer().setSeriesPaint(0, c);
-        plot.getRenderer().setSeriesShape(0, new Ellipse2D.Double(-pointradius, -pointradius, pointradius * 2, pointradius * 2));
-
         return jChart;
     }
 
+    /**
+     * Paint scale for occurrence counts from the point colour. The alpha increases with the log of the count so that
+     * cells with few occurrences remain visible.
+     */
+    PaintScale densityPaintScale(Color c, long maxCount) {
+        double upper = Math.max(2, maxCount + 1);
+        LookupPaintScale scale = new LookupPaintScale(1, upper, c);
+        for (int i = 0; i < DENSITY_COLOUR_STEPS; i++) {
+            double value = Math.exp(Math.log(upper) * i / DENSITY_COLOUR_STEPS);
+            int alpha = 64 + (255 - 64) * i / (DENSITY_COLOUR_STEPS - 1);
+            scale.add(value, new Color(c.getRed(), c.getGreen(), c.getBlue(), alpha));
+        }
+        return scale;
+    }
+
     /**
      * Get the description of the fieldName provided or throw an Exception.
      *
@@ -32,7 +32,6 @@ import org.geotools.geometry.GeneralDirectPosition;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.DefaultCoordinateOperationFactory;
 import org.opengis.geometry.DirectPosition;
-import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.referencing.crs.CRSAuthorityFactory;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.CoordinateOperation;
@@ -50,6 +49,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -211,6 +211,9 @@ public class WMSController extends AbstractSecureController {
     @Inject
     protected WMSOSGridController wmsosGridController;
 
+    @Inject
+    protected WmsTileCache wmsTileCache;
+
     static {
         // cache blank image bytes
         byte[] b = null;
@@ -1325,6 +1328,15 @@ public class WMSController extends AbstractSecureController {
                     "Missing valid BBOX parameter");
         }
 
+        // tiles are unchanged until the index version or wmsETag changes
+        boolean useTileCache = wmsTileCache.isEnabled() && !"off".equalsIgnoreCase(cache);
+        String eTag = wmsTileCache.eTag(wmsETag.get());
+        if (useTileCache && WmsTileCache.matches(request.getHeader("If-None-Match"), eTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+        response.setHeader("ETag", eTag);
+
         // Used to hide certain values from the layer
         Set<Integer> hiddenFacets = new HashSet<Integer>();
         if (hqs != null && hqs.length > 0) {
@@ -1346,6 +1358,21 @@ public class WMSController extends AbstractSecureController {
             }
         }
 
+        // format the query -  this will deal with radius / wkt
+        queryFormatUtils.formatSearchQuery(requestParams, true);
+
+        // rendered tile cache
+        String tileKey = null;
+        if (useTileCache) {
+            tileKey = wmsTileCache.key(requestParams.getFormattedQuery(), requestParams.getFormattedFq(), env, styles,
+                    srs, bboxString, width, height, outlinePoints, outlineColour, hiddenFacets, gridDivisionCount);
+            byte[] png = wmsTileCache.get(tileKey);
+            if (png != null) {
+                writeTile(response, png);
+                return null;
+            }
+        }
+
         double[] bbox = reprojectBBox(tilebbox, srs);
 
         boolean isGrid = vars.colourMode.equals("grid");
@@ -1355,9 +1382,6 @@ public class WMSController extends AbstractSecureController {
 
         float pointWidth = (float) (vars.size * 2);
 
-        // format the query -  this will deal with radius / wkt
-        queryFormatUtils.formatSearchQuery(requestParams, true);
-
         //retrieve legend
         List<LegendItem> legend = searchDAO.getColours(requestParams, vars.colourMode);
 
@@ -1372,19 +1396,23 @@ public class WMSController extends AbstractSecureController {
         // 1. map all facets
         // 2. nominate facets to hide
         // As the heatmapDTO is cached no additional SOLR requests are required when only adding hiddenFacets (HQ)
+        if (heatmapDTO.layers == null) {
+            cacheTile(tileKey, blankImageBytes);
+            displayBlankImage(response);
+            return null;
+        }
+
+        // hide layers on a copy, the cached heatmapDTO is shared
+        List<int[]> layers = heatmapDTO.layers;
         if (hiddenFacets != null) {
+            layers = new ArrayList<>(layers);
             for (Integer hf : hiddenFacets) {
-                if (hf < heatmapDTO.layers.size()) {
-                    heatmapDTO.layers.set(hf, null);
+                if (hf < layers.size()) {
+                    layers.set(hf, null);
                 }
             }
         }
 
-        if (heatmapDTO.layers == null) {
-            displayBlankImage(response);
-            return null;
-        }
-
         // circles from uncertainty distances or requested highlight
         HeatmapDTO circlesHeatmap = getCirclesHeatmap(vars, bbox, requestParams, width, height, pointWidth);
 
@@ -1395,6 +1423,7 @@ public class WMSController extends AbstractSecureController {
 
         // render PNG...
         ImgObj tile = renderHeatmap(heatmapDTO,
+                layers,
                 vars,
                 (int) pointWidth,
                 outlinePoints,
@@ -1406,19 +1435,33 @@ public class WMSController extends AbstractSecureController {
 
         if (tile != null && tile.g != null) {
             tile.g.dispose();
-            try (ServletOutputStream outStream = response.getOutputStream();) {
-                response.setContentType("image/png");
-                ImageIO.write(tile.img, "png", outStream);
-                outStream.flush();
-            } catch (Exception e) {
-                logger.debug("Unable to write image", e);
-            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(tile.img, "png", png);
+            cacheTile(tileKey, png.toByteArray());
+            writeTile(response, png.toByteArray());
         } else {
+            cacheTile(tileKey, blankImageBytes);
             displayBlankImage(response);
         }
         return null;
     }
 
+    private void cacheTile(String tileKey, byte[] png) {
+        if (tileKey != null && png != null) {
+            wmsTileCache.put(tileKey, png);
+        }
+    }
+
+    private void writeTile(HttpServletResponse response, byte[] png) {
+        try (ServletOutputStream outStream = response.getOutputStream();) {
+            response.setContentType("image/png");
+            outStream.write(png);
+            outStream.flush();
+        } catch (Exception e) {
+            logger.debug("Unable to write image", e);
+        }
+    }
+
     /**
      * Get HeatmapDTO of the circles that occur around the mapped points.
      * <p>
@@ -1778,18 +1821,17 @@ public class WMSController extends AbstractSecureController {
     }
 
 
-    private ImgObj renderHeatmap(HeatmapDTO heatmapDTO,
-                                 WmsEnv vars,
-                                 float pointWidth,
-                                 boolean outlinePoints,
-                                 String outlineColour,
-                                 int tileWidthInPx,
-                                 int tileHeightInPx, CoordinateOperation transformFrom4326, double[] tilebbox,
-                                 HeatmapDTO cirlesHeatmap
+    ImgObj renderHeatmap(HeatmapDTO heatmapDTO,
+                         List<int[]> layers,
+                         WmsEnv vars,
+                         float pointWidth,
+                         boolean outlinePoints,
+                         String outlineColour,
+                         int tileWidthInPx,
+                         int tileHeightInPx, CoordinateOperation transformFrom4326, double[] tilebbox,
+                         HeatmapDTO cirlesHeatmap
     ) {
 
-        List<List<List<Integer>>> layers = heatmapDTO.layers;
-
         if (layers.isEmpty()) {
             return null;
         }
@@ -1800,10 +1842,12 @@ public class WMSController extends AbstractSecureController {
 
         ImgObj imgObj = ImgObj.create((int) (tileWidthInPx), (int) (tileHeightInPx));
 
+        TileProjection projection = new TileProjection(transformFrom4326.getMathTransform(), tilebbox, tileWidthInPx, tileHeightInPx);
+
         int layerIdx = 0;
 
         // render layers remainder
-        for (List<List<Integer>> rows : layers) {
+        for (int[] grid : layers) {
             if (heatmapDTO.legend != null && heatmapDTO.legend.get(layerIdx) != null && heatmapDTO.legend.get(layerIdx).isRemainder()) {
                 renderLayer(heatmapDTO,
                         vars,
@@ -1811,11 +1855,9 @@ public class WMSController extends AbstractSecureController {
                         outlinePoints,
                         outlineColour,
                         true,
-                        (float) tileWidthInPx,
-                        (float) tileHeightInPx,
                         imgObj,
                         layerIdx,
-                        rows, transformFrom4326, tilebbox);
+                        grid, projection);
             }
             layerIdx++;
         }
@@ -1823,7 +1865,7 @@ public class WMSController extends AbstractSecureController {
         layerIdx = 0;
 
         // render layers
-        for (List<List<Integer>> rows : layers) {
+        for (int[] grid : layers) {
             if (heatmapDTO.legend == null || heatmapDTO.legend.get(layerIdx) == null || !heatmapDTO.legend.get(layerIdx).isRemainder()) {
                 renderLayer(heatmapDTO,
                         vars,
@@ -1831,11 +1873,9 @@ public class WMSController extends AbstractSecureController {
                         outlinePoints,
                         outlineColour,
                         true,
-                        (float) tileWidthInPx,
-                        (float) tileHeightInPx,
                         imgObj,
                         layerIdx,
-                        rows, transformFrom4326, tilebbox);
+                        grid, projection);
             }
             layerIdx++;
         }
@@ -1844,8 +1884,8 @@ public class WMSController extends AbstractSecureController {
         if (cirlesHeatmap != null && cirlesHeatmap.layers != null) {
             layerIdx = 0;
             try {
-                for (List<List<Integer>> rows : cirlesHeatmap.layers) {
-                    if (rows != null) {
+                for (int[] grid : cirlesHeatmap.layers) {
+                    if (grid != null) {
                         // approximate conversion of meters to decimal degrees (1:100000) followed by conversion to pixels
                         double dist = cirlesHeatmap.legend.get(layerIdx).getCount();    // count value is the radius in meters for the circle.
                         int circleWidthInPixels = (int) pointWidth + HIGHLIGHT_RADIUS;  // count==0 indicates that a highlight circle is required.
@@ -1870,13 +1910,10 @@ public class WMSController extends AbstractSecureController {
                                 true,
                                 colour,
                                 false,
-                                (float) tileWidthInPx,
-                                (float) tileHeightInPx,
                                 imgObj,
                                 layerIdx,
-                                rows,
-                                transformFrom4326,
-                                tilebbox
+                                grid,
+                                projection
                         );
                     }
                     layerIdx++;
@@ -1889,151 +1926,174 @@ public class WMSController extends AbstractSecureController {
         return imgObj;
     }
 
-    private void renderLayer(HeatmapDTO heatmapDTO, WmsEnv vars, float pointWidth, boolean outlinePoints, String outlineColour, boolean drawPointFill,
-                             float tileWidthInPx,
-                             float tileHeightInPx, ImgObj imgObj, int layerIdx, List<List<Integer>> rows, CoordinateOperation transformFrom4326, double[] tilebbox) {
+    /**
+     * Render one heatmap layer.
+     * <p>
+     * The pixels of the heatmap rows and columns are projected once for the layer rather than for each cell, unless
+     * the tile SRS is not separable into longitude and latitude.
+     */
+    void renderLayer(HeatmapDTO heatmapDTO, WmsEnv vars, float pointWidth, boolean outlinePoints, String outlineColour, boolean drawPointFill,
+                     ImgObj imgObj, int layerIdx, int[] grid, TileProjection projection) {
 
-        if (rows != null && !rows.isEmpty()) {
+        if (grid == null || heatmapDTO.rows == null || heatmapDTO.columns == null) {
+            return;
+        }
 
-            final int numberOfRows = rows.size();
+        final int numberOfRows = heatmapDTO.rows;
+        final int numberOfColumns = heatmapDTO.columns;
+        final boolean isGrid = heatmapDTO.gridSizeInPixels > 1;
 
-            // heatmap cell size
-            double cellWidth = heatmapDTO.columnWidth();
-            double cellHeight = heatmapDTO.rowHeight();
+        // heatmap cell size
+        double cellWidth = heatmapDTO.columnWidth();
+        double cellHeight = heatmapDTO.rowHeight();
 
-            Color oColour = Color.decode(outlineColour);
+        Color oColour = Color.decode(outlineColour);
 
-            // default colour
-            Paint currentFill = null;
+        // default colour
+        Paint currentFill = null;
 
-            if (heatmapDTO.legend == null || heatmapDTO.legend.isEmpty()) {
-                currentFill = new Color(vars.colour);
-                imgObj.g.setPaint(currentFill);
-            }
+        if (heatmapDTO.legend == null || heatmapDTO.legend.isEmpty()) {
+            currentFill = new Color(vars.colour);
+            imgObj.g.setPaint(currentFill);
+        } else if (drawPointFill && !isGrid) {
+            currentFill = new Color(heatmapDTO.legend.get(layerIdx).getColour() | (vars.alpha << 24));
+            imgObj.g.setPaint(currentFill);
+        }
 
-            int rowStep = 1;
-            int columnStep = 1;
+        int rowStep = 1;
+        int columnStep = 1;
 
-            // determine if grid cells should be aggregated
-            if (heatmapDTO.gridSizeInPixels > 1) {
-                while (tileWidthInPx / (double) heatmapDTO.gridSizeInPixels < heatmapDTO.columns / columnStep) {
-                    columnStep++;
-                }
-                while (tileHeightInPx / (double) heatmapDTO.gridSizeInPixels < heatmapDTO.rows / rowStep) {
-                    rowStep++;
-                }
+        // determine if grid cells should be aggregated
+        if (isGrid) {
+            while (projection.getWidth() / (double) heatmapDTO.gridSizeInPixels < numberOfColumns / columnStep) {
+                columnStep++;
+            }
+            while (projection.getHeight() / (double) heatmapDTO.gridSizeInPixels < numberOfRows / rowStep) {
+                rowStep++;
             }
+        }
+
+        // Correct for date line (180 degree) issue that occurrs when tile extents
+        // differ from the heatmap extents by 360 degrees (minx > tileMaxx)
+        double minx = heatmapDTO.minx > heatmapDTO.tileMaxx ? heatmapDTO.minx - 360 : heatmapDTO.minx;
+
+        // grid cell edges or heatmap grid cell centres
+        double offset = isGrid ? 0 : 0.5;
+        double[] lngs = new double[numberOfColumns + columnStep + 1];
+        for (int column = 0; column < lngs.length; column++) {
+            lngs[column] = minx + cellWidth * (column + offset);
+        }
+        double[] lats = new double[numberOfRows + rowStep + 1];
+        for (int row = 0; row < lats.length; row++) {
+            lats[row] = heatmapDTO.maxy - cellHeight * (row + offset);
+        }
+
+        // make coordinates to match target SRS
+        int[] xs = null;
+        int[] ys = null;
+        if (projection.isSeparable(minx, heatmapDTO.miny, minx + cellWidth * numberOfColumns, heatmapDTO.maxy)) {
+            xs = projection.columnPixels(lngs, (heatmapDTO.miny + heatmapDTO.maxy) / 2);
+            ys = projection.rowPixels(lats, minx + cellWidth * numberOfColumns / 2);
+        }
+        int[] xy1 = new int[2];
+        int[] xy2 = new int[2];
+
+        Color[] gridColours = isGrid ? new Color[501] : null;
 
-            // heatmap contains counts of an underlying grid
-            for (int row = 0; row < numberOfRows; row += rowStep) {
-                // heatmap grid cell centre latitude
-                double lat = heatmapDTO.maxy - (cellHeight * (row + 0.5));
+        // heatmap contains counts of an underlying grid
+        for (int row = 0; row < numberOfRows; row += rowStep) {
+            int rowOffset = row * numberOfColumns;
 
-                List<Integer> columns = rows.get(row);
+            // render each column with a point
+            for (int column = 0; column < numberOfColumns; column += columnStep) {
 
-                if (columns != null) {
-                    // render each column with a point
-                    for (int column = 0; column < columns.size(); column += columnStep) {
+                int cellValue = grid[rowOffset + column];
 
-                        Integer cellValue = columns.get(column);
+                // aggregate grid cells
+                if (rowStep > 1 || columnStep > 1) {
+                    cellValue = 0;
+                    for (int r = 0; r < rowStep && row + r < numberOfRows; r++) {
+                        int o = (row + r) * numberOfColumns;
+                        for (int c = 0; c < columnStep && column + c < numberOfColumns; c++) {
+                            cellValue += grid[o + column + c];
+                        }
+                    }
+                }
+
+                if (cellValue <= 0) {
+                    continue;
+                }
+
+                if (isGrid) {
+                    int px1, py1, px2, py2;
+                    if (xs != null) {
+                        px1 = xs[column];
+                        py1 = ys[row + rowStep];
+                        px2 = xs[column + columnStep];
+                        py2 = ys[row];
+                    } else if (projection.pixel(lngs[column], lats[row + rowStep], xy1)
+                            && projection.pixel(lngs[column + columnStep], lats[row], xy2)) {
+                        px1 = xy1[0];
+                        py1 = xy1[1];
+                        px2 = xy2[0];
+                        py2 = xy2[1];
+                    } else {
+                        // failure to transform a coordinate will result in it not rendering
+                        continue;
+                    }
+                    if (px1 == TileProjection.INVALID || py1 == TileProjection.INVALID || px2 == TileProjection.INVALID || py2 == TileProjection.INVALID) {
+                        continue;
+                    }
 
-                        // aggregate grid cells
-                        if (rowStep > 1 || columnStep > 1) {
-                            cellValue = 0;
-                            for (int r = 0; r < rowStep && row + r < rows.size(); r++) {
-                                List<Integer> rw = rows.get(row + r);
-                                for (int c = 0; rw != null && c < columnStep && column + c < rw.size(); c++) {
-                                    cellValue += rw.get(column + c);
-                                }
-                            }
+                    int v = Math.min(cellValue, 500);
+                    if (drawPointFill) {
+                        if (gridColours[v] == null) {
+                            gridColours[v] = new Color((((500 - v) / 2) << 8) | (vars.alpha << 24) | 0x00FF0000);
                         }
+                        imgObj.g.setColor(gridColours[v]);
+                        imgObj.g.fillRect(
+                                Math.min(px1, px2),
+                                Math.min(py1, py2),
+                                Math.abs(px2 - px1),
+                                Math.abs(py2 - py1));
+                    }
+                    if (outlinePoints) {
+                        imgObj.g.setPaint(oColour);
+                        imgObj.g.drawRect(Math.min(px1, px2), Math.min(py1, py2), Math.abs(px2 - px1), Math.abs(py2 - py1));
+                    }
+                } else {
+                    int px, py;
+                    if (xs != null) {
+                        px = xs[column];
+                        py = ys[row];
+                    } else if (projection.pixel(lngs[column], lats[row], xy1)) {
+                        px = xy1[0];
+                        py = xy1[1];
+                    } else {
+                        // failure to transform a coordinate will result in it not rendering
+                        continue;
+                    }
+                    if (px == TileProjection.INVALID || py == TileProjection.INVALID) {
+                        continue;
+                    }
+
+                    if (drawPointFill) {
+                        imgObj.g.fillOval(
+                                px - (int) (pointWidth / 2),
+                                py - (int) (pointWidth / 2),
+                                (int) pointWidth,
+                                (int) pointWidth);
+                    }
 
-                        if (cellValue > 0) {
-                            try {
-                                if (heatmapDTO.gridSizeInPixels > 1) {
-                                    double minLat = heatmapDTO.maxy - (cellHeight * (row + rowStep));
-                                    double maxLat = heatmapDTO.maxy - (cellHeight * (row));
-                                    double minLng = heatmapDTO.minx + cellWidth * (column);
-                                    double maxLng = heatmapDTO.minx + cellWidth * (column + columnStep);
-
-                                    // Correct for date line (180 degree) issue that occurrs when tile extents
-                                    // differ from the heatmap extents by 360 degrees (minx > tileMaxx)
-                                    if (heatmapDTO.minx > heatmapDTO.tileMaxx) {
-                                        maxLng -= 360;
-                                        minLng -= 360;
-                                    }
-
-                                    // make coordinates to match target SRS
-                                    GeneralDirectPosition sourceCoordsBottomLeft = new GeneralDirectPosition(minLng, minLat);
-                                    GeneralDirectPosition sourceCoordsTopRight = new GeneralDirectPosition(maxLng, maxLat);
-                                    DirectPosition targetCoordsBottomLeft = transformFrom4326.getMathTransform().transform(sourceCoordsBottomLeft, null);
-                                    DirectPosition targetCoordsTopRight = transformFrom4326.getMathTransform().transform(sourceCoordsTopRight, null);
-                                    int px1 = scaleLongitudeForImage(targetCoordsBottomLeft.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                                    int py1 = scaleLatitudeForImage(targetCoordsBottomLeft.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
-                                    int px2 = scaleLongitudeForImage(targetCoordsTopRight.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                                    int py2 = scaleLatitudeForImage(targetCoordsTopRight.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
-
-                                    int v = cellValue;
-                                    if (v > 500) {
-                                        v = 500;
-                                    }
-                                    int colour = (((500 - v) / 2) << 8) | (vars.alpha << 24) | 0x00FF0000;
-                                    if (drawPointFill) {
-                                        imgObj.g.setColor(new Color(colour));
-                                        imgObj.g.fillRect(
-                                                Math.min(px1, px2),
-                                                Math.min(py1, py2),
-                                                Math.abs(px2 - px1),
-                                                Math.abs(py2 - py1));
-                                    }
-                                    if (outlinePoints) {
-                                        imgObj.g.setPaint(oColour);
-                                        imgObj.g.drawRect(Math.min(px1, px2), Math.min(py1, py2), Math.abs(px2 - px1), Math.abs(py2 - py1));
-                                    }
-                                } else {
-
-                                    // heatmap grid cell centre longitude
-                                    double lng = heatmapDTO.minx + cellWidth * (column + 0.5);
-
-                                    // Correct for date line (180 degree) that occurrs when tile extents differ from
-                                    // the heatmap extents by 360 degrees (minx > tileMaxx)
-                                    if (heatmapDTO.minx > heatmapDTO.tileMaxx) {
-                                        lng -= 360;
-                                    }
-
-                                    // make coordinates to match target SRS
-                                    GeneralDirectPosition sourceCoords = new GeneralDirectPosition(lng, lat);
-                                    DirectPosition targetCoords = transformFrom4326.getMathTransform().transform(sourceCoords, null);
-                                    int px = scaleLongitudeForImage(targetCoords.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                                    int py = scaleLatitudeForImage(targetCoords.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
-
-                                    if (drawPointFill) {
-                                        if (heatmapDTO.legend != null && !heatmapDTO.legend.isEmpty()) {
-                                            currentFill = new Color(heatmapDTO.legend.get(layerIdx).getColour() | (vars.alpha << 24));
-                                            imgObj.g.setPaint(currentFill);
-                                        }
-
-                                        imgObj.g.fillOval(
-                                                px - (int) (pointWidth / 2),
-                                                py - (int) (pointWidth / 2),
-                                                (int) pointWidth,
-                                                (int) pointWidth);
-                                    }
-
-                                    if (outlinePoints) {
-                                        imgObj.g.setPaint(oColour);
-                                        imgObj.g.drawOval(
-                                                px - (int) (pointWidth / 2),
-                                                py - (int) (pointWidth / 2),
-                                                (int) pointWidth,
-                                                (int) pointWidth);
-                                        imgObj.g.setPaint(currentFill);
-                                    }
-                                }
-                            } catch (MismatchedDimensionException e) {
-                            } catch (TransformException e) {
-                                // failure to transform a coordinate will result in it not rendering
-                            }
+                    if (outlinePoints) {
+                        imgObj.g.setPaint(oColour);
+                        imgObj.g.drawOval(
+                                px - (int) (pointWidth / 2),
+                                py - (int) (pointWidth / 2),
+                                (int) pointWidth,
+                                (int) pointWidth);
+                        if (currentFill != null) {
+                            imgObj.g.setPaint(currentFill);
                         }
                     }
                 }
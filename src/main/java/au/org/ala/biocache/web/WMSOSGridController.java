@@ -3,14 +3,19 @@ package au.org.ala.biocache.web;
 import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.*;
 import au.org.ala.biocache.util.*;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.geotools.geometry.GeneralDirectPosition;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.DefaultCoordinateOperationFactory;
 import org.opengis.geometry.DirectPosition;
+import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.CoordinateOperation;
+import org.opengis.referencing.operation.MathTransform;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -27,6 +32,7 @@ import java.awt.image.BufferedImage;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * WMS controller that supports OS grid rendering.
@@ -42,6 +48,20 @@ public class WMSOSGridController {
     @Inject
     protected WMSUtils wmsUtils;
 
+    /**
+     * grid sizes of the grid references probed by getFeatureInfo, finest first
+     */
+    private final static int[] GRID_SIZES = new int[]{100, 1000, 2000, 10000, 100000};
+
+    /**
+     * max number of grid references to keep the parsed grid cells for
+     */
+    @Value("${osgrid.cell.cache.size:100000}")
+    protected long gridCellCacheSize = 100000;
+
+    private volatile Cache<String, GridCell> gridCells;
+
+    private final Map<String, MathTransform> transforms = new ConcurrentHashMap<>();
 
     @RequestMapping(value = {"/osgrid/lookup.json"}, method = RequestMethod.GET)
     public @ResponseBody
@@ -81,11 +101,8 @@ public class WMSOSGridController {
     }
 
     /**
-     * Query for a record count at:
-     * - 100m grid, stopping if > 0
-     * - 1000m grid, stopping if > 0
-     * - 2000m grid, stopping if > 0
-     * - 10000m grid
+     * Query for the record counts at the 100m, 1000m, 2000m, 10000m and 100000m grids in one request and return the
+     * finest grid with records.
      *
      * @param requestParams
      * @param request
@@ -123,60 +140,23 @@ public class WMSOSGridController {
 
             Map<String, Object> map = new HashMap<String, Object>();
 
-            long count = getRecordCountForGridRef(requestParams, osGrid.getGridRef100(), 100, false);
-            if (count > 0) {
-                map.put("gridRef", osGrid.getGridRef100());
-                map.put("gridSize", 100);
-                map.put("recordCount", count);
-                map.put("filterQuery", getFilterQuery(osGrid.getGridRef100(), 100));
-            }
-            logger.info(osGrid.getGridRef100() + " = " + count);
-
-            if (count == 0) {
-                count = getRecordCountForGridRef(requestParams, osGrid.getGridRef1000(), 1000, true);
-                if (count > 0) {
-                    map.put("gridRef", osGrid.getGridRef1000());
-                    map.put("gridSize", 1000);
-                    map.put("recordCount", count);
-                    map.put("filterQuery", getFilterQuery(osGrid.getGridRef1000(), 1000));
-                }
-            }
-            logger.info(osGrid.getGridRef1000() + " = " + count);
-
-            if (count == 0) {
-                count = getRecordCountForGridRef(requestParams, osGrid.getGridRef2000(), 2000, true);
-                if (count > 0) {
-                    map.put("gridRef", osGrid.getGridRef2000());
-                    map.put("gridSize", 2000);
-                    map.put("recordCount", count);
-                    map.put("filterQuery", getFilterQuery(osGrid.getGridRef2000(), 2000));
-                }
-            }
-            logger.info(osGrid.getGridRef2000() + " = " + count);
-
-            if (count == 0) {
-                count = getRecordCountForGridRef(requestParams, osGrid.getGridRef10000(), 10000, true);
-                if (count > 0) {
-                    map.put("gridRef", osGrid.getGridRef10000());
-                    map.put("gridSize", 10000);
-                    map.put("recordCount", count);
-                    map.put("filterQuery", getFilterQuery(osGrid.getGridRef10000(), 10000));
-                }
-            }
-            logger.info(osGrid.getGridRef10000() + " = " + count);
+            String[] gridRefs = new String[]{osGrid.getGridRef100(), osGrid.getGridRef1000(), osGrid.getGridRef2000(),
+                    osGrid.getGridRef10000(), osGrid.getGridRef100000()};
+            long[] counts = getRecordCountsForGridRefs(requestParams, gridRefs);
 
-            if (count == 0) {
-                count = getRecordCountForGridRef(requestParams, osGrid.getGridRef100000(), 100000, true);
+            // the finest grid with records
+            long count = 0;
+            for (int i = 0; i < gridRefs.length && count == 0; i++) {
+                count = counts[i];
                 if (count > 0) {
-                    map.put("gridRef", osGrid.getGridRef100000());
-                    map.put("gridSize", 100000);
+                    map.put("gridRef", gridRefs[i]);
+                    map.put("gridSize", GRID_SIZES[i]);
                     map.put("recordCount", count);
-                    map.put("filterQuery", getFilterQuery(osGrid.getGridRef100000(), 100000));
+                    map.put("filterQuery", getFilterQuery(gridRefs[i], GRID_SIZES[i]));
                 }
+                logger.info(gridRefs[i] + " = " + count);
             }
 
-            logger.info(osGrid.getGridRef100000() + " = " + count);
-
             if (count > 0) {
                 int gridSize = (Integer) map.get("gridSize");
                 String gridRef = (String) map.get("gridRef");
@@ -208,48 +188,42 @@ public class WMSOSGridController {
     }
 
     /**
-     * Performs a quick count query for this query and grid reference.
+     * Performs one count query for this query and each grid reference.
      *
      * @param requestParams
-     * @param gridRef
-     * @param gridSize
-     * @param replaceLast
-     * @return
+     * @param gridRefs      grid references with the sizes of GRID_SIZES
+     * @return record count of each grid reference
      */
-    private long getRecordCountForGridRef(SpatialSearchRequestParams requestParams, String gridRef, int gridSize, boolean replaceLast) {
+    private long[] getRecordCountsForGridRefs(SpatialSearchRequestParams requestParams, String[] gridRefs) {
 
+        long[] counts = new long[gridRefs.length];
         try {
-            String fq = getFilterQuery(gridRef, gridSize);
-            logger.debug("New filter query to use for record count: " + fq);
-            if (replaceLast) {
-                String[] newFqs = new String[requestParams.getFq().length];
-                System.arraycopy(requestParams.getFq(), 0, newFqs, 0, requestParams.getFq().length);
-                newFqs[newFqs.length - 1] = fq;
-                requestParams.setFq(newFqs);
-            } else {
-                String[] newFqs = new String[requestParams.getFq().length + 1];
-                System.arraycopy(requestParams.getFq(), 0, newFqs, 0, requestParams.getFq().length);
-                newFqs[newFqs.length - 1] = fq;
-                requestParams.setFq(newFqs);
-            }
-
             requestParams.setLat(null);
             requestParams.setLon(null);
             requestParams.setFacet(false);
             requestParams.setPageSize(0);
             requestParams.setFormattedQuery(null);
 
+            // a query facet for each grid reference
+            ChartQueryPlanner planner = new ChartQueryPlanner(null, null);
+            int[] ids = new int[gridRefs.length];
+            for (int i = 0; i < gridRefs.length; i++) {
+                ids[i] = planner.addCount(getFilterQuery(gridRefs[i], GRID_SIZES[i]));
+            }
             logger.debug("FQs for record count: " + Arrays.toString(requestParams.getFq()));
 
-            SearchResultDTO resultDTO = searchDAO.findByFulltextSpatialQuery(requestParams, false, new HashMap<String, String[]>());
-            return resultDTO.getTotalRecords();
+            searchDAO.searchChart(requestParams, planner);
+
+            for (int i = 0; i < gridRefs.length; i++) {
+                counts[i] = planner.getCount(ids[i]);
+            }
         } catch (Exception e) {
-            logger.error("Problem with getRecordCountForGridRef request: " + e.getMessage());
+            logger.error("Problem with getRecordCountsForGridRefs request: " + e.getMessage());
             if (logger.isDebugEnabled()) {
                 logger.debug(e.getMessage(), e);
             }
-            return 0;
         }
+        return counts;
     }
 
     private String getFilterQuery(String gridRef, int gridSize) {
@@ -410,14 +384,9 @@ public class WMSOSGridController {
 
         WMSImg wmsImg = WMSImg.create(width, height);
 
-        requestParams.setFq(newFqs);
-        requestParams.setPageSize(0);
-        requestParams.setFacet(true);
-        requestParams.setFlimit(-1);
-        requestParams.setFacets(facets);
-
         Map<String, Integer> gridsRefs = new HashMap<String, Integer>();
 
+        // all grid_ref facets of the tile in one request
         SearchResultDTO resultsDTO2 = searchDAO.findByFulltextSpatialQuery(requestParams, false, new HashMap<String, String[]>());
         Collection<FacetResultDTO> results2 = resultsDTO2.getFacetResults();
         for (FacetResultDTO result : results2) {
@@ -502,13 +471,13 @@ public class WMSOSGridController {
 
         if (StringUtils.isEmpty(gridRef)) return new HashSet<int[]>();
 
-        GridRef gridRefOption = GridUtil.gridReferenceToEastingNorthing(gridRef);
+        GridCell cell = getGridCell(gridRef, targetSrs);
 
-        if (gridRefOption == null) return new HashSet<int[]>();
+        if (cell == null) return new HashSet<int[]>();
 
         Set<int[]> linesToRender = new HashSet<int[]>();
 
-        au.org.ala.biocache.util.GridRef gr = gridRefOption;
+        au.org.ala.biocache.util.GridRef gr = cell.gridRef;
 
         int easting = gr.getEasting();
         int northing = gr.getNorthing();
@@ -520,16 +489,7 @@ public class WMSOSGridController {
         Integer maxEastingOfGridCell = minEastingOfGridCell + gridSize;
         Integer maxNorthingOfGridCell = minNorthingOfGridCell + gridSize;
 
-        double[][] polygonInMercator = convertEastingNorthingToTargetSRS(
-                new double[][]{
-                        new double[]{minEastingOfGridCell, minNorthingOfGridCell},
-                        new double[]{maxEastingOfGridCell, minNorthingOfGridCell},
-                        new double[]{maxEastingOfGridCell, maxNorthingOfGridCell},
-                        new double[]{minEastingOfGridCell, maxNorthingOfGridCell},
-                },
-                gr.getDatum(),
-                targetSrs
-        );
+        double[][] polygonInMercator = cell.polygon;
 
         int[][] coordinatesForImages = convertUnitsToPixelOffset(polygonInMercator, minx, miny,
                 oneUnitXInPixels, oneUnitYInPixels, imageWidth, imageHeight);
@@ -631,6 +591,55 @@ public class WMSOSGridController {
         return linesToRender;
     }
 
+    /**
+     * Parse a grid reference and convert the grid cell to the target SRS, using the cache.
+     *
+     * @param gridRef
+     * @param targetSrs
+     * @return the grid cell or null when the grid reference is not valid
+     */
+    GridCell getGridCell(String gridRef, String targetSrs) {
+        return getGridCells().get(gridRef + " " + targetSrs, key -> {
+            GridRef gr = GridUtil.gridReferenceToEastingNorthing(gridRef);
+            if (gr == null) {
+                return null;
+            }
+
+            int easting = gr.getEasting();
+            int northing = gr.getNorthing();
+            int gridSize = gr.getCoordinateUncertainty();
+            double[][] polygon = convertEastingNorthingToTargetSRS(
+                    new double[][]{
+                            new double[]{easting, northing},
+                            new double[]{easting + gridSize, northing},
+                            new double[]{easting + gridSize, northing + gridSize},
+                            new double[]{easting, northing + gridSize},
+                    },
+                    gr.getDatum(),
+                    targetSrs
+            );
+            for (double[] point : polygon) {
+                if (point == null) {
+                    return null;
+                }
+            }
+            return new GridCell(gr, polygon);
+        });
+    }
+
+    private Cache<String, GridCell> getGridCells() {
+        if (gridCells == null) {
+            synchronized (this) {
+                if (gridCells == null) {
+                    gridCells = Caffeine.newBuilder()
+                            .maximumSize(gridCellCacheSize)
+                            .build();
+                }
+            }
+        }
+        return gridCells;
+    }
+
     public boolean overlapping(int[][] imageCoords) {
         for (int i = 0; i < imageCoords.length; i++) {
             if (imageCoords[i][0] >= 0 && imageCoords[i][1] >= 0) {
@@ -699,11 +708,8 @@ public class WMSOSGridController {
 
         try {
 
-            CoordinateReferenceSystem sourceCRS = CRS.decode(sourceCRSString);
-            CoordinateReferenceSystem targetCRS = CRS.decode(targetCRSString);
-            CoordinateOperation transformOp = new DefaultCoordinateOperationFactory().createOperation(sourceCRS, targetCRS);
             GeneralDirectPosition directPosition = new GeneralDirectPosition(x, y);
-            DirectPosition latLongInTargetCRS = transformOp.getMathTransform().transform(directPosition, null);
+            DirectPosition latLongInTargetCRS = getTransform(sourceCRSString, targetCRSString).transform(directPosition, null);
 
             //NOTE - returned coordinates are longitude, latitude, despite the fact that if
             //converting latitude and longitude values, they must be supplied as latitude, longitude.
@@ -725,6 +731,22 @@ public class WMSOSGridController {
         return null;
     }
 
+    /**
+     * @return the transform between two CRS, created once for each pair
+     */
+    private MathTransform getTransform(String sourceCRSString, String targetCRSString) throws FactoryException {
+        String key = sourceCRSString + " " + targetCRSString;
+        MathTransform transform = transforms.get(key);
+        if (transform == null) {
+            CoordinateReferenceSystem sourceCRS = CRS.decode(sourceCRSString);
+            CoordinateReferenceSystem targetCRS = CRS.decode(targetCRSString);
+            CoordinateOperation transformOp = new DefaultCoordinateOperationFactory().createOperation(sourceCRS, targetCRS);
+            transform = transformOp.getMathTransform();
+            transforms.put(key, transform);
+        }
+        return transform;
+    }
+
     double[] convertWGS84ToEastingNorthing(Double coordinate1, Double coordinate2) {
         return reprojectPoint(coordinate1, coordinate2, "EPSG:4326", "EPSG:27700");
     }
@@ -767,6 +789,19 @@ public class WMSOSGridController {
     }
 }
 
+/**
+ * A parsed grid reference and its grid cell in a target SRS.
+ */
+final class GridCell {
+    final GridRef gridRef;
+    final double[][] polygon;
+
+    GridCell(GridRef gridRef, double[][] polygon) {
+        this.gridRef = gridRef;
+        this.polygon = polygon;
+    }
+}
+
 class WMSImg {
 
     Graphics2D g;
@@ -16,21 +16,21 @@ package au.org.ala.biocache.writer;
 
 import au.com.bytecode.opencsv.CSVWriter;
 import au.org.ala.biocache.stream.OptionalZipOutputStream;
-import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
- * A Writer that outputs a record in CSV format
+ * A Writer that outputs a record in CSV format.
+ * <p>
+ * The output is the same as opencsv CSVWriter. Records are encoded once, into a reusable buffer, and the encoded
+ * byte count is used for OptionalZipOutputStream splitting.
  * 
  * @author Natasha Carter
  */
@@ -50,8 +50,7 @@ public class CSVRecordWriter implements RecordWriterError {
 
     private final List<Throwable> errors = new ArrayList<>();
     
-    // Resources that are created during initialise because their creation sequence may include Exception's
-    private CSVWriter csvWriter;
+    private Utf8RecordEncoder encoder;
     
     public CSVRecordWriter(OutputStream out, String[] header){
         outputStream = out;
@@ -77,30 +76,30 @@ public class CSVRecordWriter implements RecordWriterError {
         if (!initialised.get()) {
             throw new IllegalStateException("Must call initialise method before calling write.");
         }
-        if (csvWriter == null) {
-            throw new IllegalStateException("The initialise method did not create a CSVWriter instance.");
-        }
-        csvWriter.writeNext(record);
 
-        //mark the end of line
-        if (outputStream instanceof OptionalZipOutputStream) {
-            try {
-                // add record byte length, standard separator byte length and buffer (*2) for occasional record character encoding
-                int length = record.length * "\",\"".getBytes(StandardCharsets.UTF_8).length * 2;
-                for (String s : record) if (s != null) length += s.getBytes(StandardCharsets.UTF_8).length;
-                if (((OptionalZipOutputStream) outputStream).isNewFile(this, length)) {
+        try {
+            long start = encoder.getCount();
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) encoder.writeChar(separatorChar);
+                encoder.writeCsvField(record[i], quoteChar, escapeChar);
+            }
+            encoder.writeChar('\n');
+
+            //mark the end of line
+            if (outputStream instanceof OptionalZipOutputStream) {
+                if (((OptionalZipOutputStream) outputStream).isNewFile(this, encoder.getCount() - start)) {
                     write(header);
                 }
-            } catch (Exception e) {
-                errors.add(e);
             }
+        } catch (IOException e) {
+            logger.debug(e.getMessage(), e);
+            errors.add(e);
         }
     }
 
     @Override
     public boolean hasError() {
-        CSVWriter toCheckCsvWriter = csvWriter;
-        return (toCheckCsvWriter != null && toCheckCsvWriter.checkError()) || !errors.isEmpty();
+        return !errors.isEmpty();
     }
 
     @Override
@@ -111,9 +110,9 @@ public class CSVRecordWriter implements RecordWriterError {
     @Override
     public void flush() {
         try {
-            CSVWriter toFlushCsvWriter = csvWriter;
-            if(toFlushCsvWriter != null) {
-                toFlushCsvWriter.flush();
+            Utf8RecordEncoder toFlushEncoder = encoder;
+            if(toFlushEncoder != null) {
+                toFlushEncoder.flush();
             }
         } catch(java.io.IOException e){
             logger.debug(e.getMessage(), e);
@@ -124,8 +123,8 @@ public class CSVRecordWriter implements RecordWriterError {
     @Override
     public void initialise() {
         if (initialised.compareAndSet(false, true)) {
-            csvWriter = new CSVWriter(new OutputStreamWriter(new CloseShieldOutputStream(outputStream), StandardCharsets.UTF_8), separatorChar, quoteChar, escapeChar);
-            csvWriter.writeNext(header);
+            encoder = new Utf8RecordEncoder(outputStream);
+            write(header);
         }
     }
     
@@ -135,16 +134,7 @@ public class CSVRecordWriter implements RecordWriterError {
             try {
                 flush();
             } finally {
-                try {
-                    CSVWriter toCloseCsvWriter = csvWriter;
-                    if(toCloseCsvWriter != null) {
-                        toCloseCsvWriter.close();
-                    }
-                } catch (IOException e) {
-                    errors.add(e);
-                } finally {
-                    finalisedComplete.set(true);
-                }
+                finalisedComplete.set(true);
             }
         }
     }
@@ -20,14 +20,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
- * A Writer that outputs a record in TSV format
+ * A Writer that outputs a record in TSV format. Records are encoded once, into a reusable buffer, and the encoded
+ * byte count is used for OptionalZipOutputStream splitting.
  * 
  * @author Natasha Carter
  */
@@ -44,6 +44,8 @@ public class TSVRecordWriter implements RecordWriterError {
     private final AtomicBoolean writerError = new AtomicBoolean(false);
 
     private final List<Throwable> errors = new ArrayList<>();
+
+    private Utf8RecordEncoder encoder;
     
     public TSVRecordWriter(OutputStream out, String[] header){
         this.outputStream = out;
@@ -58,25 +60,20 @@ public class TSVRecordWriter implements RecordWriterError {
         if (!initialised.get()) {
             throw new IllegalStateException("Must call initialise method before calling write.");
         }
-        StringBuilder line = new StringBuilder(256);
-
-        //assume correct column count
-        for (int i = 0; i < record.length; i++) {
-            if (i > 0) line.append('\t');
-            String value = (record[i] != null) ? record[i] : "";
-            line.append(value.replace("\r","").replace("\n","").replace("\t",""));
-        }
-
-        line.append("\n");
 
         try {
-            String str = line.toString();
-            byte [] bytes = str.getBytes(StandardCharsets.UTF_8);
-            outputStream.write(bytes);
+            long start = encoder.getCount();
+
+            //assume correct column count
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) encoder.writeChar('\t');
+                encoder.writeTsvField(record[i]);
+            }
+            encoder.writeChar('\n');
 
             //mark the end of line
             if (outputStream instanceof OptionalZipOutputStream) {
-                if (((OptionalZipOutputStream) outputStream).isNewFile(this, bytes.length)) {
+                if (((OptionalZipOutputStream) outputStream).isNewFile(this, encoder.getCount() - start)) {
                     write(header);
                 }
             }
@@ -90,6 +87,7 @@ public class TSVRecordWriter implements RecordWriterError {
     @Override
     public void initialise() {
         if (initialised.compareAndSet(false, true)) {
+            encoder = new Utf8RecordEncoder(outputStream);
             write(header);
         }
     }
@@ -123,6 +121,10 @@ public class TSVRecordWriter implements RecordWriterError {
     @Override
     public void flush() {
         try {
+            Utf8RecordEncoder toFlushEncoder = encoder;
+            if (toFlushEncoder != null) {
+                toFlushEncoder.flushBuffer();
+            }
             outputStream.flush();
         } catch(java.io.IOException e) {
             errors.add(e);
@@ -0,0 +1,148 @@
+package au.org.ala.biocache.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes record fields as UTF-8 directly into a reusable buffer and counts the bytes as they are encoded.
+ * <p>
+ * Unpaired surrogates are written as '?', the same as String.getBytes(UTF_8).
+ */
+public class Utf8RecordEncoder {
+
+    public static final char NO_ESCAPE_CHARACTER = '\u0000';
+
+    /**
+     * space required for the largest single write, an escape char and a 4 byte code point
+     */
+    private static final int MAX_CHAR_BYTES = 8;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+    private long count;
+
+    public Utf8RecordEncoder(OutputStream out) {
+        this(out, 65536);
+    }
+
+    public Utf8RecordEncoder(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(bufferSize, MAX_CHAR_BYTES * 2)];
+    }
+
+    /**
+     * @return number of bytes encoded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Write a single character, e.g. a separator or line end.
+     */
+    public void writeChar(char c) throws IOException {
+        ensureCapacity();
+        encode(c);
+    }
+
+    /**
+     * Write a quoted CSV field. Quote and escape characters in the value are preceded by the escape character unless
+     * it is NO_ESCAPE_CHARACTER. A null value is written as an empty, unquoted field.
+     */
+    public void writeCsvField(String value, char quote, char escape) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        writeChar(quote);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            ensureCapacity();
+            if (escape != NO_ESCAPE_CHARACTER && (c == quote || c == escape)) {
+                encode(escape);
+            }
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encode(Character.toCodePoint(c, value.charAt(++i)));
+            } else {
+                encode(c);
+            }
+        }
+        writeChar(quote);
+    }
+
+    /**
+     * Write a TSV field. Tab, carriage return and new line characters are removed. A null value is written as an empty
+     * field.
+     */
+    public void writeTsvField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\r' || c == '\n') {
+                continue;
+            }
+            ensureCapacity();
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encode(Character.toCodePoint(c, value.charAt(++i)));
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    /**
+     * Write the buffer to the output stream without flushing the output stream.
+     */
+    public void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Write the buffer to the output stream and flush the output stream.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void ensureCapacity() throws IOException {
+        if (position + MAX_CHAR_BYTES > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Encode a code point. There must be at least 4 bytes available in the buffer.
+     */
+    private void encode(int c) {
+        int start = position;
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xc0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            // unpaired surrogate
+            buffer[position++] = '?';
+        } else if (c < 0x10000) {
+            buffer[position++] = (byte) (0xe0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            buffer[position++] = (byte) (0xf0 | (c >> 18));
+            buffer[position++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        }
+        count += position - start;
+    }
+}
@@ -63,6 +63,7 @@
             <li><strong>startIndex</strong> - record offset, to enable paging</li>
             <li><strong>sort</strong> - the indexed field to sort by. See <a href="${webservicesRoot}/index/fields">/index/fields</a></li>
             <li><strong>dir</strong> - supports "asc" or "desc"</li>
+            <li><strong>cursor</strong> - cursor paging for large result sets. Use cursor=* for the first page and the nextCursor of each page for the following page. The last page has no nextCursor. The query and sort are taken from the cursor and startIndex is not used</li>
             <li><strong>flimit</strong> - maximum number of facets to return</li>
             <li><strong>fsort</strong> - method in which to sort the facets either "count" or "index".  This value is only applicable for facets that are NOT included in <a href="${webservicesRoot}/search/grouped/facets">/search/grouped/facets</a></li>
             <li><strong>foffset</strong> - facet offset, to enable paging</li>
@@ -124,6 +124,23 @@ public class OccurrenceControllerIT extends TestCase {
         verify(loggerService, never()).logEvent(any());
     }
 
+    @Test
+    public void getRecordsByIdsTest() throws Exception {
+
+        ReflectionTestUtils.setField(occurrenceController, "occurrenceLogEnabled", true);
+
+        this.mockMvc.perform(post("/occurrences/ids")
+                .header("user-agent", "test User-Agent")
+                .param("ids", "41fcf3f2-fa7b-4ba6-a88c-4ac5240c8aab,not-an-id"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.occurrences.length()").value(1))
+                .andExpect(jsonPath("$.occurrences[0].raw.rowKey").value("41fcf3f2-fa7b-4ba6-a88c-4ac5240c8aab"))
+                .andExpect(jsonPath("$.notFound[0]").value("not-an-id"));
+
+        // one log event for all of the records
+        verify(loggerService, times(1)).logEvent(any());
+    }
+
     @Test
     public void allRecordsSearchTest() throws Exception {
 
@@ -0,0 +1,84 @@
+package au.org.ala.biocache.dao;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Choice of the rank to break down by from the hll() estimates of the candidate ranks.
+ */
+public class BreakdownLevelTest {
+
+    // reversed, as requested when max is supplied
+    List<String> lowestFirst = Arrays.asList("species", "genus", "family", "order");
+
+    // below the supplied rank
+    List<String> highestFirst = Arrays.asList("order", "family", "genus", "species");
+
+    @Test
+    public void testMax() {
+        NamedList<Object> facets = facets(200L, 40L, 12, 3L);
+
+        assertEquals("family", SearchDAOImpl.selectBreakdownLevel(lowestFirst, facets, 20, null));
+        // the max is inclusive
+        assertEquals("genus", SearchDAOImpl.selectBreakdownLevel(lowestFirst, facets, 40, null));
+        assertEquals("species", SearchDAOImpl.selectBreakdownLevel(lowestFirst, facets, 1000, null));
+        // no rank has few enough values
+        assertNull(SearchDAOImpl.selectBreakdownLevel(lowestFirst, facets, 2, null));
+    }
+
+    @Test
+    public void testRank() {
+        // the first rank below the supplied rank with values
+        assertEquals("family", SearchDAOImpl.selectBreakdownLevel(highestFirst, facets(0L, 5L, 20L, 100L), null, "class"));
+        assertEquals("order", SearchDAOImpl.selectBreakdownLevel(highestFirst, facets(1L, 5L, 20L, 100L), null, "class"));
+        // no rank with values
+        assertNull(SearchDAOImpl.selectBreakdownLevel(highestFirst, facets(0L, 0L, 0L, 0L), null, "class"));
+    }
+
+    @Test
+    public void testMaxAndRank() {
+        // either condition chooses the rank
+        assertEquals("order", SearchDAOImpl.selectBreakdownLevel(highestFirst, facets(30L, 50L, 80L, 100L), 10, "class"));
+    }
+
+    @Test
+    public void testMissingBuckets() {
+        // no results, the facets are not returned
+        assertNull(SearchDAOImpl.selectBreakdownLevel(highestFirst, null, null, "class"));
+        // an empty rank is not returned
+        assertEquals("species", SearchDAOImpl.selectBreakdownLevel(lowestFirst, null, 10, null));
+        assertEquals("species", SearchDAOImpl.selectBreakdownLevel(lowestFirst, new SimpleOrderedMap<>(), 10, null));
+
+        NamedList<Object> facets = new SimpleOrderedMap<>();
+        facets.add("count", 10L);
+        facets.add("r1", 4L);
+        assertEquals("genus", SearchDAOImpl.selectBreakdownLevel(highestFirst.subList(1, 4), facets, null, "order"));
+
+        assertNull(SearchDAOImpl.selectBreakdownLevel(Collections.emptyList(), facets, 10, "order"));
+    }
+
+    @Test
+    public void testClearCache() {
+        SearchDAOImpl searchDAO = new SearchDAOImpl();
+        searchDAO.getBreakdownLevels().put("key", "genus");
+        searchDAO.clearBreakdownLevelCache();
+
+        assertNull(searchDAO.getBreakdownLevels().getIfPresent("key"));
+    }
+
+    private static NamedList<Object> facets(Object... counts) {
+        NamedList<Object> facets = new SimpleOrderedMap<>();
+        facets.add("count", 1000L);
+        for (int i = 0; i < counts.length; i++) {
+            facets.add("r" + i, counts[i]);
+        }
+        return facets;
+    }
+}
@@ -76,6 +76,10 @@ public class FilterQueryParserTest {
 
         ReflectionTestUtils.setField(searchUtils, "collectionCache", collectionCache);
         ReflectionTestUtils.setField(searchUtils, "nameUsageMatchService", nameUsageMatchService);
+        TaxonRangeResolver taxonRangeResolver = new TaxonRangeResolver();
+        ReflectionTestUtils.setField(taxonRangeResolver, "nameUsageMatchService", nameUsageMatchService);
+        taxonRangeResolver.init();
+        ReflectionTestUtils.setField(searchUtils, "taxonRangeResolver", taxonRangeResolver);
         ReflectionTestUtils.setField(searchUtils, "messageSource", messageSource);
 
         FieldMappingUtil fieldMappingUtil = new FieldMappingUtil();
@@ -0,0 +1,208 @@
+package au.org.ala.biocache.dao;
+
+import au.org.ala.biocache.dto.Qid;
+import au.org.ala.biocache.util.QidMissingException;
+import au.org.ala.biocache.util.QidSizeException;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of {@link QidCacheDAOImpl} with the previous synchronized, sort on clean, qid cache
+ * for a skewed mix of gets and puts on many threads. The cache holds about a third of the qids.
+ * <p>
+ * Run with the main method of this class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class QidCacheBenchmark {
+
+    static final int QIDS = 30000;
+    static final long MAX_CACHE_SIZE = 1000000;
+    static final long MIN_CACHE_SIZE = 500000;
+
+    @Param({"legacy", "caffeine"})
+    String implementation;
+
+    MemoryStoreDAO store;
+    QidCacheDAOImpl qidCacheDao;
+    LegacyQidCache legacyQidCache;
+    String[] keys;
+
+    @Setup
+    public void setup() throws QidSizeException {
+        Logger.getLogger(QidCacheDAOImpl.class).setLevel(Level.WARN);
+
+        store = new MemoryStoreDAO();
+
+        qidCacheDao = new QidCacheDAOImpl();
+        ReflectionTestUtils.setField(qidCacheDao, "storeDao", store);
+        qidCacheDao.setMaxCacheSize(MAX_CACHE_SIZE);
+        qidCacheDao.setLargestCacheableSize(MAX_CACHE_SIZE);
+
+        legacyQidCache = new LegacyQidCache(store);
+
+        keys = new String[QIDS];
+        for (int i = 0; i < QIDS; i++) {
+            keys[i] = put(i);
+        }
+    }
+
+    String put(int i) throws QidSizeException {
+        String q = "taxon_concept_lsid:urn:lsid:biodiversity.org.au:afd.taxon:" + i;
+        String[] fqs = {"state:\"New South Wales\"", "year:[1990 TO *]"};
+        if ("legacy".equals(implementation)) {
+            return legacyQidCache.put(q, "display " + i, null, null, fqs);
+        } else {
+            return qidCacheDao.put(q, "display " + i, null, null, fqs, -1, "benchmark");
+        }
+    }
+
+    /**
+     * 99% gets skewed to the most recent qids, 1% puts.
+     */
+    @Benchmark
+    public Object getPut() throws QidMissingException, QidSizeException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(100) == 0) {
+            return put(random.nextInt(QIDS));
+        }
+
+        double r = random.nextDouble();
+        String key = keys[QIDS - 1 - (int) (QIDS * r * r * r)];
+        if ("legacy".equals(implementation)) {
+            return legacyQidCache.get(key);
+        } else {
+            return qidCacheDao.get(key);
+        }
+    }
+
+    static class MemoryStoreDAO implements StoreDAO {
+        final ConcurrentMap<String, Object> map = new ConcurrentHashMap<>();
+
+        @Override
+        public <T> Optional<T> get(Class<T> dataClass, String key) throws IOException {
+            Qid qid = (Qid) map.get(key);
+            if (qid == null) {
+                return Optional.empty();
+            }
+            // a new instance each load, as deserialised from the db
+            return Optional.of(dataClass.cast(new Qid(qid.getRowKey(), qid.getQ(), qid.getDisplayString(), qid.getWkt(),
+                    qid.getBbox(), qid.getLastUse(), qid.getFqs(), qid.getMaxAge(), qid.getSource())));
+        }
+
+        @Override
+        public <T> Map<String, T> getAll(Class<T> dataClass) throws IOException {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public <T> void put(String key, T data) throws IOException {
+            map.put(key, data);
+        }
+
+        @Override
+        public <T> Boolean delete(Class<T> dataClass, String key) throws IOException {
+            return map.remove(key) != null;
+        }
+    }
+
+    /**
+     * The previous qid cache; synchronized puts, lastUse updated on each get, and a clean that sorts all entries
+     * by lastUse when the size is over half way between the min and max size.
+     */
+    static class LegacyQidCache {
+        final ConcurrentMap<String, Qid> cache = new ConcurrentHashMap<>();
+        final Object counterLock = new Object();
+        final StoreDAO store;
+        long cacheSize;
+        long lastId;
+
+        LegacyQidCache(StoreDAO store) {
+            this.store = store;
+        }
+
+        synchronized String put(String q, String displayQ, String wkt, double[] bbox, String[] fqs) {
+            long id = System.nanoTime();
+            if (id <= lastId) id = lastId + 1;
+            lastId = id;
+
+            Qid qid = new Qid(String.valueOf(id), q, displayQ, wkt, bbox, 0L, fqs, -1L, "benchmark");
+            try {
+                store.put(qid.getRowKey(), qid);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            boolean clean;
+            synchronized (counterLock) {
+                clean = cacheSize + qid.getSize() > MIN_CACHE_SIZE + (MAX_CACHE_SIZE - MIN_CACHE_SIZE) / 2;
+                cacheSize += qid.getSize();
+                cache.put(qid.getRowKey(), qid);
+            }
+            if (clean) {
+                cleanCache();
+            }
+            return qid.getRowKey();
+        }
+
+        Qid get(String key) throws QidMissingException {
+            Qid obj = cache.get(key);
+            if (obj == null) {
+                try {
+                    obj = store.get(Qid.class, key).orElse(null);
+                } catch (IOException e) {
+                    throw new QidMissingException(key);
+                }
+                if (obj != null) {
+                    synchronized (counterLock) {
+                        cache.put(key, obj);
+                        cacheSize += obj.getSize();
+                    }
+                }
+            }
+            if (obj == null) {
+                throw new QidMissingException(key);
+            }
+            obj.setLastUse(System.currentTimeMillis());
+            return obj;
+        }
+
+        synchronized void cleanCache() {
+            List<Map.Entry<String, Qid>> entries = new ArrayList<>(cache.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().getLastUse()));
+
+            long size = 0;
+            for (Map.Entry<String, Qid> entry : entries) {
+                if (size + entry.getValue().getSize() > MIN_CACHE_SIZE) {
+                    cache.remove(entry.getKey());
+                } else {
+                    size += entry.getValue().getSize();
+                }
+            }
+            synchronized (counterLock) {
+                cacheSize = size;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(QidCacheBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -35,8 +35,10 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static java.util.Arrays.asList;
@@ -45,6 +47,8 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
@@ -123,6 +127,8 @@ public class QueryFormatTest {
                 .scientificName("species scientific name")
                 .build();
         when(nameUsageMatchService.get(anyString())).thenReturn(nameUsageMatch);
+        when(nameUsageMatchService.getAll(anyList(), anyBoolean())).thenAnswer(invocation ->
+                Collections.nCopies(((List) invocation.getArgument(0)).size(), nameUsageMatch));
         when(speciesLookupService.getGuidsForTaxa(any())).thenReturn(Arrays.asList((String)null));
         when(speciesLookupService.getGuidsForTaxa(eq(Arrays.asList("taxa A")))).thenReturn(Arrays.asList("guid:XXXXXXXX-XXXX-XXXX-XXXX-AAAAAAAAAAA"));
         when(speciesLookupService.getGuidsForTaxa(eq(Arrays.asList("taxa B")))).thenReturn(Arrays.asList("guid:XXXXXXXX-XXXX-XXXX-XXXX-BBBBBBBBBBB"));
@@ -139,6 +145,10 @@ public class QueryFormatTest {
 
         ReflectionTestUtils.setField(searchUtils, "collectionCache", collectionCache);
         ReflectionTestUtils.setField(searchUtils, "nameUsageMatchService", nameUsageMatchService);
+        TaxonRangeResolver taxonRangeResolver = new TaxonRangeResolver();
+        ReflectionTestUtils.setField(taxonRangeResolver, "nameUsageMatchService", nameUsageMatchService);
+        taxonRangeResolver.init();
+        ReflectionTestUtils.setField(searchUtils, "taxonRangeResolver", taxonRangeResolver);
         ReflectionTestUtils.setField(searchUtils, "messageSource", messageSource);
         ReflectionTestUtils.setField(queryFormatUtils, "fieldMappingUtil", fieldMappingUtil);
 
@@ -0,0 +1,80 @@
+package au.org.ala.biocache.dto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KvpIndexTest {
+
+    @Test
+    public void testNested() {
+        // kingdom 1-100, family 10-40 with genera 12-20 and 25-30, family 50-60
+        KvpIndex index = new KvpIndex(Arrays.asList(
+                new Kvp(50, 60), new Kvp(12, 20), new Kvp(1, 100), new Kvp(25, 30), new Kvp(10, 40)));
+
+        assertEquals(1, index.get(0).lft);
+        assertEquals(50, index.get(index.size() - 1).lft);
+
+        assertRange(12, 20, index.find(new Kvp(15, 15)));
+        assertRange(10, 40, index.find(new Kvp(22, 22)));
+        assertRange(10, 40, index.find(new Kvp(35, 35)));
+        assertRange(10, 40, index.find(new Kvp(10, 40)));
+        assertRange(1, 100, index.find(new Kvp(45, 45)));
+        assertRange(1, 100, index.find(new Kvp(61, 99)));
+        assertRange(10, 40, index.find(new Kvp(19, 26)));
+        assertRange(1, 100, index.find(new Kvp(39, 45)));
+        assertNull(index.find(new Kvp(0, 0)));
+        assertNull(index.find(new Kvp(99, 101)));
+    }
+
+    @Test
+    public void testMatchesLinearSearch() {
+        Random random = new Random(1);
+        List<Kvp> kvps = new ArrayList<>();
+        nestedRanges(random, 0, 100000, 0, kvps);
+        KvpIndex index = new KvpIndex(kvps);
+
+        for (int t = 0; t < 2000; t++) {
+            long lft = random.nextInt(100000);
+            Kvp lftrgt = new Kvp(lft, lft + random.nextInt(3));
+
+            Kvp expected = null;
+            for (Kvp kvp : kvps) {
+                if (kvp.contains(lftrgt) && (expected == null || expected.contains(kvp))) {
+                    expected = kvp;
+                }
+            }
+
+            Kvp found = index.find(lftrgt);
+            if (expected == null) {
+                assertNull(found);
+            } else {
+                assertRange(expected.lft, expected.rgt, found);
+            }
+        }
+    }
+
+    private void nestedRanges(Random random, long lft, long rgt, int depth, List<Kvp> kvps) {
+        long start = lft;
+        while (depth < 4 && start < rgt) {
+            long width = 1 + random.nextInt((int) Math.max(1, (rgt - lft) / 4));
+            long end = Math.min(rgt, start + width);
+            if (random.nextBoolean()) {
+                kvps.add(new Kvp(start, end));
+            }
+            nestedRanges(random, start + 1, end - 1, depth + 1, kvps);
+            start = end + 1 + random.nextInt(10);
+        }
+    }
+
+    private void assertRange(long lft, long rgt, Kvp kvp) {
+        assertNotNull(kvp);
+        assertEquals(lft, kvp.lft);
+        assertEquals(rgt, kvp.rgt);
+    }
+}
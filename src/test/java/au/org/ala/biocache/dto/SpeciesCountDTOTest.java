@@ -0,0 +1,48 @@
+package au.org.ala.biocache.dto;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpeciesCountDTOTest {
+
+    @Test
+    public void testCount() {
+        SpeciesCountDTO counts = new SpeciesCountDTO(new long[]{2, 5, 9, 14}, new long[]{1, 10, 100, 1000}, 1);
+
+        assertEquals(1111, counts.getCount(0, 20));
+        assertEquals(1111, counts.getCount(2, 14));
+        assertEquals(110, counts.getCount(3, 13));
+        assertEquals(10, counts.getCount(5, 5));
+        assertEquals(0, counts.getCount(6, 8));
+        assertEquals(0, counts.getCount(15, 20));
+        assertEquals(0, counts.getCount(9, 2));
+    }
+
+    @Test
+    public void testCountMatchesSum() {
+        Random random = new Random(1);
+        long[] lft = new long[1000];
+        long[] count = new long[lft.length];
+        for (int i = 0; i < lft.length; i++) {
+            lft[i] = (i == 0 ? 0 : lft[i - 1]) + 1 + random.nextInt(5);
+            count[i] = random.nextInt(100);
+        }
+        SpeciesCountDTO counts = new SpeciesCountDTO(lft, count, 1);
+
+        for (int t = 0; t < 1000; t++) {
+            long left = random.nextInt(3000);
+            long right = left + random.nextInt(3000);
+
+            long sum = 0;
+            for (int i = 0; i < lft.length; i++) {
+                if (lft[i] >= left && lft[i] <= right) {
+                    sum += count[i];
+                }
+            }
+            assertEquals(sum, counts.getCount(left, right));
+        }
+    }
+}
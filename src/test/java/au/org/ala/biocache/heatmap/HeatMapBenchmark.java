@@ -0,0 +1,59 @@
+package au.org.ala.biocache.heatmap;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HeatMap#generateClasses(double[], long[])} for 1M weighted points over Australia.
+ * <p>
+ * Run with the main method of this class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeatMapBenchmark {
+
+    static final int POINTS = 1000000;
+
+    double[] points;
+    long[] counts;
+    HeatMap heatMap;
+
+    @Setup
+    public void setup() throws Exception {
+        // clustered around a few centres, like occurrences near cities
+        Random random = new Random(1);
+        double[][] centres = {{151.2, -33.9}, {145.0, -37.8}, {153.0, -27.5}, {115.9, -32.0}, {138.6, -34.9}};
+        points = new double[POINTS * 2];
+        counts = new long[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            double[] centre = centres[random.nextInt(centres.length)];
+            points[i * 2] = centre[0] + random.nextGaussian() * 3;
+            points[i * 2 + 1] = centre[1] + random.nextGaussian() * 3;
+            counts[i] = 1 + random.nextInt(10);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createHeatMap() throws Exception {
+        heatMap = new HeatMap();
+    }
+
+    @Benchmark
+    public HeatMap generateClasses() {
+        heatMap.generateClasses(points, counts);
+        return heatMap;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HeatMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package au.org.ala.biocache.heatmap;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KernelDensityTest {
+
+    static final int WIDTH = 60;
+    static final int HEIGHT = 40;
+    static final int RADIUS = 8;
+    static final int NUM_COLOURS = 10;
+
+    @Test
+    public void testSameAsCircleStamping() {
+        Random random = new Random(1);
+        KernelDensity density = new KernelDensity(WIDTH, HEIGHT, RADIUS, NUM_COLOURS);
+        int[][] expected = new int[WIDTH][HEIGHT];
+        for (int i = 0; i < 500; i++) {
+            // include points outside of the raster
+            int x = random.nextInt(WIDTH + 4 * RADIUS) - 2 * RADIUS;
+            int y = random.nextInt(HEIGHT + 4 * RADIUS) - 2 * RADIUS;
+            density.add(x, y, 1);
+            stamp(expected, x, y, 1);
+        }
+
+        assertDensity(expected, density.estimate());
+    }
+
+    @Test
+    public void testWeights() {
+        KernelDensity density = new KernelDensity(WIDTH, HEIGHT, RADIUS, NUM_COLOURS);
+        int[][] expected = new int[WIDTH][HEIGHT];
+        density.add(10, 10, 5);
+        stamp(expected, 10, 10, 5);
+        density.add(12, 9, 1);
+        density.add(12, 9, 2);
+        stamp(expected, 12, 9, 3);
+
+        long[] values = density.estimate();
+        assertDensity(expected, values);
+        assertEquals(5 * NUM_COLOURS + 3 * (int) (NUM_COLOURS - 5.0 * NUM_COLOURS / (RADIUS * RADIUS)), values[10 * WIDTH + 10]);
+    }
+
+    @Test
+    public void testEmpty() {
+        long[] values = new KernelDensity(WIDTH, HEIGHT, RADIUS, NUM_COLOURS).estimate();
+        assertEquals(WIDTH * HEIGHT, values.length);
+        for (long value : values) {
+            assertEquals(0, value);
+        }
+    }
+
+    /**
+     * the circle stamping of the original HeatMap.generateClasses
+     */
+    private static void stamp(int[][] dPoints, int px, int py, int weight) {
+        int pradius = RADIUS * RADIUS;
+        for (int w = 0; w < weight; w++) {
+            for (int ci = px - RADIUS; ci <= (px + RADIUS); ci++) {
+                for (int cj = py - RADIUS; cj <= (py + RADIUS); cj++) {
+                    if (ci >= 0 && ci < WIDTH && cj >= 0 && cj < HEIGHT) {
+                        double d = Math.pow((px - ci), 2) + Math.pow((py - cj), 2);
+                        if ((int) d <= pradius) {
+                            dPoints[ci][cj] += NUM_COLOURS - ((d * NUM_COLOURS) / pradius);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertDensity(int[][] expected, long[] values) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("pixel " + x + "," + y, expected[x][y], values[y * WIDTH + x]);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.DownloadHeaders;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class DownloadRowProjectionTest {
+
+    DownloadHeaders headers() {
+        String[] fields = {"id", "scientificName", "recordedBy", "lft"};
+        // lft is a post-process field, it is requested but is not a column
+        DownloadHeaders headers = new DownloadHeaders(fields, new String[]{"ID", "Scientific Name", "Recorded By"},
+                new String[0], new String[0], new String[0], new String[0]);
+        headers.qaIds = new String[]{"COORDINATE_ROUNDED", "TAXON_MATCH_FUZZY"};
+        headers.qaLabels = headers.qaIds;
+        return headers;
+    }
+
+    Tuple tuple() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", "abc");
+        map.put("recordedBy", Arrays.asList("A", "B"));
+        map.put("lft", 10);
+        map.put("assertions", Arrays.asList("TAXON_MATCH_FUZZY", "OTHER"));
+        return new Tuple(map);
+    }
+
+    @Test
+    public void testProjectMultivalues() {
+        DownloadRowProjection projection = new DownloadRowProjection(headers(), true);
+        String[] values = new String[5];
+
+        projection.projectFields(tuple(), values);
+        projection.projectAssertions(tuple(), values);
+
+        assertArrayEquals(new String[]{"abc", "", "A | B", "false", "true"}, values);
+    }
+
+    @Test
+    public void testProjectFirstValueOnly() {
+        DownloadRowProjection projection = new DownloadRowProjection(headers(), false);
+        String[] values = new String[]{"x", "x", "x", "x", "x"};
+
+        projection.projectFields(tuple(), values);
+
+        assertArrayEquals(new String[]{"abc", "", "A", "x", "x"}, values);
+    }
+}
@@ -0,0 +1,197 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.service.LayersService;
+import au.org.ala.biocache.util.RecordWriter;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LayerIntersectionPipelineTest {
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Local stand-in for the spatial service. The sampled value of each layer is derived from the coordinate.
+     */
+    static class StubLayersService implements LayersService {
+        int requests = 0;
+        int points = 0;
+
+        @Override
+        public Reader sample(String[] analysisLayers, double[][] points, Object o) {
+            requests++;
+            this.points += points.length;
+
+            StringBuilder sb = new StringBuilder("longitude,latitude");
+            for (String layer : analysisLayers) {
+                sb.append(',').append(layer);
+            }
+            for (double[] point : points) {
+                sb.append('\n').append(point[0]).append(',').append(point[1]);
+                for (String layer : analysisLayers) {
+                    sb.append(',').append(layer).append(':').append(point[0]);
+                }
+            }
+            return new StringReader(sb.toString());
+        }
+
+        @Override
+        public Map<String, String> getLayerNameMap() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public String getName(String code) {
+            return null;
+        }
+
+        @Override
+        public String findAnalysisLayerName(String analysisLayer, String layersServiceUrl) {
+            return null;
+        }
+
+        @Override
+        public Integer getDistributionsCount(String lsid) {
+            return 0;
+        }
+
+        @Override
+        public Integer getChecklistsCount(String lsid) {
+            return 0;
+        }
+
+        @Override
+        public Integer getTracksCount(String lsid) {
+            return 0;
+        }
+
+        @Override
+        public void refreshCache() {
+        }
+
+        @Override
+        public String getLayersServiceUrl() {
+            return null;
+        }
+    }
+
+    static class ListRecordWriter implements RecordWriter {
+        List<String[]> rows = new ArrayList<>();
+
+        @Override
+        public void initialise() {
+        }
+
+        @Override
+        public void write(String[] record) {
+            rows.add(record.clone());
+        }
+
+        @Override
+        public boolean finalised() {
+            return false;
+        }
+
+        @Override
+        public void finalise() {
+        }
+    }
+
+    Tuple tuple(Double lon, Double lat) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("decimalLongitude", lon);
+        map.put("decimalLatitude", lat);
+        return new Tuple(map);
+    }
+
+    @Test
+    public void testRowsWrittenInOrderWithRepeatedCoordinatesSampledOnce() {
+        StubLayersService layersService = new StubLayersService();
+        ListRecordWriter recordWriter = new ListRecordWriter();
+        LayerIntersectionPipeline pipeline = new LayerIntersectionPipeline(layersService, new String[]{"el1", "cl2"}, 1, 3, recordWriter, executor);
+
+        String[] values = new String[3];
+        for (int i = 0; i < 10; i++) {
+            values[0] = "row" + i;
+            // 2 distinct coordinates, and a record without coordinates
+            pipeline.add(values, i == 9 ? tuple(null, null) : tuple((double) (i % 2), -35.0));
+        }
+        pipeline.flush();
+
+        assertEquals(10, recordWriter.rows.size());
+        for (int i = 0; i < 9; i++) {
+            assertArrayEquals(new String[]{"row" + i, "el1:" + (double) (i % 2), "cl2:" + (double) (i % 2)}, recordWriter.rows.get(i));
+        }
+        assertArrayEquals(new String[]{"row9", "", ""}, recordWriter.rows.get(9));
+
+        assertEquals(2, layersService.points);
+    }
+
+    @Test
+    public void testInterruptCancelsSamplingWithoutWritingTheBatch() throws Exception {
+        CountDownLatch sampling = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        StubLayersService layersService = new StubLayersService() {
+            @Override
+            public Reader sample(String[] analysisLayers, double[][] points, Object o) {
+                sampling.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return null;
+            }
+        };
+        ListRecordWriter recordWriter = new ListRecordWriter();
+        LayerIntersectionPipeline pipeline = new LayerIntersectionPipeline(layersService, new String[]{"el1"}, 1, 2, recordWriter, executor);
+
+        String[] values = new String[2];
+        for (int i = 0; i < 2; i++) {
+            values[0] = "row" + i;
+            pipeline.add(values, tuple((double) i, -35.0));
+        }
+        assertTrue(sampling.await(10, TimeUnit.SECONDS));
+
+        Thread.currentThread().interrupt();
+        try {
+            pipeline.flush();
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+        // the sampling thread is interrupted and the batch it was writing to is not written
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertTrue(recordWriter.rows.isEmpty());
+
+        // the pipeline stays stopped
+        try {
+            pipeline.flush();
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertTrue(recordWriter.rows.isEmpty());
+    }
+}
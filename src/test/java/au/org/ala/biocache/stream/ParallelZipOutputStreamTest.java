@@ -0,0 +1,203 @@
+package au.org.ala.biocache.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipOutputStreamTest {
+
+    @Test
+    public void testEntriesReadBack() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("data.csv", compressible(ParallelZipOutputStream.BLOCK_SIZE * 5 + 123));
+        entries.put("empty.txt", new byte[0]);
+        entries.put("random.bin", random(ParallelZipOutputStream.BLOCK_SIZE * 2 + 7));
+        entries.put("citation \u00e9.csv", "small".getBytes(StandardCharsets.UTF_8));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int level : new int[]{-1, 0, 1, 9}) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ParallelZipOutputStream zip = new ParallelZipOutputStream(bytes, level, executor, 4)) {
+                    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                        zip.putNextEntry(entry.getKey());
+                        // uneven writes across block boundaries
+                        byte[] data = entry.getValue();
+                        for (int off = 0; off < data.length; off += 50000) {
+                            zip.write(data, off, Math.min(50000, data.length - off));
+                        }
+                        zip.closeEntry();
+                    }
+                }
+
+                assertEntries(entries, readZipInputStream(bytes.toByteArray()));
+                assertEntries(entries, readZipFile(bytes.toByteArray()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompressionLevel() throws Exception {
+        byte[] data = compressible(ParallelZipOutputStream.BLOCK_SIZE * 4);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            int stored = zipSize(data, 0, executor);
+            int fastest = zipSize(data, 1, executor);
+            int best = zipSize(data, 9, executor);
+
+            assertTrue(stored > data.length);
+            assertTrue(fastest < data.length / 2);
+            assertTrue(best <= fastest);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOptionalZipSplitsParallelEntries() throws Exception {
+        byte[] data = compressible(1024 * 1024 * 2 + 1000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OptionalZipOutputStream zip = new OptionalZipOutputStream(OptionalZipOutputStream.Type.zipped, bytes, 1, 1, executor, 4);
+            zip.putNextEntry("data.csv");
+            for (int off = 0; off < data.length; off += 1000) {
+                int len = Math.min(1000, data.length - off);
+                zip.write(data, off, len);
+                zip.isNewFile(null, len);
+            }
+            zip.closeEntry();
+            zip.putNextEntry("README.html");
+            zip.write("readme".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            zip.close();
+
+            Map<String, byte[]> read = readZipInputStream(bytes.toByteArray());
+            List<String> names = new ArrayList<>(read.keySet());
+            assertEquals(4, names.size());
+            assertEquals("data.csv", names.get(0));
+            assertEquals("data_part2.csv", names.get(1));
+            assertEquals("data_part3.csv", names.get(2));
+            assertEquals("README.html", names.get(3));
+
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            for (int i = 0; i < 3; i++) {
+                joined.write(read.get(names.get(i)));
+            }
+            assertArrayEquals(data, joined.toByteArray());
+            assertEquals("readme", new String(read.get("README.html"), StandardCharsets.UTF_8));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int zipSize(byte[] data, int level, ExecutorService executor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelZipOutputStream zip = new ParallelZipOutputStream(bytes, level, executor, 2)) {
+            zip.putNextEntry("data.csv");
+            zip.write(data);
+            zip.closeEntry();
+        }
+
+        Map<String, byte[]> read = readZipInputStream(bytes.toByteArray());
+        assertArrayEquals(data, read.get("data.csv"));
+        return bytes.size();
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static Map<String, byte[]> readZipInputStream(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), readAll(in));
+            }
+        }
+        return entries;
+    }
+
+    private static Map<String, byte[]> readZipFile(byte[] zip) throws IOException {
+        File file = File.createTempFile("parallelZip", ".zip");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(zip);
+            }
+
+            Map<String, byte[]> entries = new LinkedHashMap<>();
+            try (ZipFile zipFile = new ZipFile(file)) {
+                Enumeration<? extends ZipEntry> e = zipFile.entries();
+                while (e.hasMoreElements()) {
+                    ZipEntry entry = e.nextElement();
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        byte[] data = readAll(in);
+                        assertEquals(entry.getSize(), data.length);
+                        entries.put(entry.getName(), data);
+                    }
+                }
+            }
+            return entries;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * CSV like rows with repeated values.
+     */
+    static byte[] compressible(int length) {
+        Random random = new Random(1);
+        String[] values = {"Acacia dealbata", "urn:lsid:biodiversity.org.au:apni.taxon:295867", "-35.2809", "149.13",
+                "PreservedSpecimen", "Australian National Herbarium", "2015-03-21"};
+        StringBuilder sb = new StringBuilder(length + 100);
+        while (sb.length() < length) {
+            sb.append('"').append(random.nextInt(1000000)).append("\",\"")
+                    .append(values[random.nextInt(values.length)]).append("\"\n");
+        }
+        return sb.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(2).nextBytes(data);
+        return data;
+    }
+}
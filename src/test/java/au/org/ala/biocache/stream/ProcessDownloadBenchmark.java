@@ -0,0 +1,124 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.DownloadDetailsDTO;
+import au.org.ala.biocache.dto.DownloadHeaders;
+import au.org.ala.biocache.util.RecordWriter;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the records/s per core of {@link ProcessDownload} transforming synthetic tuples into rows.
+ * <p>
+ * Run with the main method of this class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessDownloadBenchmark {
+
+    static final int TUPLES = 10000;
+    static final int FIELDS = 50;
+    static final String[] ASSERTIONS = {"COORDINATE_ROUNDED", "GEODETIC_DATUM_ASSUMED_WGS84", "COUNTRY_DERIVED_FROM_COORDINATES",
+            "MISSING_TAXONRANK", "OCCURRENCE_STATUS_ASSUMED_PRESENT", "RECORDED_DATE_INVALID", "TAXON_MATCH_FUZZY",
+            "INSTITUTION_MATCH_FUZZY", "COLLECTION_MATCH_FUZZY", "BASIS_OF_RECORD_INVALID"};
+
+    Tuple[] tuples;
+    ProcessDownload processDownload;
+    CountingRecordWriter recordWriter;
+
+    @Setup
+    public void setup() {
+        Logger.getLogger(ProcessDownload.class).setLevel(Level.WARN);
+
+        String[] fields = new String[FIELDS];
+        for (int i = 0; i < FIELDS; i++) {
+            fields[i] = "field" + i;
+        }
+        fields[0] = "dataResourceUid";
+
+        DownloadHeaders headers = new DownloadHeaders(fields, fields.clone(), new String[0], new String[0], new String[0], new String[0]);
+        headers.qaIds = ASSERTIONS;
+        headers.qaLabels = ASSERTIONS;
+
+        Random random = new Random(1);
+        tuples = new Tuple[TUPLES];
+        for (int t = 0; t < TUPLES; t++) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("dataResourceUid", "dr" + random.nextInt(100));
+            // sparse records, about two thirds of the fields are populated
+            for (int i = 1; i < FIELDS; i++) {
+                int r = random.nextInt(6);
+                if (r < 2) {
+                    map.put(fields[i], "value " + random.nextInt(1000));
+                } else if (r < 3) {
+                    map.put(fields[i], random.nextDouble());
+                } else if (r < 4) {
+                    map.put(fields[i], Arrays.asList("a" + random.nextInt(10), "b" + random.nextInt(10), "c"));
+                }
+            }
+            List<String> assertions = new ArrayList<>();
+            for (String assertion : ASSERTIONS) {
+                if (random.nextBoolean()) {
+                    assertions.add(assertion);
+                }
+            }
+            map.put("assertions", assertions);
+            tuples[t] = new Tuple(map);
+        }
+
+        recordWriter = new CountingRecordWriter();
+        processDownload = new ProcessDownload(new ConcurrentHashMap<>(), headers, recordWriter, new DownloadDetailsDTO(),
+                false, Long.MAX_VALUE, null, null, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TUPLES)
+    public long process() {
+        for (Tuple tuple : tuples) {
+            processDownload.process(tuple);
+        }
+        return recordWriter.chars;
+    }
+
+    static class CountingRecordWriter implements RecordWriter {
+        long chars;
+
+        @Override
+        public void initialise() {
+        }
+
+        @Override
+        public void write(String[] record) {
+            for (String value : record) {
+                if (value != null) {
+                    chars += value.length();
+                }
+            }
+        }
+
+        @Override
+        public boolean finalised() {
+            return false;
+        }
+
+        @Override
+        public void finalise() {
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProcessDownloadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
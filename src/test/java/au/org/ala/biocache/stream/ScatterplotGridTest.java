@@ -0,0 +1,90 @@
+package au.org.ala.biocache.stream;
+
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ScatterplotGridTest {
+
+    @Test
+    public void testExactPoints() {
+        ScatterplotGrid grid = new ScatterplotGrid("x", "y", new double[]{0, 0, 10, 20}, 10, 10, 100);
+        grid.process(tuple(0.0, 0.0, 3));
+        grid.process(tuple(10.0, 20.0, 2));
+        grid.process(tuple(5.0, 10.0, 1));
+        grid.flush();
+
+        assertEquals(6, grid.getCount());
+        assertTrue(grid.hasPoints());
+        double[][] points = grid.getPoints();
+        assertArrayEquals(new double[]{0, 10, 5}, points[0], 0);
+        assertArrayEquals(new double[]{0, 20, 10}, points[1], 0);
+    }
+
+    @Test
+    public void testGrid() {
+        ScatterplotGrid grid = new ScatterplotGrid("x", "y", new double[]{0, 0, 10, 20}, 10, 10, 2);
+        grid.process(tuple(0.0, 0.0, 3));
+        grid.process(tuple(0.5, 1.5, 4));
+        // max values are in the last cell
+        grid.process(tuple(10.0, 20.0, 2));
+        // outside of the bounds
+        grid.process(tuple(-1.0, 25.0, 1));
+        grid.flush();
+
+        assertEquals(10, grid.getCount());
+        assertFalse(grid.hasPoints());
+        assertNull(grid.getPoints());
+        assertEquals(7, grid.getMaxCellCount());
+        assertEquals(1.0, grid.getCellWidth(), 0);
+        assertEquals(2.0, grid.getCellHeight(), 0);
+
+        double[][] cells = grid.getCells();
+        assertEquals(3, cells[0].length);
+        assertArrayEquals(new double[]{0.5, 0.5, 9.5}, cells[0], 0);
+        assertArrayEquals(new double[]{1, 19, 19}, cells[1], 0);
+        assertArrayEquals(new double[]{7, 1, 2}, cells[2], 0);
+    }
+
+    @Test
+    public void testSingleValue() {
+        ScatterplotGrid grid = new ScatterplotGrid("x", "y", new double[]{5, 5, 5, 5}, 4, 4, 0);
+        grid.process(tuple(5.0, 5.0, 8));
+
+        assertFalse(grid.hasPoints());
+        double[][] cells = grid.getCells();
+        assertEquals(1, cells[0].length);
+        // the cell contains the value
+        assertEquals(5.0, cells[0][0], grid.getCellWidth() / 2);
+        assertEquals(5.0, cells[1][0], grid.getCellHeight() / 2);
+        assertEquals(8, cells[2][0], 0);
+    }
+
+    @Test
+    public void testInvalidValues() {
+        ScatterplotGrid grid = new ScatterplotGrid("x", "y", new double[]{0, 0, 1, 1}, 2, 2, 10);
+        Map<String, Object> map = new HashMap<>();
+        map.put("x", "not a number");
+        map.put("y", 1.0);
+        grid.process(new Tuple(map));
+        map = new HashMap<>();
+        map.put("x", 1.0);
+        map.put("count(*)", 1L);
+        grid.process(new Tuple(map));
+
+        assertEquals(0, grid.getCount());
+        assertEquals(0, grid.getCells()[0].length);
+    }
+
+    private static Tuple tuple(double x, double y, long count) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("x", x);
+        map.put("y", y);
+        map.put("count(*)", count);
+        return new Tuple(map);
+    }
+}
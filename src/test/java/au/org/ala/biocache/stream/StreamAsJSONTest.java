@@ -0,0 +1,105 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StreamAsJSONTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testTupleValuesAreConverted() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", "a");
+        map.put("year", 2001L);
+        map.put("decimalLatitude", -35.5);
+        map.put("eventDate", "2001-02-03T00:00:00Z");
+        map.put("occurrenceYear", Arrays.asList("2001-01-01T00:00:00Z"));
+        map.put("typeStatus", "holotype");
+        map.put("dataHubUid", Arrays.asList("dh1", "dh2"));
+
+        List<OccurrenceIndex> updated = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = mapper.getFactory().createGenerator(out)) {
+            json.writeStartArray();
+            StreamAsJSON streamAsJSON = new StreamAsJSON(json, OccurrenceIndex.class, updated::addAll);
+            assertTrue(streamAsJSON.process(new Tuple(map)));
+            assertTrue(streamAsJSON.flush());
+            assertEquals(1, streamAsJSON.getCount());
+            json.writeEndArray();
+        }
+
+        assertEquals(1, updated.size());
+        OccurrenceIndex oi = updated.get(0);
+        assertEquals("a", oi.getUuid());
+        assertEquals(Integer.valueOf(2001), oi.getYear());
+        assertEquals(Double.valueOf(-35.5), oi.getDecimalLatitude());
+        assertEquals(Date.from(java.time.Instant.parse("2001-02-03T00:00:00Z")), oi.getEventDate());
+        assertEquals(Date.from(java.time.Instant.parse("2001-01-01T00:00:00Z")), oi.getOccurrenceYear());
+        assertArrayEquals(new String[]{"holotype"}, oi.getTypeStatus());
+        assertArrayEquals(new String[]{"dh1", "dh2"}, oi.getDataHubUid());
+
+        JsonNode written = mapper.readTree(out.toByteArray());
+        assertEquals(1, written.size());
+        assertEquals(mapper.valueToTree(oi), written.get(0));
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = mapper.getFactory().createGenerator(out)) {
+            json.writeStartArray();
+            StreamAsJSON streamAsJSON = new StreamAsJSON(json, OccurrenceIndex.class, batch -> batchSizes.add(batch.size()));
+            for (int i = 0; i < StreamAsJSON.BATCH_SIZE * 2 + 1; i++) {
+                streamAsJSON.process(tuple(i));
+            }
+            streamAsJSON.flush();
+            json.writeEndArray();
+        }
+
+        assertEquals(Arrays.asList(StreamAsJSON.BATCH_SIZE, StreamAsJSON.BATCH_SIZE, 1), batchSizes);
+
+        JsonNode written = mapper.readTree(out.toByteArray());
+        assertEquals(StreamAsJSON.BATCH_SIZE * 2 + 1, written.size());
+        assertEquals("0", written.get(0).get("uuid").asText());
+    }
+
+    @Test
+    public void testCancelledWhenClientDisconnects() throws Exception {
+        OutputStream closed = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        JsonGenerator json = mapper.getFactory().createGenerator(closed);
+        StreamAsJSON streamAsJSON = new StreamAsJSON(json, OccurrenceIndex.class, null);
+        assertFalse(streamAsJSON.cancelled());
+        for (int i = 0; i < StreamAsJSON.BATCH_SIZE * 100 && !streamAsJSON.cancelled(); i++) {
+            streamAsJSON.process(tuple(i));
+        }
+
+        assertTrue(streamAsJSON.cancelled());
+        assertFalse(streamAsJSON.flush());
+    }
+
+    private static Tuple tuple(int i) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", String.valueOf(i));
+        map.put("scientificName", "name " + i);
+        return new Tuple(map);
+    }
+}
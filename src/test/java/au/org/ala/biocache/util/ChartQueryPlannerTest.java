@@ -0,0 +1,163 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dto.FieldStatsItem;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChartQueryPlannerTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSeriesAndRangesAreNested() throws Exception {
+        ChartQueryPlanner planner = new ChartQueryPlanner(null, null);
+        for (String series : new String[]{"state:A", "state:B"}) {
+            for (String range : new String[]{"year:[1900 TO 1950]", "year:[1950 TO 2000]"}) {
+                planner.addCount(series, range);
+            }
+        }
+
+        JsonNode json = mapper.readTree(planner.toJsonFacet(null));
+
+        // one query facet for each series, each with a query facet for each range
+        assertEquals(2, json.size());
+        JsonNode series = json.get("q0");
+        assertEquals("query", series.get("type").asText());
+        assertEquals("state:A", series.get("q").asText());
+        assertEquals(2, series.get("facet").size());
+        assertEquals("year:[1900 TO 1950]", series.get("facet").get("q1").get("q").asText());
+        assertFalse(series.get("facet").get("q1").has("facet"));
+    }
+
+    @Test
+    public void testFormatQueries() throws Exception {
+        ChartQueryPlanner planner = new ChartQueryPlanner(null, null);
+        planner.addCount("lsid:urn:lsid:biodiversity.org.au:afd.taxon:1", "year:[1900 TO 1950]");
+        planner.addCount("species_list:dr123", "year:[1900 TO 1950]");
+
+        // special fields are expanded like the fqs of a search, each distinct fq is formatted once
+        List<String> formatted = new ArrayList<>();
+        planner.formatQueries(fq -> {
+            formatted.add(fq);
+            if (fq.startsWith("lsid:")) {
+                return "lft:[1 TO 10]";
+            } else if (fq.startsWith("species_list:")) {
+                return "(taxon_concept_lsid:A OR taxon_concept_lsid:B)";
+            }
+            return fq;
+        });
+        assertEquals(3, formatted.size());
+
+        JsonNode json = mapper.readTree(planner.toJsonFacet(null));
+        assertEquals("lft:[1 TO 10]", json.get("q0").get("q").asText());
+        assertEquals("year:[1900 TO 1950]", json.get("q0").get("facet").get("q1").get("q").asText());
+        assertEquals("(taxon_concept_lsid:A OR taxon_concept_lsid:B)", json.get("q2").get("q").asText());
+    }
+
+    @Test
+    public void testDecodeCounts() {
+        ChartQueryPlanner planner = new ChartQueryPlanner(null, null);
+        int a = planner.addCount("state:A", "year:[1900 TO 1950]");
+        int b = planner.addCount("state:A", "year:[1950 TO 2000]");
+        int c = planner.addCount(null, "year:[1950 TO 2000]");
+
+        NamedList<Object> facets = bucket(30,
+                "q0", bucket(20,
+                        "q1", bucket(5),
+                        "q2", bucket(15)),
+                "q3", bucket(25));
+        planner.decode(facets);
+
+        assertEquals(5, planner.getCount(a));
+        assertEquals(15, planner.getCount(b));
+        assertEquals(25, planner.getCount(c));
+    }
+
+    @Test
+    public void testEmptyDomain() {
+        ChartQueryPlanner planner = new ChartQueryPlanner("year", Arrays.asList("min", "max", "count", "missing"));
+        int count = planner.addCount("state:A", "year:[1900 TO 1950]");
+        int stats = planner.addStats("state:A", "year:[1900 TO 1950]");
+
+        // sub-facets of an empty domain are not returned
+        planner.decode(bucket(10, "q0", bucket(0)));
+
+        assertEquals(0, planner.getCount(count));
+        FieldStatsItem item = planner.getStats(stats);
+        assertNull(item.getMin());
+        assertEquals(Long.valueOf(0), item.getCount());
+        assertEquals(Long.valueOf(0), item.getMissing());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        ChartQueryPlanner planner = new ChartQueryPlanner("year", Arrays.asList("min", "max", "mean", "count", "unsupported"));
+        int stats = planner.addStats();
+
+        JsonNode json = mapper.readTree(planner.toJsonFacet(null));
+        JsonNode facet = json.get("q0").get("facet");
+        assertEquals("*:*", json.get("q0").get("q").asText());
+        assertEquals("min(year)", facet.get("stat_min").asText());
+        assertEquals("avg(year)", facet.get("stat_mean").asText());
+        assertEquals("countvals(year)", facet.get("stat_count").asText());
+        assertEquals(4, facet.size());
+
+        planner.decode(bucket(10, "q0", bucket(10, "stat_min", 1900L, "stat_max", 2000L, "stat_mean", 1950.5, "stat_count", 8L)));
+
+        FieldStatsItem item = planner.getStats(stats);
+        assertEquals("year", item.getLabel());
+        assertEquals(1900.0, item.getMin());
+        assertEquals(2000.0, item.getMax());
+        assertEquals(1950.5, item.getMean());
+        assertEquals(Long.valueOf(8), item.getCount());
+    }
+
+    @Test
+    public void testFacetStats() throws Exception {
+        ChartQueryPlanner planner = new ChartQueryPlanner("year", Arrays.asList("max"));
+        int facetStats = planner.addFacetStats("state", "basis:Human");
+
+        JsonNode terms = mapper.readTree(planner.toJsonFacet(null)).get("q0").get("facet").get("terms0");
+        assertEquals("state", terms.get("field").asText());
+        assertEquals(-1, terms.get("limit").asInt());
+        assertTrue(terms.get("missing").asBoolean());
+        assertEquals("max(year)", terms.get("facet").get("stat_max").asText());
+
+        List<NamedList<Object>> buckets = new ArrayList<>();
+        buckets.add(bucket(3, "val", "A", "stat_max", 1990L));
+        buckets.add(bucket(4, "val", "B", "stat_max", 2000L));
+        planner.decode(bucket(10, "q0", bucket(10, "terms0", bucket(-1, "buckets", buckets, "missing", bucket(3, "stat_max", 1980L)))));
+
+        List<FieldStatsItem> items = planner.getFacetStats(facetStats);
+        assertEquals(3, items.size());
+        assertEquals("A", items.get(0).getLabel());
+        assertEquals("state:\"A\"", items.get(0).getFq());
+        assertEquals(1990.0, items.get(0).getMax());
+        assertNull(items.get(2).getLabel());
+        assertEquals("-state:*", items.get(2).getFq());
+        assertEquals(1980.0, items.get(2).getMax());
+    }
+
+    /**
+     * JSON Facet API response bucket
+     */
+    private static NamedList<Object> bucket(long count, Object... values) {
+        NamedList<Object> bucket = new SimpleOrderedMap<>();
+        if (count >= 0) {
+            bucket.add("count", count);
+        }
+        for (int i = 0; i < values.length; i += 2) {
+            bucket.add((String) values[i], values[i + 1]);
+        }
+        return bucket;
+    }
+}
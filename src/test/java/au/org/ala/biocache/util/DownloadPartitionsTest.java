@@ -0,0 +1,36 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DownloadPartitionsTest {
+
+    @Test
+    public void testNoPartitions() {
+        List<String> fqs = DownloadPartitions.idRangeFilters(1);
+        assertEquals(1, fqs.size());
+        assertNull(fqs.get(0));
+    }
+
+    @Test
+    public void testContiguousRanges() {
+        List<String> fqs = DownloadPartitions.idRangeFilters(4);
+        assertEquals(4, fqs.size());
+        assertEquals("id:[* TO 4}", fqs.get(0));
+        assertEquals("id:[4 TO 8}", fqs.get(1));
+        assertEquals("id:[8 TO c}", fqs.get(2));
+        assertEquals("id:[c TO *]", fqs.get(3));
+    }
+
+    @Test
+    public void testLimitedToMaxPartitions() {
+        List<String> fqs = DownloadPartitions.idRangeFilters(100);
+        assertEquals(DownloadPartitions.MAX_PARTITIONS, fqs.size());
+        assertEquals("id:[* TO 1}", fqs.get(0));
+        assertEquals("id:[f TO *]", fqs.get(fqs.size() - 1));
+    }
+}
@@ -112,8 +112,8 @@ public class QidCacheIT {
 
     /**
      * test cache size management
-     * 1. put more than maxcachesize causes a drop to mincachesize
-     * 2. after drop all puts are still retrievable, from disk
+     * 1. put more than maxcachesize keeps the cache size <= maxcachesize
+     * 2. after eviction all puts are still retrievable, from disk
      */
     @Test
     public void testSizeManagement() throws QidMissingException, QidSizeException, InterruptedException {
@@ -122,42 +122,31 @@ public class QidCacheIT {
         ArrayList<String> keys = new ArrayList<String>();
         double[] defaultbbox = {1, 2, 3, 4};
         long putSize = 0;
-        int cacheSizeDropCount = 0;
         for (int i = 0; i < 1000; i++) {
-            long beforeSize = qidCacheDao.getSize();
             keys.add(qidCacheDao.put("q" + i, "displayString", "wkt", defaultbbox, null, -1, null));
-            long afterSize = qidCacheDao.getSize();
 
-            if (beforeSize > afterSize) {
-                Thread.sleep(100);
-
-                //test cache size is significantly reduced after a cacheclean
-                //cachecleaner is on a thread
-                assertTrue(afterSize <= 500);
-                cacheSizeDropCount++;
-            }
+            //test cache size is bounded after every put
+            assertTrue(qidCacheDao.getSize() <= qidCacheDao.getMaxCacheSize());
 
             pcos.add(qidCacheDao.get(String.valueOf(keys.get(keys.size() - 1))));
 
             putSize += pcos.get(pcos.size() - 1).getSize();
         }
 
-        Thread.sleep(5000);
-
         //test size calcuations are operating
         assertTrue(putSize > 10000);
 
-        //test cache cleaner was run more than once
-        assertTrue(cacheSizeDropCount > 1);
-
-        //test gets
-//        for (int i = 0; i < pcos.size(); i++) {
-//            Qid getqid = qidCacheDao.get(String.valueOf(keys.get(i)));
-//            Qid putqid = pcos.get(i);
-//
-//            //compare getpco and putpco
-//            assertQidsEqual(getqid, putqid);
-//        }
+        //test entries were evicted
+        assertTrue(((Number) qidCacheDao.getCacheStats().get("evictionCount")).longValue() > 0);
+
+        //test gets of evicted entries
+        for (int i = 0; i < 10; i++) {
+            Qid getqid = qidCacheDao.get(String.valueOf(keys.get(i)));
+            Qid putqid = pcos.get(i);
+
+            //compare getpco and putpco
+            assertQidsEqual(getqid, putqid);
+        }
     }
 
     /**
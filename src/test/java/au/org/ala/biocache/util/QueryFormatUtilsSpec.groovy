@@ -1,5 +1,6 @@
 package au.org.ala.biocache.util
 
+import au.org.ala.biocache.dao.IndexDAO
 import au.org.ala.biocache.service.ListsService
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.common.io.Resources
@@ -13,11 +14,14 @@ class QueryFormatUtilsSpec extends Specification {
 
     def listsService = Stub(ListsService)
     def searchUtils = Stub(SearchUtils)
+    def indexDao = Stub(IndexDAO)
 
     def setup() {
 
         queryFormatUtils.listsService = listsService
         queryFormatUtils.searchUtils = searchUtils
+        queryFormatUtils.indexDao = indexDao
+        queryFormatUtils.init()
     }
 
 
@@ -26,7 +30,7 @@ class QueryFormatUtilsSpec extends Specification {
         queryFormatUtils.maxBooleanClauses = 12
         listsService.getListItems(_) >> { String id -> getTestListItems(id) }
         listsService.getListInfo(_) >> { String id -> getTestList(id) }
-        searchUtils.getTaxonSearch(_) >> { String lsid -> [ "taxon_concept_lsid:${ClientUtils.escapeQueryChars(lsid)}", "taxon_concept_lsid:$lsid"] as String[] }
+        searchUtils.getTaxonSearches(_) >> { List<String> lsids -> lsids.collect { String lsid -> [ "taxon_concept_lsid:${ClientUtils.escapeQueryChars(lsid)}", "taxon_concept_lsid:$lsid"] as String[] } }
 
         when:
         def current = [currentDisplay, currentQuery] as String[]
@@ -68,6 +72,36 @@ class QueryFormatUtilsSpec extends Specification {
         '<span>before</span> species_list:dr123 <span>between</span> species_list:dr456 <span>after</span>' | 'field:before species_list:dr123 field:between species_list:dr456 field:after'   || '<span>before</span> <span class="species_list failed" id=\'dr123\'>dr123 (FAILED)</span> <span>between</span> <span class="species_list failed" id=\'dr456\'>dr456 (FAILED)</span> <span>after</span>' | 'field:before (NOT *:*) field:between (NOT *:*) field:after'
     }
 
+    def "test species_list: lft ranges are merged"() {
+        setup:
+        listsService.getListItems(_) >> ['a', 'b', 'c', 'd', 'e']
+        searchUtils.getTaxonSearches(_) >> [
+                ['lft:[10 TO 20]', 'species: a'], ['lft:[12 TO 15]', 'species: b'], ['lft:[1 TO 9]', 'genus: c'],
+                ['lft:[30 TO 40]', 'genus: d'], ['taxonConceptID:"e"', 'taxonConceptID:"e"']
+        ].collect { it as String[] }
+
+        when:
+        def current = ['species_list:dr789', 'species_list:dr789'] as String[]
+        queryFormatUtils.formatSpeciesList(current)
+
+        then:
+        current[1] == '((lft:[1 TO 20] OR lft:[30 TO 40] OR taxonConceptID:"e"))'
+    }
+
+    def "test species_list: queries are cached per index version"() {
+        setup:
+        def lookups = 0
+        listsService.getListItems(_) >> { String id -> lookups++; ['a'] }
+        searchUtils.getTaxonSearches(_) >> [['lft:[1 TO 2]', 'species: a'] as String[]]
+        indexDao.getIndexVersion(false) >>> [1L, 1L, 2L]
+
+        when:
+        3.times { queryFormatUtils.formatSpeciesList(['species_list:dr789', 'species_list:dr789'] as String[]) }
+
+        then:
+        lookups == 2
+    }
+
     private static ObjectMapper om = new ObjectMapper()
 
     private static String getResultQuery(String uid) {
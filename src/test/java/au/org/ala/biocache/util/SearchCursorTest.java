@@ -0,0 +1,45 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchCursorTest {
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        SearchCursor cursor = new SearchCursor("1234", "taxon_name", "desc", "AoE/Ai1hYmM=");
+        String token = cursor.encode();
+
+        // safe to use in a URL without encoding
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+
+        SearchCursor decoded = SearchCursor.decode(token);
+        assertEquals("1234", decoded.getQid());
+        assertEquals("taxon_name", decoded.getSort());
+        assertEquals("desc", decoded.getDir());
+        assertEquals("AoE/Ai1hYmM=", decoded.getCursorMark());
+    }
+
+    @Test
+    public void testNext() throws Exception {
+        SearchCursor next = SearchCursor.decode(new SearchCursor("1234", "score", "asc", "*").next("AoE=").encode());
+        assertEquals("1234", next.getQid());
+        assertEquals("score", next.getSort());
+        assertEquals("AoE=", next.getCursorMark());
+    }
+
+    @Test
+    public void testInvalidTokens() {
+        String[] tokens = {"", "not a token", new SearchCursor("abc", "score", "asc", "*").encode(),
+                new SearchCursor("1234", "score", "asc", "").encode()};
+        for (String token : tokens) {
+            try {
+                SearchCursor.decode(token);
+                fail(token);
+            } catch (QidMissingException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import au.org.ala.biocache.util.solr.FieldMappedQueryResponse;
+import au.org.ala.biocache.util.solr.FieldMappedSolrParams;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SearchResponseCacheTest {
+
+    SearchResponseCache searchResponseCache;
+    IndexDAO indexDao;
+
+    @Before
+    public void setup() {
+        indexDao = Mockito.mock(IndexDAO.class);
+        Mockito.when(indexDao.getIndexVersion(false)).thenReturn(1L);
+
+        searchResponseCache = new SearchResponseCache();
+        searchResponseCache.indexDao = indexDao;
+        searchResponseCache.init();
+    }
+
+    @Test
+    public void testEquivalentRequestsShareKey() {
+        SolrQuery query1 = new SolrQuery("*:*");
+        query1.addFilterQuery("b:2", "a:1");
+        query1.setParam("XRequestID", "1");
+        query1.setRows(10);
+
+        SolrQuery query2 = new SolrQuery();
+        query2.setRows(10);
+        query2.addFilterQuery("a:1", "b:2");
+        query2.setQuery("*:*");
+        query2.setParam("XRequestID", "2");
+
+        SolrQuery query3 = query2.getCopy();
+        query3.setStart(10);
+
+        assertEquals(searchResponseCache.key("search", query1), searchResponseCache.key("search", query2));
+        assertNotEquals(searchResponseCache.key("search", query1), searchResponseCache.key("facetCounts", query2));
+        assertNotEquals(searchResponseCache.key("search", query2), searchResponseCache.key("search", query3));
+    }
+
+    @Test
+    public void testIndexVersionChangeClearsResponses() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        SolrQuery query = new SolrQuery("*:*");
+
+        QueryResponse qr = searchResponseCache.get("search", query, () -> response(requests));
+        assertSame(qr, searchResponseCache.get("search", query, () -> response(requests)));
+        assertEquals(1, requests.get());
+
+        Mockito.when(indexDao.getIndexVersion(false)).thenReturn(2L);
+        assertNotSame(qr, searchResponseCache.get("search", query, () -> response(requests)));
+        assertEquals(2, requests.get());
+
+        Map<String, Object> stats = (Map<String, Object>) searchResponseCache.getStats().get("search");
+        assertEquals(1L, stats.get("hitCount"));
+        assertEquals(2L, stats.get("missCount"));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        SolrQuery query = new SolrQuery("*:*");
+
+        try {
+            searchResponseCache.get("search", query, () -> {
+                throw new IllegalStateException("solr unavailable");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertNotNull(searchResponseCache.get("search", query, () -> response(requests)));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareLoad() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SolrQuery query = new SolrQuery("*:*");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<QueryResponse> first = executor.submit(() -> searchResponseCache.get("search", query, () -> {
+                loading.countDown();
+                release.await();
+                return response(requests);
+            }));
+            loading.await();
+
+            List<Future<QueryResponse>> others = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                others.add(executor.submit(() -> searchResponseCache.get("search", query, () -> response(requests))));
+            }
+            release.countDown();
+
+            QueryResponse qr = first.get();
+            for (Future<QueryResponse> other : others) {
+                assertSame(qr, other.get());
+            }
+            assertEquals(1, requests.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResponsesAreTranslatedBeforeSharing() throws Exception {
+        AtomicInteger translations = new AtomicInteger();
+        SolrDocumentList results = new SolrDocumentList();
+        QueryResponse delegate = new QueryResponse(new NamedList<>(), null) {
+            @Override
+            public SolrDocumentList getResults() {
+                translations.incrementAndGet();
+                return results;
+            }
+        };
+        SolrQuery query = new SolrQuery("*:*");
+
+        QueryResponse qr = searchResponseCache.get("search", query,
+                () -> new FieldMappedQueryResponse(null, new FieldMappedSolrParams(null, new ModifiableSolrParams()), delegate));
+        assertEquals(1, translations.get());
+
+        // the cached translation is read
+        assertSame(results, searchResponseCache.get("search", query, () -> null).getResults());
+        assertSame(results, qr.getResults());
+        assertEquals(1, translations.get());
+    }
+
+    @Test
+    public void testEstimateSize() {
+        NamedList<Object> small = new NamedList<>();
+        small.add("numFound", 1);
+
+        NamedList<Object> large = new NamedList<>();
+        large.add("value", new String(new char[10000]));
+
+        assertTrue(SearchResponseCache.estimateSize(new QueryResponse(large, null))
+                > SearchResponseCache.estimateSize(new QueryResponse(small, null)) + 20000);
+    }
+
+    private static QueryResponse response(AtomicInteger requests) {
+        requests.incrementAndGet();
+        return new QueryResponse(new NamedList<>(), null);
+    }
+}
@@ -0,0 +1,132 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsAreCoalesced() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<Integer> first = executor.submit(() -> singleFlight.execute("q", () -> {
+                running.countDown();
+                release.await();
+                return calls.incrementAndGet();
+            }));
+            running.await();
+
+            List<Future<Integer>> others = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                others.add(executor.submit(() -> singleFlight.execute("q", calls::incrementAndGet)));
+            }
+            // wait for the others to be waiting on the first call
+            while (!singleFlight.getStats().get("coalescedCount").equals(7L)) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals(1, (int) first.get());
+            for (Future<Integer> other : others) {
+                assertEquals(1, (int) other.get());
+            }
+            assertEquals(1, calls.get());
+            assertEquals(0, singleFlight.getInFlightCount());
+            assertEquals(7.0 / 8, (double) singleFlight.getStats().get("coalescingRatio"), 0.0001);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHasWaiters() throws Exception {
+        SingleFlight<String, Boolean> singleFlight = new SingleFlight<>();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> first = executor.submit(() -> singleFlight.execute("q", () -> {
+                boolean before = singleFlight.hasWaiters("q");
+                running.countDown();
+                release.await();
+                return !before && singleFlight.hasWaiters("q");
+            }));
+            running.await();
+
+            Future<Boolean> second = executor.submit(() -> singleFlight.execute("q", () -> false));
+            while (!singleFlight.getStats().get("coalescedCount").equals(1L)) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            // no waiters before the second call, and a waiter after it
+            assertTrue(first.get());
+            assertTrue(second.get());
+            assertFalse(singleFlight.hasWaiters("q"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResultsAreNotKept() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, (int) singleFlight.execute("q", calls::incrementAndGet));
+        assertEquals(2, (int) singleFlight.execute("q", calls::incrementAndGet));
+        assertEquals(3, (int) singleFlight.execute("other", calls::incrementAndGet));
+        assertEquals(0L, singleFlight.getStats().get("coalescedCount"));
+    }
+
+    @Test
+    public void testExceptionIsShared() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(() -> singleFlight.execute("q", () -> {
+                running.countDown();
+                release.await();
+                throw new IllegalStateException("failed");
+            }));
+            running.await();
+            Future<Integer> second = executor.submit(() -> singleFlight.execute("q", () -> 1));
+            while (!singleFlight.getStats().get("coalescedCount").equals(1L)) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (Future<Integer> future : new Future[]{first, second}) {
+                try {
+                    future.get();
+                    fail();
+                } catch (Exception e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+
+            // the failure is not kept
+            assertEquals(2, (int) singleFlight.execute("q", () -> 2));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
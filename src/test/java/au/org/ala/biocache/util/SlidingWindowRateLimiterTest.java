@@ -0,0 +1,91 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SlidingWindowRateLimiterTest {
+
+    static final long WINDOW = 300000;
+
+    @Test
+    public void testLimitPerKey() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(1000);
+        long now = WINDOW * 10;
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire("1.1.1.1", 5, WINDOW, now + i));
+        }
+        assertFalse(limiter.tryAcquire("1.1.1.1", 5, WINDOW, now + 5));
+
+        // other keys have their own counts
+        assertTrue(limiter.tryAcquire("2.2.2.2", 5, WINDOW, now + 5));
+
+        assertEquals(6L, limiter.getStats().get("allowedCount"));
+        assertEquals(1L, limiter.getStats().get("rejectedCount"));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(1000);
+        long start = WINDOW * 10;
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + i));
+        }
+        assertFalse(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + WINDOW - 1));
+
+        // a tenth of the way into the next window, 9 of the previous 10 requests are estimated to be in the window
+        assertTrue(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + WINDOW + WINDOW / 10));
+        assertFalse(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + WINDOW + WINDOW / 10));
+
+        // half way, 5 of the previous 10 and 1 in the current window
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + WINDOW + WINDOW / 2));
+        }
+        assertFalse(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + WINDOW + WINDOW / 2));
+
+        // the counts do not apply once two windows have passed
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("1.1.1.1", 10, WINDOW, start + WINDOW * 3 + i));
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(1000);
+        long now = WINDOW * 10;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                tasks.add(() -> {
+                    int count = 0;
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire("1.1.1.1", 100, WINDOW, now)) {
+                            count++;
+                        }
+                    }
+                    return count;
+                });
+            }
+
+            int allowed = 0;
+            for (Future<Integer> future : executor.invokeAll(tasks)) {
+                allowed += future.get();
+            }
+            assertEquals(100, allowed);
+            assertEquals(7900L, limiter.getStats().get("rejectedCount"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
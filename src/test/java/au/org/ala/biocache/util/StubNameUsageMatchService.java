@@ -0,0 +1,74 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.*;
+
+/**
+ * Local name matching service for tests. Taxa added with add(...) are returned by get and getAll, all other LSIDs are
+ * not matched.
+ */
+public class StubNameUsageMatchService {
+
+    private static final NameUsageMatch NO_MATCH = NameUsageMatch.builder().success(false).build();
+
+    private final Map<String, NameUsageMatch> matches = new ConcurrentHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final ALANameUsageMatchServiceClient client = Mockito.mock(ALANameUsageMatchServiceClient.class);
+
+    public StubNameUsageMatchService() {
+        Mockito.when(client.get(anyString())).thenAnswer(invocation -> {
+            requestCount.incrementAndGet();
+            return match(invocation.getArgument(0));
+        });
+        Mockito.when(client.getAll(anyList(), anyBoolean())).thenAnswer(invocation -> {
+            requestCount.incrementAndGet();
+            List<String> lsids = invocation.getArgument(0);
+            return lsids.stream().map(this::match).collect(Collectors.toList());
+        });
+    }
+
+    public StubNameUsageMatchService add(String lsid, int lft, int rgt, String rank, String scientificName) {
+        matches.put(lsid, NameUsageMatch.builder()
+                .success(true)
+                .lft(lft)
+                .rgt(rgt)
+                .rank(rank)
+                .scientificName(scientificName)
+                .build());
+        return this;
+    }
+
+    public ALANameUsageMatchServiceClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return number of get and getAll requests
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return an initialised TaxonRangeResolver that uses this name matching service
+     */
+    public TaxonRangeResolver resolver() {
+        TaxonRangeResolver resolver = new TaxonRangeResolver();
+        resolver.nameUsageMatchService = client;
+        resolver.init();
+        return resolver;
+    }
+
+    private NameUsageMatch match(String lsid) {
+        return matches.getOrDefault(lsid, NO_MATCH);
+    }
+}
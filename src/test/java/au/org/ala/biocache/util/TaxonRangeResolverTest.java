@@ -0,0 +1,99 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TaxonRangeResolverTest {
+
+    StubNameUsageMatchService nameService;
+    TaxonRangeResolver resolver;
+
+    @Before
+    public void setup() {
+        nameService = new StubNameUsageMatchService()
+                .add("lsid1", 1, 100, "kingdom", "Animalia")
+                .add("lsid2", 10, 20, "species", "Species two");
+        resolver = nameService.resolver();
+    }
+
+    @Test
+    public void testGetAll() {
+        Map<String, TaxonRangeResolver.TaxonRange> ranges = resolver.getAll(Arrays.asList("lsid1", "lsid2", "unknown", "lsid1"));
+
+        assertEquals(2, ranges.size());
+        assertEquals(10, ranges.get("lsid2").getLft());
+        assertEquals(20, ranges.get("lsid2").getRgt());
+        assertEquals("species", ranges.get("lsid2").getRank());
+        assertEquals("Species two", ranges.get("lsid2").getScientificName());
+        assertNull(ranges.get("unknown"));
+        assertEquals(1, nameService.getRequestCount());
+
+        // matched and unmatched LSIDs are cached
+        assertEquals(1, resolver.get("lsid1").getLft());
+        assertNull(resolver.get("unknown"));
+        assertEquals(1, nameService.getRequestCount());
+
+        resolver.clear();
+        assertNotNull(resolver.get("lsid1"));
+        assertEquals(2, nameService.getRequestCount());
+    }
+
+    @Test
+    public void testBatches() {
+        resolver = new TaxonRangeResolver();
+        resolver.nameUsageMatchService = nameService.getClient();
+        resolver.batchSize = 10;
+        resolver.init();
+
+        List<String> lsids = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            nameService.add("batch" + i, i, i, "species", "Species " + i);
+            lsids.add("batch" + i);
+        }
+
+        Map<String, TaxonRangeResolver.TaxonRange> ranges = resolver.getAll(lsids);
+        assertEquals(95, ranges.size());
+        assertEquals(10, nameService.getRequestCount());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        List<String> lsids = Arrays.asList("lsid1", "lsid2");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CyclicBarrier barrier = new CyclicBarrier(8);
+        List<Future<Map<String, TaxonRangeResolver.TaxonRange>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                barrier.await();
+                return resolver.getAll(lsids);
+            }));
+        }
+        for (Future<Map<String, TaxonRangeResolver.TaxonRange>> result : results) {
+            assertEquals(2, result.get(10, TimeUnit.SECONDS).size());
+        }
+        executor.shutdown();
+
+        // each LSID is looked up once
+        assertTrue(nameService.getRequestCount() <= 2);
+    }
+
+    @Test
+    public void testTaxonSearches() {
+        SearchUtils searchUtils = new SearchUtils();
+        ReflectionTestUtils.setField(searchUtils, "taxonRangeResolver", resolver);
+
+        List<String[]> searches = searchUtils.getTaxonSearches(Arrays.asList("lsid2", "unknown"));
+        assertArrayEquals(new String[]{"lft:[10 TO 20]", "species: Species two"}, searches.get(0));
+        assertArrayEquals(new String[]{"taxonConceptID:\"unknown\"", "taxonConceptID:\"unknown\""}, searches.get(1));
+    }
+}
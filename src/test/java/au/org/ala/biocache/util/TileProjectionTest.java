@@ -0,0 +1,53 @@
+package au.org.ala.biocache.util;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.DefaultCoordinateOperationFactory;
+import org.geotools.referencing.operation.transform.IdentityTransform;
+import org.junit.Test;
+import org.opengis.referencing.crs.CRSAuthorityFactory;
+import org.opengis.referencing.operation.MathTransform;
+
+import static org.junit.Assert.*;
+
+public class TileProjectionTest {
+
+    @Test
+    public void testIdentityPixels() {
+        TileProjection projection = new TileProjection(IdentityTransform.create(2), new double[]{0, 0, 10, 10}, 100, 100);
+
+        assertTrue(projection.isSeparable(0, 0, 10, 10));
+        assertArrayEquals(new int[]{0, 50, 99}, projection.columnPixels(new double[]{0, 5, 9.99}, 5));
+        // y pixels are from the top of the tile
+        assertArrayEquals(new int[]{0, 50, 100}, projection.rowPixels(new double[]{10, 5, 0}, 5));
+
+        int[] xy = new int[2];
+        assertTrue(projection.pixel(2.5, 7.5, xy));
+        assertEquals(25, xy[0]);
+        assertEquals(25, xy[1]);
+    }
+
+    @Test
+    public void testSeparableMatchesPixel() throws Exception {
+        System.setProperty("org.geotools.referencing.forceXY", "true");
+        CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
+        MathTransform transform = new DefaultCoordinateOperationFactory().createOperation(
+                factory.createCoordinateReferenceSystem("EPSG:4326"), factory.createCoordinateReferenceSystem("EPSG:3857")).getMathTransform();
+
+        double[] tilebbox = new double[4];
+        transform.transform(new double[]{140, -40, 150, -30}, 0, tilebbox, 0, 2);
+        TileProjection projection = new TileProjection(transform, tilebbox, 256, 256);
+
+        assertTrue(projection.isSeparable(140, -40, 150, -30));
+
+        double[] lngs = {140.1, 143.7, 149.9};
+        double[] lats = {-30.1, -35.2, -39.9};
+        int[] xs = projection.columnPixels(lngs, -35);
+        int[] ys = projection.rowPixels(lats, 145);
+        int[] xy = new int[2];
+        for (int i = 0; i < lngs.length; i++) {
+            assertTrue(projection.pixel(lngs[i], lats[i], xy));
+            assertEquals(xy[0], xs[i]);
+            assertEquals(xy[1], ys[i]);
+        }
+    }
+}
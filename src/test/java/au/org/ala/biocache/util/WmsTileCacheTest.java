@@ -0,0 +1,60 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class WmsTileCacheTest {
+
+    WmsTileCache wmsTileCache;
+    IndexDAO indexDao;
+
+    @Before
+    public void setup() {
+        indexDao = Mockito.mock(IndexDAO.class);
+        Mockito.when(indexDao.getIndexVersion(false)).thenReturn(1L);
+
+        wmsTileCache = new WmsTileCache();
+        wmsTileCache.indexDao = indexDao;
+        wmsTileCache.cacheDir = null;
+        wmsTileCache.init();
+    }
+
+    @Test
+    public void testEquivalentRequestsShareKey() {
+        String key1 = wmsTileCache.key("*:*", new String[]{"b:2", "a:1"}, "color:ff0000", "", "EPSG:3857", "0,0,1,1",
+                256, 256, false, "0x000000", Collections.emptySet(), 16);
+        String key2 = wmsTileCache.key("*:*", new String[]{"a:1", "b:2", ""}, " color:ff0000", "", "EPSG:3857", "0, 0, 1, 1",
+                256, 256, false, "0x000000", Collections.emptySet(), 16);
+        String key3 = wmsTileCache.key("*:*", new String[]{"a:1"}, "color:ff0000", "", "EPSG:3857", "0,0,1,1",
+                256, 256, false, "0x000000", Arrays.asList(1), 16);
+
+        assertEquals(key1, key2);
+        assertNotEquals(key1, key3);
+    }
+
+    @Test
+    public void testIndexVersionChangeClearsTiles() {
+        String key = wmsTileCache.key("*:*", null, "", "", "EPSG:3857", "0,0,1,1", 256, 256, false, "0x000000", null, 16);
+        wmsTileCache.put(key, new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, wmsTileCache.get(key));
+
+        Mockito.when(indexDao.getIndexVersion(false)).thenReturn(2L);
+        assertEquals("etag-2", wmsTileCache.eTag("etag"));
+        assertNull(wmsTileCache.get(key));
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(WmsTileCache.matches("etag-1", "etag-1"));
+        assertTrue(WmsTileCache.matches("\"x\", W/\"etag-1\"", "etag-1"));
+        assertFalse(WmsTileCache.matches("etag-0", "etag-1"));
+        assertFalse(WmsTileCache.matches(null, "etag-1"));
+    }
+}
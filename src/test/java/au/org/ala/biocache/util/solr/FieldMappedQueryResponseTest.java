@@ -0,0 +1,121 @@
+package au.org.ala.biocache.util.solr;
+
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class FieldMappedQueryResponseTest {
+
+    static final int DOCUMENTS = 5000;
+    static final int FACET_VALUES = 5000;
+    static final int THREADS = 8;
+
+    @Test
+    public void testTranslate() {
+        FieldMappedQueryResponse response = response().translate();
+
+        SolrDocumentList results = response.getResults();
+        assertEquals(DOCUMENTS, results.size());
+        assertEquals(DOCUMENTS, results.getNumFound());
+        assertEquals("0", results.get(0).getFieldValue("id"));
+        assertEquals("0", results.get(0).getFieldValue("legacy_name"));
+        assertNull(results.get(0).getFieldValue("name"));
+
+        FacetField facet = response.getFacetField("legacy_facet");
+        assertNotNull(facet);
+        assertEquals(FACET_VALUES, facet.getValueCount());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int run = 0; run < 20; run++) {
+                // not translated in advance, each thread may be the first to read a translation
+                FieldMappedQueryResponse response = response();
+                CyclicBarrier start = new CyclicBarrier(THREADS);
+
+                List<Future<String>> reads = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    reads.add(executor.submit(() -> {
+                        start.await();
+                        return read(response);
+                    }));
+                }
+                for (Future<String> read : reads) {
+                    assertNull(read.get(30, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return null when the translations are complete, otherwise what is wrong
+     */
+    private static String read(FieldMappedQueryResponse response) {
+        SolrDocumentList results = response.getResults();
+        if (results.size() != DOCUMENTS) {
+            return "results: " + results.size();
+        }
+        for (SolrDocument sd : results) {
+            if (sd.getFieldValue("legacy_name") == null) {
+                return "untranslated document";
+            }
+        }
+
+        List<FacetField> facetFields = response.getFacetFields();
+        if (facetFields.size() != 1) {
+            return "facet fields: " + facetFields.size();
+        }
+        if (facetFields.get(0).getValueCount() != FACET_VALUES) {
+            return "facet values: " + facetFields.get(0).getValueCount();
+        }
+        return null;
+    }
+
+    private static FieldMappedQueryResponse response() {
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(DOCUMENTS);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            SolrDocument sd = new SolrDocument();
+            sd.setField("id", String.valueOf(i));
+            sd.setField("name", String.valueOf(i));
+            results.add(sd);
+        }
+
+        FacetField facet = new FacetField("facet");
+        for (int i = 0; i < FACET_VALUES; i++) {
+            facet.add(String.valueOf(i), i);
+        }
+        List<FacetField> facetFields = Collections.singletonList(facet);
+
+        QueryResponse delegate = new QueryResponse() {
+            @Override
+            public SolrDocumentList getResults() {
+                return results;
+            }
+
+            @Override
+            public List<FacetField> getFacetFields() {
+                return facetFields;
+            }
+        };
+
+        // no params to translate, the inverse translations are added directly
+        FieldMappedSolrParams params = new FieldMappedSolrParams(null, new ModifiableSolrParams());
+        params.paramsInverseTranslations.put("fl", Collections.singletonMap("name", new String[]{"legacy_name"}));
+        params.paramsInverseTranslations.put("facet.field", Collections.singletonMap("facet", new String[]{"legacy_facet"}));
+
+        return new FieldMappedQueryResponse(null, params, delegate);
+    }
+}
@@ -0,0 +1,84 @@
+package au.org.ala.biocache.web;
+
+import au.org.ala.biocache.dto.HeatmapDTO;
+import au.org.ala.biocache.util.ImgObj;
+import au.org.ala.biocache.util.WmsEnv;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.DefaultCoordinateOperationFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opengis.referencing.crs.CRSAuthorityFactory;
+import org.opengis.referencing.operation.CoordinateOperation;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link WMSController#renderHeatmap} for a 256x256 EPSG:3857 tile of a dense 256x256 heatmap.
+ * <p>
+ * Run with the main method of this class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WMSRenderBenchmark {
+
+    static final int SIZE = 256;
+
+    @Param({"1", "4"})
+    int gridSizeInPixels;
+
+    WMSController controller;
+    HeatmapDTO heatmapDTO;
+    WmsEnv vars;
+    CoordinateOperation transformFrom4326;
+    double[] tilebbox;
+
+    @Setup
+    public void setup() throws Exception {
+        System.setProperty("org.geotools.referencing.forceXY", "true");
+
+        controller = new WMSController();
+        vars = new WmsEnv("color:cd3844;size:4;opacity:1.0", null);
+
+        CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
+        transformFrom4326 = new DefaultCoordinateOperationFactory().createOperation(
+                factory.createCoordinateReferenceSystem("EPSG:4326"), factory.createCoordinateReferenceSystem("EPSG:3857"));
+
+        // tile over south eastern Australia
+        double[] bbox = {140, -40, 150, -30};
+        double[] lowerLeft = new double[2];
+        double[] upperRight = new double[2];
+        transformFrom4326.getMathTransform().transform(new double[]{bbox[0], bbox[1]}, 0, lowerLeft, 0, 1);
+        transformFrom4326.getMathTransform().transform(new double[]{bbox[2], bbox[3]}, 0, upperRight, 0, 1);
+        tilebbox = new double[]{lowerLeft[0], lowerLeft[1], upperRight[0], upperRight[1]};
+
+        Random random = new Random(1);
+        int[] grid = new int[SIZE * SIZE];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = 1 + random.nextInt(1000);
+        }
+
+        heatmapDTO = new HeatmapDTO(8, Collections.singletonList(grid), null, gridSizeInPixels, SIZE, SIZE,
+                bbox[0], bbox[1], bbox[2], bbox[3]);
+        heatmapDTO.setTileExtents(bbox);
+    }
+
+    @Benchmark
+    public ImgObj render() {
+        ImgObj tile = controller.renderHeatmap(heatmapDTO, heatmapDTO.layers, vars, 4, false, "0x000000",
+                SIZE, SIZE, transformFrom4326, tilebbox, null);
+        tile.g.dispose();
+        return tile;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WMSRenderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,190 @@
+package au.org.ala.biocache.writer;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import au.org.ala.biocache.stream.OptionalZipOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link CSVRecordWriter} and {@link TSVRecordWriter} with the previous opencsv and StringBuilder writers
+ * for 10,000 download rows of 40 columns written to an unzipped OptionalZipOutputStream.
+ * <p>
+ * Run with the main method of this class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordWriterBenchmark {
+
+    static final int ROWS = 10000;
+    static final int COLUMNS = 40;
+
+    @Param({"legacyCsv", "csv", "legacyTsv", "tsv"})
+    String implementation;
+
+    String[] header;
+    String[][] rows;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        header = new String[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            header[i] = "column" + i;
+        }
+
+        String[] values = {"", "Acacia dealbata", "urn:lsid:biodiversity.org.au:apni.taxon:295867", "-35.2809", "149.13",
+                "PreservedSpecimen", "Australian National Herbarium", "2015-03-21", "a \"quoted\", value",
+                "Eucalyptus \u00e9l\u00e9gans", "notes\nwith new line"};
+        rows = new String[ROWS][COLUMNS];
+        for (String[] row : rows) {
+            for (int i = 0; i < COLUMNS; i++) {
+                row[i] = values[random.nextInt(values.length)];
+            }
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        OptionalZipOutputStream out = new OptionalZipOutputStream(OptionalZipOutputStream.Type.unzipped, NullOutputStream.NULL_OUTPUT_STREAM, 100);
+        out.putNextEntry("data.csv");
+
+        RecordWriterError writer;
+        switch (implementation) {
+            case "legacyCsv":
+                writer = new LegacyCSVRecordWriter(out, header);
+                break;
+            case "csv":
+                writer = new CSVRecordWriter(out, header);
+                break;
+            case "legacyTsv":
+                writer = new LegacyTSVRecordWriter(out, header);
+                break;
+            default:
+                writer = new TSVRecordWriter(out, header);
+        }
+
+        writer.initialise();
+        for (String[] row : rows) {
+            writer.write(row);
+        }
+        writer.finalise();
+        out.close();
+    }
+
+    /**
+     * The previous CSVRecordWriter, opencsv with a second encoding of each field to estimate the length.
+     */
+    static class LegacyCSVRecordWriter extends CSVRecordWriter {
+        final OptionalZipOutputStream out;
+        final String[] header;
+        CSVWriter csvWriter;
+
+        LegacyCSVRecordWriter(OptionalZipOutputStream out, String[] header) {
+            super(out, header);
+            this.out = out;
+            this.header = header;
+        }
+
+        @Override
+        public void initialise() {
+            csvWriter = new CSVWriter(new OutputStreamWriter(new CloseShieldOutputStream(out), StandardCharsets.UTF_8), ',', '"', CSVWriter.DEFAULT_ESCAPE_CHARACTER);
+            csvWriter.writeNext(header);
+        }
+
+        @Override
+        public void write(String[] record) {
+            csvWriter.writeNext(record);
+            try {
+                int length = record.length * "\",\"".getBytes(StandardCharsets.UTF_8).length * 2;
+                for (String s : record) if (s != null) length += s.getBytes(StandardCharsets.UTF_8).length;
+                if (out.isNewFile(this, length)) {
+                    write(header);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                csvWriter.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void finalise() {
+            try {
+                csvWriter.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * The previous TSVRecordWriter, a new StringBuilder and byte array for each record.
+     */
+    static class LegacyTSVRecordWriter extends TSVRecordWriter {
+        final OptionalZipOutputStream out;
+        final String[] header;
+
+        LegacyTSVRecordWriter(OptionalZipOutputStream out, String[] header) {
+            super(out, header);
+            this.out = out;
+            this.header = header;
+        }
+
+        @Override
+        public void initialise() {
+            write(header);
+        }
+
+        @Override
+        public void write(String[] record) {
+            StringBuilder line = new StringBuilder(256);
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) line.append('\t');
+                String value = (record[i] != null) ? record[i] : "";
+                line.append(value.replace("\r", "").replace("\n", "").replace("\t", ""));
+            }
+            line.append("\n");
+
+            try {
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                if (out.isNewFile(this, bytes.length)) {
+                    write(header);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void finalise() {
+            flush();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RecordWriterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
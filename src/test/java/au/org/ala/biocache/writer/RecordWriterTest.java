@@ -0,0 +1,124 @@
+package au.org.ala.biocache.writer;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import au.org.ala.biocache.stream.OptionalZipOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class RecordWriterTest {
+
+    static final String[] HEADER = {"id", "name", "notes"};
+
+    static final String[][] RECORDS = {
+            {"1", "Acacia", "plain"},
+            {"2", null, "with \"quotes\", commas\nand new lines"},
+            {"3", "Eucalyptus \u00e9\u4e2d", "emoji \ud83d\udc28 and unpaired \ud83d"},
+            {"4", "back\\slash", "tab\there\r"},
+            {"5", "", ""}
+    };
+
+    @Test
+    public void testCsvMatchesOpenCsv() throws Exception {
+        assertCsvMatchesOpenCsv(',', CSVWriter.DEFAULT_ESCAPE_CHARACTER);
+        assertCsvMatchesOpenCsv('\t', '\\');
+        assertCsvMatchesOpenCsv(';', CSVWriter.NO_ESCAPE_CHARACTER);
+    }
+
+    private void assertCsvMatchesOpenCsv(char sep, char esc) throws Exception {
+        StringWriter expected = new StringWriter();
+        CSVWriter csvWriter = new CSVWriter(expected, sep, '"', esc);
+        csvWriter.writeNext(HEADER);
+        for (String[] record : RECORDS) {
+            csvWriter.writeNext(record);
+        }
+        csvWriter.flush();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CSVRecordWriter writer = new CSVRecordWriter(out, HEADER, sep, esc);
+        writer.initialise();
+        for (String[] record : RECORDS) {
+            writer.write(record);
+        }
+        writer.finalise();
+
+        assertFalse(writer.hasError());
+        assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void testTsv() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TSVRecordWriter writer = new TSVRecordWriter(out, HEADER);
+        writer.initialise();
+        for (String[] record : RECORDS) {
+            writer.write(record);
+        }
+        writer.finalise();
+
+        StringBuilder expected = new StringBuilder("id\tname\tnotes\n");
+        for (String[] record : RECORDS) {
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) expected.append('\t');
+                expected.append(record[i] == null ? "" : record[i].replace("\r", "").replace("\n", "").replace("\t", ""));
+            }
+            expected.append('\n');
+        }
+
+        assertFalse(writer.hasError());
+        assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void testZipSplitUsesEncodedBytes() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OptionalZipOutputStream zip = new OptionalZipOutputStream(OptionalZipOutputStream.Type.zipped, bytes, 1);
+        zip.putNextEntry("data.csv");
+
+        // 3 byte chars so a character count would be a third of the size
+        String value = new String(new char[1000]).replace('\0', '\u4e2d');
+        CSVRecordWriter writer = new CSVRecordWriter(zip, HEADER);
+        writer.initialise();
+        for (int i = 0; i < 1000; i++) {
+            writer.write(new String[]{String.valueOf(i), value, ""});
+        }
+        writer.finalise();
+        zip.closeEntry();
+        zip.close();
+
+        List<String> names = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+                long size = 0;
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    size += n;
+                }
+                sizes.add(size);
+            }
+        }
+
+        // about 3MB in 1MB parts
+        assertEquals(3, names.size());
+        assertEquals("data.csv", names.get(0));
+        assertEquals("data_part2.csv", names.get(1));
+        assertEquals("data_part3.csv", names.get(2));
+        for (int i = 0; i < names.size() - 1; i++) {
+            assertTrue(sizes.get(i) >= 1024 * 1024);
+            assertTrue(sizes.get(i) < 1024 * 1024 + 4000);
+        }
+    }
+}